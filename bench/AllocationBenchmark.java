@@ -0,0 +1,92 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how many bytes the infection algorithms allocate per run, using the JVM's per thread allocation counter.
+ *
+ * The same users and classes are built twice, the second time with 8x the overlapping enrollments between them, so
+ * both are one big component and a total infection reaches the same users in both. Once the
+ * graph snapshots are built, a run over the dense graph should allocate about as much as a run over the sparse one:
+ * the only allocations left are per run buffers sized by the number of users and classes, never by the number of
+ * edges scanned.
+ *
+ * Run with: java -cp out AllocationBenchmark [numClasses] [classSize]
+ */
+public class AllocationBenchmark {
+
+    private static final String BASE_SITE_VERSION = "00000";
+    private static final int WARMUP_RUNS = 10;
+
+    public static void main(String[] args) {
+        int numClasses = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int classSize = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            measure(numClasses, classSize, 2, TraversalMode.SEQUENTIAL);
+            measure(numClasses, classSize, 2, TraversalMode.COMPONENT);
+        }
+        for (TraversalMode mode : new TraversalMode[] {TraversalMode.SEQUENTIAL, TraversalMode.COMPONENT}) {
+            long sparse = measure(numClasses, classSize, 2, mode);
+            long dense = measure(numClasses, classSize, 16, mode);
+            System.out.println(String.format("totalInfection %s: %d bytes at 1x overlap, %d bytes at 8x overlap, %+d bytes",
+                    mode, sparse, dense, dense - sparse));
+        }
+        long limited = measureLimited(numClasses, classSize);
+        System.out.println(String.format("limitedInfection 25%%: %d bytes", limited));
+    }
+
+    /**
+     * @return the bytes allocated by one totalInfection, not counting the graph snapshot build
+     */
+    private static long measure(int numClasses, int classSize, int overlap, TraversalMode mode) {
+        TestEnvironment testEnv = createEnvironment(numClasses, classSize, overlap);
+        User startUser = testEnv.getAllUsersList().get(0);
+        testEnv.getGraph();
+        long before = allocatedBytes();
+        testEnv.totalInfection(startUser, "00001", mode);
+        return allocatedBytes() - before;
+    }
+
+    private static long measureLimited(int numClasses, int classSize) {
+        TestEnvironment testEnv = createEnvironment(numClasses, classSize, 2);
+        testEnv.getGraph();
+        long before = allocatedBytes();
+        testEnv.limitedInfection("00001", 0.25f);
+        return allocatedBytes() - before;
+    }
+
+    /**
+     * Creates numClasses classes of classSize students each, where every student is also enrolled in overlap - 1
+     * other random classes
+     */
+    private static TestEnvironment createEnvironment(int numClasses, int classSize, int overlap) {
+        Random random = new Random(42);
+        List<User> users = new ArrayList<>();
+        List<Class> classes = new ArrayList<>();
+        for (int i = 0; i < numClasses; i++) {
+            List<User> students = new ArrayList<>(classSize);
+            for (int j = 0; j < classSize; j++) {
+                User student = new User(j + "," + i + "student", BASE_SITE_VERSION);
+                students.add(student);
+                users.add(student);
+            }
+            classes.add(new Class(new User(i + "teacher", BASE_SITE_VERSION), students));
+        }
+        for (User user : users) {
+            for (int k = 1; k < overlap; k++) {
+                classes.get(random.nextInt(numClasses)).enrollStudent(user);
+            }
+        }
+        TestEnvironment testEnv = new TestEnvironment(BASE_SITE_VERSION, false);
+        for (Class classroom : classes) {
+            testEnv.addClass(classroom);
+        }
+        return testEnv;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
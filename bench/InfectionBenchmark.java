@@ -0,0 +1,289 @@
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks for building the environment and running the infections over synthetic graphs of different sizes,
+ * class size distributions and overlaps. Every benchmark is measured both as throughput and as sampled time, so
+ * the report includes latency percentiles, and main adds the GC profiler for allocation rates and GC counts.
+ *
+ * The infections change the environment they run on, so they get a freshly generated one for every invocation,
+ * outside of the measured time.
+ *
+ * Needs jmh-core and jmh-generator-annprocess on the classpath, with src compiled alongside. Run with:
+ * java -cp out:jmh.jar InfectionBenchmark [JMH options], e.g. -p numUsers=1000000 -p overlap=4
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InfectionBenchmark {
+
+    private static final long SEED = 42;
+    private static final String NEW_SITE_VERSION = "00001";
+
+    @Param({"10000", "100000"})
+    public int numUsers;
+
+    @Param({"UNIFORM", "SKEWED"})
+    public SyntheticClasses.ClassSizes classSizes;
+
+    @Param({"30"})
+    public int meanClassSize;
+
+    @Param({"1", "4"})
+    public int overlap;
+
+    /**
+     * Freshly generated classes that are not in any environment yet
+     */
+    @State(Scope.Thread)
+    public static class NewClasses {
+        public List<Class> classes;
+
+        @Setup(Level.Invocation)
+        public void setUp(InfectionBenchmark params) {
+            classes = SyntheticClasses.create(params.numUsers, params.classSizes, params.meanClassSize,
+                    params.overlap, SEED);
+        }
+    }
+
+    /**
+     * A freshly generated environment with its graph snapshot already built and nobody infected yet
+     */
+    @State(Scope.Thread)
+    public static class NewEnvironment {
+        public TestEnvironment testEnv;
+
+        @Setup(Level.Invocation)
+        public void setUp(InfectionBenchmark params) {
+            testEnv = SyntheticClasses.createEnvironment(params.numUsers, params.classSizes, params.meanClassSize,
+                    params.overlap, SEED);
+        }
+    }
+
+    /**
+     * A generated environment that is only read, so it is shared by all invocations
+     */
+    @State(Scope.Thread)
+    public static class SharedEnvironment {
+        public TestEnvironment testEnv;
+        public List<Class> classes;
+
+        @Setup(Level.Trial)
+        public void setUp(InfectionBenchmark params) {
+            testEnv = SyntheticClasses.createEnvironment(params.numUsers, params.classSizes, params.meanClassSize,
+                    params.overlap, SEED);
+            classes = testEnv.getAllClasses();
+        }
+    }
+
+    /**
+     * The limitedInfection targets, as a fraction of all users, and the modes to reach them with
+     */
+    @State(Scope.Thread)
+    public static class Target {
+        @Param({"0.05", "0.25", "0.5"})
+        public float target;
+
+        @Param({"CLASS_QUEUE", "CHEAPEST_FIRST", "WHOLE_COMPONENTS"})
+        public LimitedInfectionMode mode;
+    }
+
+    @Benchmark
+    public TestEnvironment addClass(NewClasses newClasses) {
+        TestEnvironment testEnv = new TestEnvironment(SyntheticClasses.BASE_SITE_VERSION, false, SEED);
+        for (Class classroom : newClasses.classes) {
+            testEnv.addClass(classroom);
+        }
+        return testEnv;
+    }
+
+    /**
+     * Connected classes are kept up to date by enrollment, so what is left of the old setAllConnectedClasses pass
+     * is the graph snapshot
+     */
+    @Benchmark
+    public Graph buildGraph(NewClasses newClasses) {
+        TestEnvironment testEnv = new TestEnvironment(SyntheticClasses.BASE_SITE_VERSION, false, SEED);
+        for (Class classroom : newClasses.classes) {
+            testEnv.addClass(classroom);
+        }
+        return testEnv.getGraph();
+    }
+
+    @Benchmark
+    public int totalInfectionSequential(NewEnvironment newEnv, Metrics metrics, Storage storage) {
+        TestEnvironment testEnv = newEnv.testEnv;
+        testEnv.setMetrics(metrics.enabled ? new InfectionMetrics() : null);
+        testEnv.totalInfection(testEnv.getAllUsersList().get(0), NEW_SITE_VERSION, TraversalMode.SEQUENTIAL);
+        return testEnv.getInfectedUsers().size();
+    }
+
+    @Benchmark
+    public int totalInfectionParallel(NewEnvironment newEnv) {
+        TestEnvironment testEnv = newEnv.testEnv;
+        testEnv.totalInfection(testEnv.getAllUsersList().get(0), NEW_SITE_VERSION, TraversalMode.PARALLEL);
+        return testEnv.getInfectedUsers().size();
+    }
+
+    @Benchmark
+    public int totalInfectionComponent(NewEnvironment newEnv) {
+        TestEnvironment testEnv = newEnv.testEnv;
+        testEnv.totalInfection(testEnv.getAllUsersList().get(0), NEW_SITE_VERSION, TraversalMode.COMPONENT);
+        return testEnv.getInfectedUsers().size();
+    }
+
+    /**
+     * Whether the runs record InfectionMetrics, to measure their overhead
+     */
+    @State(Scope.Thread)
+    public static class Metrics {
+        @Param({"false", "true"})
+        public boolean enabled;
+    }
+
+    /**
+     * Where the environment keeps its graph and per user state, moved there before the invocation is timed.
+     * Every trial runs in a fork of its own, which only sees one kind of buffer unless mixed is set: then runs over
+     * the other mode come first, so the buffer reads on the traversal paths are compiled for both kinds, as they are
+     * in a JVM that uses both modes
+     */
+    @State(Scope.Thread)
+    public static class Storage {
+        @Param({"HEAP", "OFF_HEAP"})
+        public StorageMode mode;
+
+        @Param({"false", "true"})
+        public boolean mixed;
+
+        @Setup(Level.Trial)
+        public void runOtherMode() {
+            if (!mixed) {
+                return;
+            }
+            StorageMode other = mode == StorageMode.HEAP ? StorageMode.OFF_HEAP : StorageMode.HEAP;
+            for (int i = 0; i < 30; i++) {
+                TestEnvironment testEnv = SyntheticClasses.createEnvironment(20000, SyntheticClasses.ClassSizes.UNIFORM,
+                        30, 4, SEED + i);
+                testEnv.setStorageMode(other);
+                testEnv.totalInfection(testEnv.getAllUsersList().get(0), NEW_SITE_VERSION, TraversalMode.SEQUENTIAL);
+                testEnv.limitedInfection(NEW_SITE_VERSION + "0", 0.25f);
+            }
+        }
+
+        @Setup(Level.Invocation)
+        public void setUp(NewEnvironment newEnv) {
+            newEnv.testEnv.setStorageMode(mode);
+        }
+    }
+
+    @Benchmark
+    public int limitedInfection(NewEnvironment newEnv, Target target, Metrics metrics, Storage storage) {
+        TestEnvironment testEnv = newEnv.testEnv;
+        testEnv.setMetrics(metrics.enabled ? new InfectionMetrics() : null);
+        testEnv.limitedInfection(NEW_SITE_VERSION, target.target, target.mode);
+        return testEnv.getInfectedUsers().size();
+    }
+
+    /**
+     * The number of worker threads the concurrent rollouts run on
+     */
+    @State(Scope.Thread)
+    public static class Workers {
+        @Param({"1", "4"})
+        public int parallelism;
+    }
+
+    /**
+     * Eight limited rollouts of 10% each, claiming users from each other, over one shared graph
+     */
+    @Benchmark
+    public int concurrentRollouts(SharedEnvironment sharedEnv, Workers workers) throws Exception {
+        RolloutService service = new RolloutService(sharedEnv.testEnv, ConflictPolicy.FIRST_CLAIM_WINS,
+                workers.parallelism);
+        List<Future<RolloutResult>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(service.submitLimitedInfection("1000" + i, 0.1f));
+        }
+        int numInfected = 0;
+        for (Future<RolloutResult> result : results) {
+            numInfected += result.get().getNumInfected();
+        }
+        service.shutdown();
+        return numInfected;
+    }
+
+    /**
+     * How many times a random class got a random new teacher, before the invocation is timed
+     */
+    @State(Scope.Thread)
+    public static class Churn {
+        @Param({"0", "100000"})
+        public int reassignments;
+
+        @Setup(Level.Invocation)
+        public void setUp(NewEnvironment newEnv) {
+            List<Class> classes = newEnv.testEnv.getAllClasses();
+            List<User> users = newEnv.testEnv.getAllUsersList();
+            Random random = new Random(SEED);
+            for (int i = 0; i < reassignments; i++) {
+                classes.get(random.nextInt(classes.size())).enrollTeacher(users.get(random.nextInt(users.size())));
+            }
+        }
+    }
+
+    /**
+     * Enrolls the teacher of every class as a student of the next one, which connects the next class to every class
+     * the teacher is in. Old teachers lose the classes they were replaced in, so this shouldn't grow with the churn
+     */
+    @Benchmark
+    public int enrollAfterChurn(NewEnvironment newEnv, Churn churn) {
+        List<Class> classes = newEnv.testEnv.getAllClasses();
+        for (int c = 0; c < classes.size(); c++) {
+            classes.get((c + 1) % classes.size()).enrollStudent(classes.get(c).getTeacher());
+        }
+        return classes.size();
+    }
+
+    @Benchmark
+    public void getNumStudentsAffected(SharedEnvironment sharedEnv, Blackhole blackhole) {
+        for (Class classroom : sharedEnv.classes) {
+            blackhole.consume(classroom.getNumStudentsAffected());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(InfectionBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates seeded synthetic class graphs for the benchmarks, along the lines of createRandomClasses and jumble in
+ * TestEnvironmentTest: a set of classes with fresh students and teachers, then random extra enrollments that
+ * connect them.
+ */
+public class SyntheticClasses {
+
+    public static final String BASE_SITE_VERSION = "00000";
+
+    /**
+     * How class sizes are distributed around the mean class size
+     */
+    public enum ClassSizes {
+        /**
+         * Uniform between 1 and twice the mean
+         */
+        UNIFORM,
+        /**
+         * Pareto distributed: most classes are small, a few are huge "hub" classes
+         */
+        SKEWED
+    }
+
+    /**
+     * @param numUsers roughly how many students to create
+     * @param classSizes how class sizes are distributed
+     * @param meanClassSize the mean number of students per class
+     * @param overlap the number of classes every student takes, so overlap - 1 extra enrollments each
+     * @param seed
+     * @return the classes
+     */
+    public static List<Class> create(int numUsers, ClassSizes classSizes, int meanClassSize, int overlap, long seed) {
+        Random random = new Random(seed);
+        List<Class> classes = new ArrayList<>();
+        List<User> students = new ArrayList<>(numUsers);
+        int numStudents = 0;
+        while (numStudents < numUsers) {
+            int classSize = Math.min(nextClassSize(random, classSizes, meanClassSize), numUsers - numStudents);
+            List<User> classStudents = new ArrayList<>(classSize);
+            for (int j = 0; j < classSize; j++) {
+                User student = new User(j + "," + classes.size() + "student", BASE_SITE_VERSION);
+                classStudents.add(student);
+                students.add(student);
+            }
+            numStudents += classSize;
+            classes.add(new Class(new User(classes.size() + "teacher", BASE_SITE_VERSION), classStudents));
+        }
+        for (User student : students) {
+            for (int k = 1; k < overlap; k++) {
+                classes.get(random.nextInt(classes.size())).enrollStudent(student);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * @return an environment holding freshly generated classes, with its graph snapshot already built
+     */
+    public static TestEnvironment createEnvironment(int numUsers, ClassSizes classSizes, int meanClassSize,
+                                                    int overlap, long seed) {
+        TestEnvironment testEnv = new TestEnvironment(BASE_SITE_VERSION, false, seed);
+        for (Class classroom : create(numUsers, classSizes, meanClassSize, overlap, seed)) {
+            testEnv.addClass(classroom);
+        }
+        testEnv.getGraph();
+        return testEnv;
+    }
+
+    private static int nextClassSize(Random random, ClassSizes classSizes, int meanClassSize) {
+        if (classSizes == ClassSizes.UNIFORM) {
+            return 1 + random.nextInt(2 * meanClassSize);
+        }
+        //pareto with shape 2 has mean 2 * scale
+        double scale = meanClassSize / 2.0;
+        return (int) Math.ceil(scale / Math.sqrt(1.0 - random.nextDouble()));
+    }
+}
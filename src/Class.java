@@ -1,7 +1,10 @@
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 public class Class {
 
@@ -9,11 +12,16 @@ public class Class {
     private User teacher;
     private int numStudentsInfected;
     private Set<Class> connectedClasses;
+    private int numStudentsAffected; //the sum of getNumStudentsNotInfected over the connected classes
+    private boolean affectedCounted; //false until numStudentsAffected is first summed up, and after the connected classes are replaced
+    private HashMap<Class, Integer> sharedUserCounts; //how many enrollments link this class to each connected class, null until worked out for a bulk loaded class
+    private List<EnrollmentListener> listeners; //notified of every new enrollment into this class
+    private List<User> allUsersView; //read-only view of the teacher followed by the students
+    private ListPositions<User> studentPositions; //the index in students of every enrollment, null until the first unenrollment
 
     public Class(User teacher) {
-        this.students = new ArrayList<>();
-        this.numStudentsInfected = 0;
-        this.connectedClasses = new HashSet<>();
+        this(new ArrayList<>());
+        this.sharedUserCounts = new HashMap<>();
         enrollTeacher(teacher);
     }
 
@@ -24,12 +32,67 @@ public class Class {
         }
     }
 
+    private Class(List<User> students) {
+        this.students = students;
+        this.numStudentsInfected = 0;
+        this.numStudentsAffected = 0;
+        this.affectedCounted = false;
+        this.connectedClasses = new ConnectedClassSet();
+        this.listeners = new ArrayList<>();
+        this.allUsersView = new AllUsersView();
+    }
+
+    /**
+     * Creates a class out of enrollments loaded in bulk. The teacher and students are linked to the class directly,
+     * without going through enrollTeacher and enrollStudent, and the class's own connected classes are only worked
+     * out from its users' classes the first time they are needed
+     * @param teacher
+     * @param students taken over by the class, not copied
+     * @return the class
+     */
+    protected static Class fromEnrollments(User teacher, ArrayList<User> students) {
+        Class classroom = new Class(students);
+        classroom.teacher = teacher;
+        classroom.announceTo(teacher);
+        teacher.addClassToTeach(classroom);
+        for (User student : students) {
+            classroom.announceTo(student);
+            student.addClassToTake(classroom);
+        }
+        return classroom;
+    }
+
+    /**
+     * Tells the classes the user is already in that they now share the user with this class.
+     * Classes that haven't worked out their connected classes yet will see it when they do
+     */
+    private void announceTo(User user) {
+        for (int i = 0; i < user.getAllClassesView().size(); i++) {
+            Class other = user.getAllClassesView().get(i);
+            if (other != this) {
+                other.changeSharedUsers(this, 1);
+            }
+        }
+    }
+
     public Set<Class> getConnectedClasses() {
+        if (sharedUserCounts == null) {
+            sharedUserCounts = new HashMap<>();
+            forEachUser(user -> user.forEachClass(other -> {
+                if (other != this) {
+                    sharedUserCounts.merge(other, 1, Integer::sum);
+                }
+            }));
+            connectedClasses.addAll(sharedUserCounts.keySet());
+        }
         return connectedClasses;
     }
 
     public void setConnectedClasses(Set<Class> newConnectedClasses) {
-        connectedClasses = newConnectedClasses;
+        getConnectedClasses();
+        connectedClasses = new ConnectedClassSet();
+        connectedClasses.addAll(newConnectedClasses);
+        affectedCounted = false;
     }
 
     public boolean isCompletelyInfected() {
@@ -38,12 +101,59 @@ public class Class {
 
     public void increaseNumStudentsInfected() {
         numStudentsInfected++;
+        propagateNotInfectedChange(-1);
     }
 
     public float getPercentageStudentsInfected() {
         return (float) numStudentsInfected / (float) students.size();
     }
 
+    protected void setNumStudentsInfected(int numInfected) {
+        int change = numStudentsInfected - numInfected;
+        numStudentsInfected = numInfected;
+        if (change != 0) {
+            propagateNotInfectedChange(change);
+        }
+    }
+
+    /**
+     * Sets the count without telling the connected classes, so a bulk loaded class doesn't have to work them out.
+     * Any connected class that summed up its affected count must be made to forget it
+     * @param numInfected
+     */
+    protected void restoreNumStudentsInfected(int numInfected) {
+        numStudentsInfected = numInfected;
+    }
+
+    /**
+     * Makes the class sum up its affected count again the next time it is asked, after a connected class changed
+     * its count with restoreNumStudentsInfected
+     */
+    protected void forgetNumStudentsAffected() {
+        affectedCounted = false;
+    }
+
+    /**
+     * @return false for a bulk loaded class until it works out its connected classes
+     */
+    protected boolean hasConnectedClasses() {
+        return sharedUserCounts != null;
+    }
+
+    /**
+     * Tells every connected class that the number of not infected students in this class changed.
+     * Classes that haven't summed their count up yet will do it when they are asked, so they are skipped.
+     * A bulk loaded class works out its connected classes on its first change
+     * @param change
+     */
+    private void propagateNotInfectedChange(int change) {
+        for (Class connectedClass : getConnectedClasses()) {
+            if (connectedClass.affectedCounted) {
+                connectedClass.numStudentsAffected += change;
+            }
+        }
+    }
+
     public int getNumStudentsInfected() {
         return numStudentsInfected;
     }
@@ -52,12 +162,20 @@ public class Class {
         return students.size() - numStudentsInfected;
     }
 
+    /**
+     * @return the number of not infected students in all connected classes. Infections in connected classes are
+     * pushed to this count as they happen, as are enrollment changes in connected classes and classes being
+     * (dis)connected, so it's O(1). Only the first call, and the first after setConnectedClasses, sums it up
+     */
     public int getNumStudentsAffected() {
-        int totalAffected = 0;
-        for (Class connectedClass : connectedClasses) {
-            totalAffected += connectedClass.getNumStudentsNotInfected();
+        if (!affectedCounted) {
+            numStudentsAffected = 0;
+            for (Class connectedClass : getConnectedClasses()) {
+                numStudentsAffected += connectedClass.getNumStudentsNotInfected();
+            }
+            affectedCounted = true;
         }
-        return totalAffected;
+        return numStudentsAffected;
     }
 
     public List<User> getStudents() {
@@ -68,6 +186,10 @@ public class Class {
         return teacher;
     }
 
+    /**
+     * @return a copy of the teacher followed by the students. Prefer forEachUser or getAllUsersView in loops,
+     * which don't allocate
+     */
     public List<User> getAllUsers() {
         List<User> allUsers = new ArrayList<>();
         allUsers.add(teacher);
@@ -75,14 +197,126 @@ public class Class {
         return allUsers;
     }
 
+    /**
+     * @return a read-only live view of the teacher followed by the students. The same view is returned every time
+     */
+    public List<User> getAllUsersView() {
+        return allUsersView;
+    }
+
+    /**
+     * Calls the action on the teacher and then on every student, without allocating
+     * @param action
+     */
+    public void forEachUser(Consumer<? super User> action) {
+        action.accept(teacher);
+        for (int i = 0; i < students.size(); i++) {
+            action.accept(students.get(i));
+        }
+    }
+
     public void enrollStudent(User student) {
+        connectThroughUser(student, true);
         students.add(student);
+        if (studentPositions != null) {
+            studentPositions.elementAdded(student);
+        }
+        propagateNotInfectedChange(1);
         student.addClassToTake(this);
+        for (EnrollmentListener listener : listeners) {
+            listener.onEnrollment(this, student, false);
+        }
     }
 
+    /**
+     * Makes the user the teacher of this class. A previous teacher is unenrolled first: the class is taken off
+     * their teaching classes, and any class they were the last link to is disconnected
+     * @param newTeacher
+     */
     public void enrollTeacher(User newTeacher) {
+        if (newTeacher == teacher) {
+            return;
+        }
+        User oldTeacher = teacher;
+        if (oldTeacher != null) {
+            oldTeacher.removeClassToTeach(this);
+            connectThroughUser(oldTeacher, false);
+        }
+        connectThroughUser(newTeacher, true);
         teacher = newTeacher;
         newTeacher.addClassToTeach(this);
+        for (EnrollmentListener listener : listeners) {
+            if (oldTeacher != null) {
+                listener.onUnenrollment(this, oldTeacher, true);
+            }
+            listener.onEnrollment(this, newTeacher, true);
+        }
+    }
+
+    /**
+     * Removes one enrollment of the student from this class, disconnecting any class the student was the
+     * last link to. The last student takes the removed one's place, so this is O(1) plus the student's classes,
+     * but changes the order of the students. The students are only indexed on the first unenrollment, so classes
+     * that never lose a student don't pay for it
+     * @param student
+     * @return false if the student was not enrolled in this class
+     */
+    public boolean unenrollStudent(User student) {
+        if (studentPositions == null) {
+            studentPositions = new ListPositions<>(students);
+        }
+        if (!studentPositions.contains(student)) {
+            return false;
+        }
+        //before the student is taken off, so a bulk loaded class works out its connected classes with them
+        propagateNotInfectedChange(-1);
+        studentPositions.swapRemove(student);
+        student.removeClassToTake(this);
+        connectThroughUser(student, false);
+        for (EnrollmentListener listener : listeners) {
+            listener.onUnenrollment(this, student, false);
+        }
+        return true;
+    }
+
+    /**
+     * Keeps connectedClasses up to date as the user joins or leaves this class: every other class of the user
+     * gains or loses one shared enrollment with this class, and is (dis)connected when that count leaves or hits 0
+     * @param user
+     * @param joining
+     */
+    private void connectThroughUser(User user, boolean joining) {
+        for (Class other : user.getTakingClasses()) {
+            linkTo(other, joining);
+        }
+        for (Class other : user.getTeachingClasses()) {
+            linkTo(other, joining);
+        }
+    }
+
+    private void linkTo(Class other, boolean joining) {
+        if (other == this) {
+            return;
+        }
+        changeSharedUsers(other, joining ? 1 : -1);
+        other.changeSharedUsers(this, joining ? 1 : -1);
+    }
+
+    private void changeSharedUsers(Class other, int change) {
+        if (sharedUserCounts == null) {
+            return;
+        }
+        int shared = sharedUserCounts.merge(other, change, Integer::sum);
+        if (shared <= 0) {
+            sharedUserCounts.remove(other);
+            connectedClasses.remove(other);
+        } else if (shared == change) {
+            connectedClasses.add(other);
+        }
+    }
+
+    public void addEnrollmentListener(EnrollmentListener listener) {
+        listeners.add(listener);
     }
 
     public void prettyPrintClass() {
@@ -95,4 +329,48 @@ public class Class {
 
         System.out.print(sb.toString());
     }
+
+    /**
+     * The connected classes of this class. Adding or removing a class adds or takes its not infected students
+     * to or from numStudentsAffected
+     */
+    private class ConnectedClassSet extends HashSet<Class> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public boolean add(Class connectedClass) {
+            if (!super.add(connectedClass)) {
+                return false;
+            }
+            if (affectedCounted) {
+                numStudentsAffected += connectedClass.getNumStudentsNotInfected();
+            }
+            return true;
+        }
+
+        @Override
+        public boolean remove(Object connectedClass) {
+            if (!super.remove(connectedClass)) {
+                return false;
+            }
+            if (affectedCounted) {
+                numStudentsAffected -= ((Class) connectedClass).getNumStudentsNotInfected();
+            }
+            return true;
+        }
+    }
+
+    private class AllUsersView extends AbstractList<User> {
+
+        @Override
+        public User get(int index) {
+            return index == 0 ? teacher : students.get(index - 1);
+        }
+
+        @Override
+        public int size() {
+            return students.size() + 1;
+        }
+    }
 }
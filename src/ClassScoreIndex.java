@@ -0,0 +1,164 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * The classes a rollout can start over from, bucketed by their affected count, the number of not infected students
+ * in their connected classes. Bucket b holds the scores in [2^(b-1), 2^b), and bucket 0 the classes that affect
+ * nobody, so finding a class under an affected threshold is a look at a few buckets instead of random draws.
+ *
+ * Hubs, classes connected to more than the size limit of classes, are kept in buckets of their own and are only
+ * picked when no other class is under the threshold. Their affected counts are as cheap to keep as anybody's,
+ * see InfectionState, so they are scored exactly rather than left out.
+ *
+ * A class is only in the index while it has a member left to infect. The InfectionState it is attached to moves
+ * classes between buckets as their affected counts are flushed, and drops them as their last member is taken.
+ */
+public class ClassScoreIndex {
+
+    private static final int NUM_BUCKETS = 32; //bucket 0 and one per bit of a non negative int
+
+    private final Graph graph;
+    private final InfectionState state; //holds the affected count of every class
+    private final int[][] buckets; //the classes of every bucket in no particular order, hub buckets after the others
+    private final int[] bucketSizes; //the first bucketSizes[b] classes of buckets[b] are valid
+    private final int[] positions; //the index of every class in its bucket
+    private final byte[] classBuckets; //the bucket every class is in, -1 if it isn't in the index
+    private final boolean[] hubs; //true for the classes connected to more than the size limit of classes
+
+    /**
+     * Indexes every class that has a member left to infect
+     * @param graph
+     * @param state flushed first, so the affected counts are current
+     * @param sizeLimit the most connected classes a class may have and not be a hub
+     */
+    public ClassScoreIndex(Graph graph, InfectionState state, int sizeLimit) {
+        int numClasses = graph.getNumClasses();
+        this.graph = graph;
+        this.state = state;
+        this.buckets = new int[2 * NUM_BUCKETS][];
+        this.bucketSizes = new int[2 * NUM_BUCKETS];
+        this.positions = new int[numClasses];
+        this.classBuckets = new byte[numClasses];
+        this.hubs = new boolean[numClasses];
+        for (int b = 0; b < buckets.length; b++) {
+            buckets[b] = new int[4];
+        }
+        Arrays.fill(classBuckets, (byte) -1);
+        state.flushAffected(graph, null);
+        for (int c = 0; c < numClasses; c++) {
+            hubs[c] = graph.getNumConnectedClasses(c) > sizeLimit;
+            if (state.getNumAvailableMembers(c) > 0) {
+                add(c, state.getNumStudentsAffected(graph, c));
+            }
+        }
+    }
+
+    private static int bucketOf(int score) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(0, score));
+    }
+
+    private void add(int classId, int score) {
+        int bucket = hubs[classId] ? bucketOf(score) + NUM_BUCKETS : bucketOf(score);
+        classBuckets[classId] = (byte) bucket;
+        if (bucketSizes[bucket] == buckets[bucket].length) {
+            buckets[bucket] = Arrays.copyOf(buckets[bucket], bucketSizes[bucket] * 2);
+        }
+        positions[classId] = bucketSizes[bucket];
+        buckets[bucket][bucketSizes[bucket]++] = classId;
+    }
+
+    /**
+     * Takes the class out of the index, moving the last class of its bucket into its place
+     * @param classId
+     */
+    public void remove(int classId) {
+        int bucket = classBuckets[classId];
+        if (bucket < 0) {
+            return;
+        }
+        int position = positions[classId];
+        int last = buckets[bucket][--bucketSizes[bucket]];
+        buckets[bucket][position] = last;
+        positions[last] = position;
+        classBuckets[classId] = -1;
+    }
+
+    /**
+     * Moves the class to the bucket of its new affected count, if it changed bucket. Called for every change to
+     * an affected count, so the common case is one byte read
+     * @param classId
+     * @param score the class's new affected count
+     */
+    public void update(int classId, int score) {
+        int bucket = classBuckets[classId];
+        if (bucket >= 0 && bucket % NUM_BUCKETS != bucketOf(score)) {
+            remove(classId);
+            add(classId, score);
+        }
+    }
+
+    public boolean contains(int classId) {
+        return classBuckets[classId] >= 0;
+    }
+
+    /**
+     * @return the number of classes in the index
+     */
+    public int size() {
+        int size = 0;
+        for (int bucketSize : bucketSizes) {
+            size += bucketSize;
+        }
+        return size;
+    }
+
+    /**
+     * Picks a uniformly random class out of the buckets that are entirely under the threshold, or if they are
+     * empty, the first class under it in the bucket the threshold falls in, scanning from a random class on.
+     * Hubs are only looked at when no other class is under the threshold
+     * @param maxScore the threshold, which the class's affected count must be under
+     * @param random
+     * @return the class, or -1 if no class in the index is under the threshold
+     */
+    public int pick(int maxScore, SplittableRandom random) {
+        int picked = pick(0, maxScore, random);
+        return picked >= 0 ? picked : pick(NUM_BUCKETS, maxScore, random);
+    }
+
+    private int pick(int firstBucket, int maxScore, SplittableRandom random) {
+        if (maxScore <= 0) {
+            return -1;
+        }
+        //bucket b < boundary holds only scores under maxScore, since they are all under 2^b <= maxScore
+        int boundary = 32 - Integer.numberOfLeadingZeros(maxScore);
+        long numUnder = 0;
+        for (int b = 0; b < boundary; b++) {
+            numUnder += bucketSizes[firstBucket + b];
+        }
+        if (numUnder > 0) {
+            long index = random.nextLong(numUnder);
+            for (int b = firstBucket; ; b++) {
+                if (index < bucketSizes[b]) {
+                    return buckets[b][(int) index];
+                }
+                index -= bucketSizes[b];
+            }
+        }
+        if (boundary >= NUM_BUCKETS) {
+            return -1;
+        }
+        int bucket = firstBucket + boundary;
+        int size = bucketSizes[bucket];
+        if (size == 0) {
+            return -1;
+        }
+        int start = random.nextInt(size);
+        for (int i = 0; i < size; i++) {
+            int classId = buckets[bucket][(start + i) % size];
+            if (state.getNumStudentsAffected(graph, classId) < maxScore) {
+                return classId;
+            }
+        }
+        return -1;
+    }
+}
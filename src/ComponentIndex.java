@@ -0,0 +1,158 @@
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A union-find (disjoint set with path compression and union by size) over user ids, grouping users into the
+ * connected components of the enrollment graph. It is updated as users are enrolled, so the size of the
+ * component a total infection would hit is known in O(a(n)) without running it.
+ *
+ * The members of every component are also threaded into a circular linked list, which two unions splice together
+ * in O(1), so a component can be walked member by member without traversing any edges.
+ *
+ * The per user arrays are buffers of a StorageMode, so they can be kept off the heap along with the graph.
+ */
+public class ComponentIndex {
+
+    private StorageMode storageMode; //where the per user buffers are allocated
+    private IntBuffer parents; //the parent of every user, roots are their own parent
+    private IntBuffer sizes; //the size of the component, only valid for roots
+    private IntBuffer nextMembers; //the next user in the circular member list of the user's component
+    private int numUsers;
+    private int numComponents;
+    private HashMap<Integer, Integer> sizeCounts; //the number of components of every size
+
+    public ComponentIndex() {
+        this(StorageMode.HEAP);
+    }
+
+    /**
+     * @param storageMode where to keep the per user arrays
+     */
+    public ComponentIndex(StorageMode storageMode) {
+        this.storageMode = storageMode;
+        this.parents = storageMode.allocateInts(16);
+        this.sizes = storageMode.allocateInts(16);
+        this.nextMembers = storageMode.allocateInts(16);
+        this.numUsers = 0;
+        this.numComponents = 0;
+        this.sizeCounts = new HashMap<>();
+    }
+
+    /**
+     * Adds a new user in a component of its own
+     * @return the id of the user, which is the number of users added before it
+     */
+    public int addUser() {
+        if (numUsers == parents.capacity()) {
+            parents = storageMode.copyOf(parents, numUsers * 2);
+            sizes = storageMode.copyOf(sizes, numUsers * 2);
+            nextMembers = storageMode.copyOf(nextMembers, numUsers * 2);
+        }
+        int user = numUsers++;
+        parents.put(user, user);
+        sizes.put(user, 1);
+        nextMembers.put(user, user);
+        numComponents++;
+        changeSizeCount(1, 1);
+        return user;
+    }
+
+    /**
+     * @param user
+     * @return the id of the user's component, which is the id of its root user
+     */
+    public int find(int user) {
+        int root = user;
+        while (parents.get(root) != root) {
+            root = parents.get(root);
+        }
+        //path compression
+        while (parents.get(user) != root) {
+            int parent = parents.get(user);
+            parents.put(user, root);
+            user = parent;
+        }
+        return root;
+    }
+
+    /**
+     * Merges the components of the two users
+     * @return true if they were in different components
+     */
+    public boolean union(int user, int otherUser) {
+        int root = find(user);
+        int otherRoot = find(otherUser);
+        if (root == otherRoot) {
+            return false;
+        }
+        //union by size, the smaller tree hangs under the bigger one
+        if (sizes.get(root) < sizes.get(otherRoot)) {
+            int swap = root;
+            root = otherRoot;
+            otherRoot = swap;
+        }
+        changeSizeCount(sizes.get(root), -1);
+        changeSizeCount(sizes.get(otherRoot), -1);
+        parents.put(otherRoot, root);
+        sizes.put(root, sizes.get(root) + sizes.get(otherRoot));
+        changeSizeCount(sizes.get(root), 1);
+        numComponents--;
+        //splice the two circular member lists into one
+        int next = nextMembers.get(root);
+        nextMembers.put(root, nextMembers.get(otherRoot));
+        nextMembers.put(otherRoot, next);
+        return true;
+    }
+
+    private void changeSizeCount(int size, int change) {
+        int count = sizeCounts.getOrDefault(size, 0) + change;
+        if (count == 0) {
+            sizeCounts.remove(size);
+        } else {
+            sizeCounts.put(size, count);
+        }
+    }
+
+    public int getComponentSize(int user) {
+        return sizes.get(find(user));
+    }
+
+    /**
+     * Use with getNextMember to walk a component: starting at any member, the walk visits every member once and
+     * comes back to where it started
+     */
+    public int getNextMember(int user) {
+        return nextMembers.get(user);
+    }
+
+    /**
+     * Moves the per user arrays to buffers of another storage mode
+     * @param mode
+     */
+    public void setStorageMode(StorageMode mode) {
+        if (mode == storageMode) {
+            return;
+        }
+        storageMode = mode;
+        parents = mode.copyOf(parents, parents.capacity());
+        sizes = mode.copyOf(sizes, sizes.capacity());
+        nextMembers = mode.copyOf(nextMembers, nextMembers.capacity());
+    }
+
+    public int getNumUsers() {
+        return numUsers;
+    }
+
+    public int getNumComponents() {
+        return numComponents;
+    }
+
+    /**
+     * @return the number of components of each component size, ordered by size
+     */
+    public Map<Integer, Integer> getSizeHistogram() {
+        return new TreeMap<>(sizeCounts);
+    }
+}
@@ -0,0 +1,15 @@
+/**
+ * What a RolloutService does when two of its rollouts reach the same user
+ */
+public enum ConflictPolicy {
+    /**
+     * The first rollout to reach a user claims it. Other rollouts leave the user on its current site version and
+     * don't traverse through it, so every user ends up in at most one rollout
+     */
+    FIRST_CLAIM_WINS,
+    /**
+     * Rollouts don't see each other at all, and a user can be in any number of them. When their results are
+     * applied, the one applied last decides the user's site version
+     */
+    INDEPENDENT
+}
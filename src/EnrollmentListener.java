@@ -0,0 +1,20 @@
+/**
+ * Notified whenever a user is enrolled into or unenrolled from a class, so that anything indexing the enrollment
+ * graph (such as the TestEnvironment's graph snapshot) knows it has to be refreshed.
+ */
+public interface EnrollmentListener {
+
+    /**
+     * @param classroom the class the user was enrolled in
+     * @param user the user that was enrolled
+     * @param isTeacher true if the user was enrolled as the teacher, false if as a student
+     */
+    void onEnrollment(Class classroom, User user, boolean isTeacher);
+
+    /**
+     * @param classroom the class the user was removed from
+     * @param user the user that was removed
+     * @param isTeacher true if the user was removed as the teacher, false if as a student
+     */
+    void onUnenrollment(Class classroom, User user, boolean isTeacher);
+}
@@ -0,0 +1,284 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Streams enrollment exports into primitive arrays, without creating an object per row. Every row is one enrollment:
+ * a user id, a class id and whether the user teaches or takes the class. User and class ids are deduplicated in
+ * primitive hash maps and renumbered densely in order of first appearance, and the class -> members relation is
+ * then built in one counting pass, ready for Graph.fromMembers.
+ *
+ * Two formats are read, both through memory mapped windows of the file:
+ * - CSV, one "userId,classId,role" row per line where role is teacher or student. A first line that doesn't start
+ *   with a digit is taken as a header and skipped
+ * - binary, a header of BINARY_MAGIC and BINARY_VERSION as ints, followed by BINARY_RECORD_SIZE byte records of
+ *   the user id as a long, the class id as a long and the role as a byte (1 for teacher, 0 for student)
+ */
+public class EnrollmentLoader {
+
+    public static final int BINARY_MAGIC = 0x454E524C; //"ENRL"
+    public static final int BINARY_VERSION = 1;
+    public static final int BINARY_HEADER_SIZE = 8;
+    public static final int BINARY_RECORD_SIZE = 17;
+    private static final int MAX_WINDOW_SIZE = 1 << 30; //the most bytes of the file mapped at once
+    private static final int CSV_BYTES_PER_ROW = 16; //a guess used to presize the arrays for csv files
+
+    private LongIntHashMap userIds; //maps every user id in the file to its dense id
+    private long[] userKeys; //the id in the file of every dense user id
+    private int numUsers;
+    private LongIntHashMap classIds; //maps every class id in the file to its dense id
+    private long[] classKeys; //the id in the file of every dense class id
+    private int[] classTeachers; //the dense id of the teacher of every class, -1 until its teacher row is read
+    private int[] classSizes; //the number of student rows of every class
+    private int numClasses;
+    private int[] studentUsers; //the user of every student row, in file order
+    private int[] studentClasses; //the class of every student row, in file order
+    private int numStudentRows;
+    private long row; //the number of rows read so far, for error messages
+
+    public EnrollmentLoader() {
+        this.userIds = new LongIntHashMap(0);
+        this.userKeys = new long[16];
+        this.classIds = new LongIntHashMap(0);
+        this.classKeys = new long[16];
+        this.classTeachers = new int[16];
+        this.classSizes = new int[16];
+        this.studentUsers = new int[16];
+        this.studentClasses = new int[16];
+    }
+
+    /**
+     * Reads a binary export if the file starts with BINARY_MAGIC, and a csv export otherwise
+     * @param file
+     * @throws IOException if the file can't be read or isn't well formed
+     */
+    public void load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() >= 4 && channel.map(FileChannel.MapMode.READ_ONLY, 0, 4).getInt() == BINARY_MAGIC) {
+                loadBinary(channel);
+            } else {
+                loadCsv(channel);
+            }
+        }
+    }
+
+    private void loadBinary(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < BINARY_HEADER_SIZE || (size - BINARY_HEADER_SIZE) % BINARY_RECORD_SIZE != 0) {
+            throw new IOException("Not a whole number of enrollment records: " + size + " bytes");
+        }
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, BINARY_HEADER_SIZE);
+        header.getInt();
+        int version = header.getInt();
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unsupported enrollment file version " + version);
+        }
+        long numRecords = (size - BINARY_HEADER_SIZE) / BINARY_RECORD_SIZE;
+        ensureRowCapacity(numRecords);
+        long maxWindowRecords = MAX_WINDOW_SIZE / BINARY_RECORD_SIZE;
+        for (long first = 0; first < numRecords; first += maxWindowRecords) {
+            long windowRecords = Math.min(maxWindowRecords, numRecords - first);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                    BINARY_HEADER_SIZE + first * BINARY_RECORD_SIZE, windowRecords * BINARY_RECORD_SIZE);
+            for (long i = 0; i < windowRecords; i++) {
+                long user = window.getLong();
+                long classKey = window.getLong();
+                byte role = window.get();
+                if (role != 0 && role != 1) {
+                    throw new IOException("Unknown role " + role + " in record " + row);
+                }
+                addRow(user, classKey, role == 1);
+            }
+        }
+    }
+
+    private void loadCsv(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ensureRowCapacity(size / CSV_BYTES_PER_ROW);
+        long position = 0;
+        boolean firstLine = true;
+        while (position < size) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(MAX_WINDOW_SIZE, size - position));
+            boolean lastWindow = position + window.limit() == size;
+            //only parse up to the last complete line, the rest is read again in the next window
+            int end = window.limit();
+            if (!lastWindow) {
+                while (end > 0 && window.get(end - 1) != '\n') {
+                    end--;
+                }
+                if (end == 0) {
+                    throw new IOException("Line longer than " + MAX_WINDOW_SIZE + " bytes at byte " + position);
+                }
+            }
+            int i = 0;
+            if (firstLine) {
+                firstLine = false;
+                if (end > 0 && !isDigit(window.get(0))) {
+                    i = skipLine(window, 0, end);
+                }
+            }
+            while (i < end) {
+                i = parseCsvLine(window, i, end);
+            }
+            position += end;
+        }
+    }
+
+    /**
+     * Parses the line starting at i
+     * @return the index after the end of the line
+     */
+    private int parseCsvLine(ByteBuffer window, int i, int end) throws IOException {
+        if (window.get(i) == '\n' || window.get(i) == '\r') {
+            return i + 1;
+        }
+        long user = 0;
+        int start = i;
+        while (i < end && isDigit(window.get(i))) {
+            int digit = window.get(i++) - '0';
+            if (user > (Long.MAX_VALUE - digit) / 10) {
+                throw new IOException("User id too large on row " + (row + 1));
+            }
+            user = user * 10 + digit;
+        }
+        if (i == start || i == end || window.get(i++) != ',') {
+            throw new IOException("Expected a user id and a comma on row " + (row + 1));
+        }
+        long classKey = 0;
+        start = i;
+        while (i < end && isDigit(window.get(i))) {
+            int digit = window.get(i++) - '0';
+            if (classKey > (Long.MAX_VALUE - digit) / 10) {
+                throw new IOException("Class id too large on row " + (row + 1));
+            }
+            classKey = classKey * 10 + digit;
+        }
+        if (i == start || i == end || window.get(i++) != ',') {
+            throw new IOException("Expected a class id and a comma on row " + (row + 1));
+        }
+        byte role = i < end ? window.get(i) : 0;
+        boolean isTeacher;
+        if (role == 't' || role == 'T') {
+            isTeacher = true;
+        } else if (role == 's' || role == 'S') {
+            isTeacher = false;
+        } else {
+            throw new IOException("Expected teacher or student on row " + (row + 1));
+        }
+        addRow(user, classKey, isTeacher);
+        return skipLine(window, i, end);
+    }
+
+    private static int skipLine(ByteBuffer window, int i, int end) {
+        while (i < end && window.get(i) != '\n') {
+            i++;
+        }
+        return i + 1;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private void addRow(long userKey, long classKey, boolean isTeacher) throws IOException {
+        row++;
+        int user = userIds.putIfAbsent(userKey, numUsers);
+        if (user < 0) {
+            user = numUsers++;
+            if (user == userKeys.length) {
+                userKeys = Arrays.copyOf(userKeys, grownLength(user));
+            }
+            userKeys[user] = userKey;
+        }
+        int classId = classIds.putIfAbsent(classKey, numClasses);
+        if (classId < 0) {
+            classId = numClasses++;
+            if (classId == classKeys.length) {
+                classKeys = Arrays.copyOf(classKeys, grownLength(classId));
+                classTeachers = Arrays.copyOf(classTeachers, classKeys.length);
+                classSizes = Arrays.copyOf(classSizes, classKeys.length);
+            }
+            classKeys[classId] = classKey;
+            classTeachers[classId] = -1;
+        }
+        if (isTeacher) {
+            if (classTeachers[classId] >= 0 && classTeachers[classId] != user) {
+                throw new IOException("Class " + classKey + " has a second teacher " + userKey + " on row " + row);
+            }
+            classTeachers[classId] = user;
+        } else {
+            if (numStudentRows == studentUsers.length) {
+                ensureRowCapacity(grownLength(numStudentRows));
+            }
+            studentUsers[numStudentRows] = user;
+            studentClasses[numStudentRows++] = classId;
+            classSizes[classId]++;
+        }
+    }
+
+    private void ensureRowCapacity(long numRows) {
+        int capacity = (int) Math.min(Integer.MAX_VALUE - 8, numStudentRows + numRows);
+        if (capacity > studentUsers.length) {
+            studentUsers = Arrays.copyOf(studentUsers, capacity);
+            studentClasses = Arrays.copyOf(studentClasses, capacity);
+        }
+    }
+
+    private static int grownLength(int length) {
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(16L, length + (long) (length >> 1)));
+    }
+
+    public int getNumUsers() {
+        return numUsers;
+    }
+
+    /**
+     * @param user a dense user id
+     * @return the id the user has in the loaded files
+     */
+    public long getUserKey(int user) {
+        return userKeys[user];
+    }
+
+    public int getNumClasses() {
+        return numClasses;
+    }
+
+    /**
+     * @param classId a dense class id
+     * @return the id the class has in the loaded files
+     */
+    public long getClassKey(int classId) {
+        return classKeys[classId];
+    }
+
+    /**
+     * Builds the graph of everything loaded so far, with the dense ids. Students are listed in file order
+     * @return the graph
+     * @throws IOException if a class has no teacher row
+     */
+    public Graph buildGraph() throws IOException {
+        int[] classMemberOffsets = new int[numClasses + 1];
+        for (int c = 0; c < numClasses; c++) {
+            if (classTeachers[c] < 0) {
+                throw new IOException("Class " + classKeys[c] + " has no teacher");
+            }
+            classMemberOffsets[c + 1] = classMemberOffsets[c] + 1 + classSizes[c];
+        }
+        int[] classMembers = new int[classMemberOffsets[numClasses]];
+        int[] nextMember = new int[numClasses];
+        for (int c = 0; c < numClasses; c++) {
+            classMembers[classMemberOffsets[c]] = classTeachers[c];
+            nextMember[c] = classMemberOffsets[c] + 1;
+        }
+        for (int i = 0; i < numStudentRows; i++) {
+            classMembers[nextMember[studentClasses[i]]++] = studentUsers[i];
+        }
+        return Graph.fromMembers(numUsers, numClasses, classMemberOffsets, classMembers);
+    }
+}
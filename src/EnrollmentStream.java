@@ -0,0 +1,123 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enrollments made from other threads, for instance live sign ups or teacher changes while a long rollout runs. Writers only append to
+ * a lock-free queue, and never touch the User and Class objects of the environment, which stay owned by the thread
+ * running the infections. The environment applies everything streamed so far the next time it needs its graph, so
+ * every run reads one consistent snapshot, and sees the enrollments streamed in before it started.
+ *
+ * Users may be new, or already in the environment. A User created by a writer must not be used by it after it was
+ * streamed, as the environment links it to its classes.
+ */
+public class EnrollmentStream {
+
+    private final ConcurrentLinkedQueue<Enrollment> pending; //streamed but not applied yet, oldest first
+    private final AtomicLong numStreamed; //enrollments and classes ever streamed
+    private final AtomicLong numApplied; //enrollments and classes ever applied by the environment
+
+    public EnrollmentStream() {
+        this.pending = new ConcurrentLinkedQueue<>();
+        this.numStreamed = new AtomicLong();
+        this.numApplied = new AtomicLong();
+    }
+
+    /**
+     * Enrolls the student into the class, which is added to the environment if it isn't in it yet. Safe to call
+     * from any thread
+     * @param classroom
+     * @param student
+     */
+    public void enrollStudent(Class classroom, User student) {
+        pending.add(new Enrollment(classroom, null, student, null));
+        numStreamed.incrementAndGet();
+    }
+
+    /**
+     * Makes the user the teacher of the class, which is added to the environment if it isn't in it yet. The previous
+     * teacher is unenrolled when the change is applied, like Class.enrollTeacher does. Safe to call from any thread
+     * @param classroom
+     * @param teacher
+     */
+    public void enrollTeacher(Class classroom, User teacher) {
+        pending.add(new Enrollment(classroom, teacher, null, null));
+        numStreamed.incrementAndGet();
+    }
+
+    /**
+     * Adds a new class of the teacher and students to the environment. Safe to call from any thread
+     * @param teacher
+     * @param students copied, so the caller may reuse the list
+     */
+    public void addClass(User teacher, List<User> students) {
+        pending.add(new Enrollment(null, teacher, null, new ArrayList<>(students)));
+        numStreamed.incrementAndGet();
+    }
+
+    public boolean isEmpty() {
+        return pending.isEmpty();
+    }
+
+    /**
+     * @return the oldest enrollment not applied yet, or null if there is none
+     */
+    protected Enrollment poll() {
+        Enrollment next = pending.poll();
+        if (next != null) {
+            numApplied.incrementAndGet();
+        }
+        return next;
+    }
+
+    public long getNumStreamed() {
+        return numStreamed.get();
+    }
+
+    public long getNumApplied() {
+        return numApplied.get();
+    }
+
+    /**
+     * Either a student enrolled into a class, a new teacher of a class, or a new class
+     */
+    protected static class Enrollment {
+
+        private final Class classroom; //the class the student or teacher joins, null for a new class
+        private final User teacher; //the teacher of a new class, or the new teacher of the class
+        private final User student; //the student joining the class
+        private final List<User> students; //the students of a new class
+
+        private Enrollment(Class classroom, User teacher, User student, List<User> students) {
+            this.classroom = classroom;
+            this.teacher = teacher;
+            this.student = student;
+            this.students = students;
+        }
+
+        public boolean isNewClass() {
+            return classroom == null;
+        }
+
+        public boolean isTeacherChange() {
+            return classroom != null && student == null;
+        }
+
+        public Class getClassroom() {
+            return classroom;
+        }
+
+        public User getTeacher() {
+            return teacher;
+        }
+
+        public User getStudent() {
+            return student;
+        }
+
+        public List<User> getStudents() {
+            return students;
+        }
+    }
+}
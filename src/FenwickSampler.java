@@ -0,0 +1,76 @@
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Samples indexes with probability proportional to their weight, using a Fenwick (binary indexed) tree so that
+ * both changing a weight and drawing a sample are O(log n). The tree is a buffer of a StorageMode, so it can be
+ * kept off the heap along with the weights it was built from
+ */
+public class FenwickSampler {
+
+    private final StorageMode storageMode; //where the tree is allocated
+    private LongBuffer tree; //1-based Fenwick tree, tree[i] is the sum of the weights in (i - lowbit(i), i]
+    private int size;
+    private long total; //the sum of all weights
+
+    /**
+     * @param weights the initial weight of every index, none of them negative, from index 0 to the capacity
+     * @param storageMode where to keep the tree
+     */
+    public FenwickSampler(IntBuffer weights, StorageMode storageMode) {
+        this.storageMode = storageMode;
+        this.size = weights.capacity();
+        this.tree = storageMode.allocateLongs(size + 1);
+        this.total = 0;
+        for (int i = 1; i <= size; i++) {
+            long sum = tree.get(i) + weights.get(i - 1);
+            tree.put(i, sum);
+            total += weights.get(i - 1);
+            int parent = i + (i & -i);
+            if (parent <= size) {
+                tree.put(parent, tree.get(parent) + sum);
+            }
+        }
+    }
+
+    /**
+     * Makes this sampler an exact copy of another one, reusing its own tree when it has the same size
+     * @param other
+     */
+    public void copyFrom(FenwickSampler other) {
+        if (tree.capacity() != other.tree.capacity()) {
+            tree = storageMode.allocateLongs(other.tree.capacity());
+        }
+        tree.clear();
+        tree.put(other.tree.duplicate().clear()).clear();
+        size = other.size;
+        total = other.total;
+    }
+
+    public void add(int index, int change) {
+        total += change;
+        for (int i = index + 1; i <= size; i += i & -i) {
+            tree.put(i, tree.get(i) + change);
+        }
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @param target a number in [0, getTotal())
+     * @return the index whose weight covers the target, when the weights are laid end to end in index order
+     */
+    public int sample(long target) {
+        int position = 0;
+        for (int step = Integer.highestOneBit(Math.max(size, 1)); step > 0; step >>= 1) {
+            int next = position + step;
+            if (next <= size && tree.get(next) <= target) {
+                position = next;
+                target -= tree.get(next);
+            }
+        }
+        return position;
+    }
+}
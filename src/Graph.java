@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the enrollment graph, indexed by primitive ids.
+ * A user's id is its position in the environment's user list and a class's id is its position in the class list.
+ * Both directions of the enrollment relation (user -> classes, class -> members) and the "connected classes"
+ * relation are stored in compressed-sparse-row form: the neighbours of node i live in
+ * edges[offsets[i] .. offsets[i + 1]). This lets the infection algorithms traverse the graph using only int arrays,
+ * without touching any User or Class objects.
+ * The arrays are held as buffers, so a graph read from a snapshot file can be used straight from the memory mapped
+ * file, while a graph built in memory wraps plain arrays, which copyTo can move off the heap.
+ */
+public class Graph {
+
+    private final int numUsers;
+    private final int numClasses;
+    private final IntBuffer userClassOffsets; //userClasses[userClassOffsets[u] .. userClassOffsets[u+1]) are the classes of user u
+    private final IntBuffer userClasses;
+    private final LongBuffer teachingEdges; //bit i is set when userClasses[i] is a class the user teaches rather than takes
+    private final IntBuffer classMemberOffsets; //classMembers[classMemberOffsets[c]] is always the teacher of class c
+    private final IntBuffer classMembers;
+    private final IntBuffer connectedOffsets; //connectedClasses[connectedOffsets[c] .. connectedOffsets[c+1]) are the classes connected to c
+    private final IntBuffer connectedClasses;
+
+    private Graph(int numUsers, int numClasses, IntBuffer userClassOffsets, IntBuffer userClasses,
+                  LongBuffer teachingEdges, IntBuffer classMemberOffsets, IntBuffer classMembers,
+                  IntBuffer connectedOffsets, IntBuffer connectedClasses) {
+        this.numUsers = numUsers;
+        this.numClasses = numClasses;
+        this.userClassOffsets = userClassOffsets;
+        this.userClasses = userClasses;
+        this.teachingEdges = teachingEdges;
+        this.classMemberOffsets = classMemberOffsets;
+        this.classMembers = classMembers;
+        this.connectedOffsets = connectedOffsets;
+        this.connectedClasses = connectedClasses;
+    }
+
+    /**
+     * Builds a snapshot of the given classes. Every teacher and student of the classes must have an id in userIds
+     * @param numUsers the number of user ids handed out
+     * @param userIds maps every user to its id
+     * @param classes the classes, in id order
+     * @return the snapshot
+     */
+    public static Graph build(int numUsers, Map<User, Integer> userIds, List<Class> classes) {
+        int numClasses = classes.size();
+
+        //class -> members, teacher first
+        int[] classMemberOffsets = new int[numClasses + 1];
+        for (int c = 0; c < numClasses; c++) {
+            classMemberOffsets[c + 1] = classMemberOffsets[c] + classes.get(c).getAllUsersView().size();
+        }
+        int[] classMembers = new int[classMemberOffsets[numClasses]];
+        for (int c = 0; c < numClasses; c++) {
+            List<User> members = classes.get(c).getAllUsersView();
+            for (int i = 0; i < members.size(); i++) {
+                classMembers[classMemberOffsets[c] + i] = userIds.get(members.get(i));
+            }
+        }
+        return fromMembers(numUsers, numClasses, classMemberOffsets, classMembers);
+    }
+
+    /**
+     * Builds a snapshot straight from the class -> members relation, without going through User or Class objects.
+     * The user -> classes relation is its transpose, and two classes are connected when they share a user, the same
+     * way the Class objects connect them on enrollment. Connected classes are sorted by id, so traversals don't
+     * depend on enrollment order
+     * @param numUsers
+     * @param numClasses
+     * @param classMemberOffsets the members of class c are classMembers[classMemberOffsets[c] .. classMemberOffsets[c+1])
+     * @param classMembers the members of every class, teacher first. Taken over by the graph, not copied
+     * @return the snapshot
+     */
+    public static Graph fromMembers(int numUsers, int numClasses, int[] classMemberOffsets, int[] classMembers) {
+        //user -> classes, built by transposing class -> members
+        int[] userClassOffsets = new int[numUsers + 1];
+        for (int member : classMembers) {
+            userClassOffsets[member + 1]++;
+        }
+        for (int u = 0; u < numUsers; u++) {
+            userClassOffsets[u + 1] += userClassOffsets[u];
+        }
+        int[] userClasses = new int[classMembers.length];
+        long[] teachingEdges = new long[(classMembers.length + 63) >>> 6];
+        int[] nextEdge = Arrays.copyOf(userClassOffsets, numUsers);
+        for (int c = 0; c < numClasses; c++) {
+            int teacherEdge = nextEdge[classMembers[classMemberOffsets[c]]]++;
+            userClasses[teacherEdge] = c;
+            teachingEdges[teacherEdge >>> 6] |= 1L << teacherEdge;
+            for (int i = classMemberOffsets[c] + 1; i < classMemberOffsets[c + 1]; i++) {
+                userClasses[nextEdge[classMembers[i]]++] = c;
+            }
+        }
+
+        //class -> connected classes, every class reached through a member is stamped so it's only listed once
+        int[] connectedOffsets = new int[numClasses + 1];
+        int[] connected = new int[Math.max(16, classMembers.length)];
+        int[] stamps = new int[numClasses];
+        Arrays.fill(stamps, -1);
+        int numConnected = 0;
+        for (int c = 0; c < numClasses; c++) {
+            stamps[c] = c;
+            for (int i = classMemberOffsets[c]; i < classMemberOffsets[c + 1]; i++) {
+                int member = classMembers[i];
+                for (int j = userClassOffsets[member]; j < userClassOffsets[member + 1]; j++) {
+                    int other = userClasses[j];
+                    if (stamps[other] != c) {
+                        stamps[other] = c;
+                        if (numConnected == connected.length) {
+                            connected = Arrays.copyOf(connected, connected.length + (connected.length >> 1));
+                        }
+                        connected[numConnected++] = other;
+                    }
+                }
+            }
+            Arrays.sort(connected, connectedOffsets[c], numConnected);
+            connectedOffsets[c + 1] = numConnected;
+        }
+
+        return new Graph(numUsers, numClasses, IntBuffer.wrap(userClassOffsets), IntBuffer.wrap(userClasses),
+                LongBuffer.wrap(teachingEdges), IntBuffer.wrap(classMemberOffsets), IntBuffer.wrap(classMembers),
+                IntBuffer.wrap(connectedOffsets), IntBuffer.wrap(connected, 0, numConnected).slice());
+    }
+
+    /**
+     * Copies the graph's arrays into buffers of the given storage mode, for example to move a graph built on the
+     * heap out of it. The copy is a graph of its own, this one can be dropped afterwards
+     * @param mode
+     * @return the copy
+     */
+    public Graph copyTo(StorageMode mode) {
+        return new Graph(numUsers, numClasses, mode.copyOf(userClassOffsets), mode.copyOf(userClasses),
+                mode.copyOf(teachingEdges), mode.copyOf(classMemberOffsets), mode.copyOf(classMembers),
+                mode.copyOf(connectedOffsets), mode.copyOf(connectedClasses));
+    }
+
+    /**
+     * Writes the graph as a sequence of snapshot sections
+     * @param writer
+     * @throws IOException
+     */
+    public void writeTo(SnapshotFile.Writer writer) throws IOException {
+        writer.writeInt(numUsers);
+        writer.writeInt(numClasses);
+        writer.writeInt(getNumEnrollments());
+        writer.writeInt(connectedClasses.limit());
+        writer.writeInts(userClassOffsets);
+        writer.writeInts(userClasses);
+        writer.writeLongs(teachingEdges);
+        writer.writeInts(classMemberOffsets);
+        writer.writeInts(classMembers);
+        writer.writeInts(connectedOffsets);
+        writer.writeInts(connectedClasses);
+    }
+
+    /**
+     * Reads a graph written by writeTo. Its arrays are mapped from the file, not copied
+     * @param reader
+     * @return the graph
+     * @throws IOException
+     */
+    public static Graph readFrom(SnapshotFile.Reader reader) throws IOException {
+        int numUsers = reader.readInt();
+        int numClasses = reader.readInt();
+        int numEnrollments = reader.readInt();
+        int numConnected = reader.readInt();
+        return new Graph(numUsers, numClasses, reader.mapInts(numUsers + 1), reader.mapInts(numEnrollments),
+                reader.mapLongs((numEnrollments + 63) >>> 6), reader.mapInts(numClasses + 1),
+                reader.mapInts(numEnrollments), reader.mapInts(numClasses + 1), reader.mapInts(numConnected));
+    }
+
+    public int getNumUsers() {
+        return numUsers;
+    }
+
+    public int getNumClasses() {
+        return numClasses;
+    }
+
+    /**
+     * @return the number of (user, class) enrollments, teachers included
+     */
+    public int getNumEnrollments() {
+        return userClasses.limit();
+    }
+
+    public int userClassStart(int user) {
+        return userClassOffsets.get(user);
+    }
+
+    public int userClassEnd(int user) {
+        return userClassOffsets.get(user + 1);
+    }
+
+    public int userClassAt(int edge) {
+        return userClasses.get(edge);
+    }
+
+    /**
+     * @param edge an index between userClassStart and userClassEnd of some user
+     * @return true if the user teaches the class on this edge, false if they take it
+     */
+    public boolean isTeachingEdge(int edge) {
+        return (teachingEdges.get(edge >>> 6) & (1L << edge)) != 0;
+    }
+
+    public int getNumClassesOfUser(int user) {
+        return userClassOffsets.get(user + 1) - userClassOffsets.get(user);
+    }
+
+    public int classMemberStart(int classId) {
+        return classMemberOffsets.get(classId);
+    }
+
+    public int classMemberEnd(int classId) {
+        return classMemberOffsets.get(classId + 1);
+    }
+
+    public int classMemberAt(int edge) {
+        return classMembers.get(edge);
+    }
+
+    public int getTeacher(int classId) {
+        return classMembers.get(classMemberOffsets.get(classId));
+    }
+
+    public int getNumStudents(int classId) {
+        return classMemberOffsets.get(classId + 1) - classMemberOffsets.get(classId) - 1;
+    }
+
+    public int connectedStart(int classId) {
+        return connectedOffsets.get(classId);
+    }
+
+    public int connectedEnd(int classId) {
+        return connectedOffsets.get(classId + 1);
+    }
+
+    public int connectedAt(int edge) {
+        return connectedClasses.get(edge);
+    }
+
+    public int getNumConnectedClasses(int classId) {
+        return connectedOffsets.get(classId + 1) - connectedOffsets.get(classId);
+    }
+}
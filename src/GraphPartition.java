@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+/**
+ * An assignment of the classes of a Graph to shards, for a ShardedInfection. A user belongs to every shard that
+ * holds one of their classes, so a user whose classes are split across shards is known to several of them, and the
+ * shards have to tell each other about that user during a traversal. The partition tries to keep such cross shard
+ * users few, while keeping the number of enrollments of every shard within a balance factor of the average.
+ *
+ * The classes start out in contiguous blocks of ids, and are then moved by label propagation: every round, each
+ * class in id order moves to the shard most of its members' other enrollments are in, if that shard has room.
+ * A class only moves to a shard that scores strictly higher, the smallest such shard on ties, and the classes are
+ * scanned in id order, so the partition is deterministic.
+ */
+public class GraphPartition {
+
+    public static final float DEFAULT_BALANCE = 1.1f;
+    public static final int DEFAULT_ROUNDS = 10;
+
+    private final int numShards;
+    private final int[] classShards; //the shard of every class, indexed by class id
+    private final long[] shardLoads; //the number of enrollments of the classes of every shard
+    private final int numCrossShardUsers; //the users whose classes are in more than one shard
+    private final int numRounds; //the label propagation rounds run until no class moved, or the limit
+
+    private GraphPartition(int numShards, int[] classShards, long[] shardLoads, int numCrossShardUsers,
+                           int numRounds) {
+        this.numShards = numShards;
+        this.classShards = classShards;
+        this.shardLoads = shardLoads;
+        this.numCrossShardUsers = numCrossShardUsers;
+        this.numRounds = numRounds;
+    }
+
+    /**
+     * @param graph
+     * @param numShards
+     * @return a partition with the default balance and rounds
+     */
+    public static GraphPartition labelPropagation(Graph graph, int numShards) {
+        return labelPropagation(graph, numShards, DEFAULT_BALANCE, DEFAULT_ROUNDS);
+    }
+
+    /**
+     * @param graph
+     * @param numShards
+     * @param balance how many times the average number of enrollments a shard may hold, at least 1
+     * @param maxRounds the most label propagation rounds to run
+     * @return the partition
+     */
+    public static GraphPartition labelPropagation(Graph graph, int numShards, float balance, int maxRounds) {
+        int numClasses = graph.getNumClasses();
+        long capacity = (long) Math.ceil(balance * graph.getNumEnrollments() / numShards);
+        int[] classShards = new int[numClasses];
+        long[] shardLoads = new long[numShards];
+        //contiguous blocks of about the same number of enrollments
+        long enrollmentsSoFar = 0;
+        long numEnrollments = Math.max(1, graph.getNumEnrollments());
+        for (int c = 0; c < numClasses; c++) {
+            int size = graph.classMemberEnd(c) - graph.classMemberStart(c);
+            int shard = (int) Math.min(numShards - 1, enrollmentsSoFar * numShards / numEnrollments);
+            classShards[c] = shard;
+            shardLoads[shard] += size;
+            enrollmentsSoFar += size;
+        }
+
+        long[] scores = new long[numShards]; //the other enrollments of the class's members in every shard
+        int round = 0;
+        while (round < maxRounds) {
+            round++;
+            int numMoved = 0;
+            for (int c = 0; c < numClasses; c++) {
+                for (int i = graph.classMemberStart(c); i < graph.classMemberEnd(c); i++) {
+                    int member = graph.classMemberAt(i);
+                    for (int j = graph.userClassStart(member); j < graph.userClassEnd(member); j++) {
+                        int other = graph.userClassAt(j);
+                        if (other != c) {
+                            scores[classShards[other]]++;
+                        }
+                    }
+                }
+                int current = classShards[c];
+                int size = graph.classMemberEnd(c) - graph.classMemberStart(c);
+                int best = current;
+                for (int s = 0; s < numShards; s++) {
+                    if (scores[s] > scores[best] && shardLoads[s] + size <= capacity) {
+                        best = s;
+                    }
+                }
+                Arrays.fill(scores, 0);
+                if (best != current) {
+                    classShards[c] = best;
+                    shardLoads[current] -= size;
+                    shardLoads[best] += size;
+                    numMoved++;
+                }
+            }
+            if (numMoved == 0) {
+                break;
+            }
+        }
+        return new GraphPartition(numShards, classShards, shardLoads, countCrossShardUsers(graph, classShards),
+                round);
+    }
+
+    private static int countCrossShardUsers(Graph graph, int[] classShards) {
+        int count = 0;
+        for (int u = 0; u < graph.getNumUsers(); u++) {
+            for (int i = graph.userClassStart(u) + 1; i < graph.userClassEnd(u); i++) {
+                if (classShards[graph.userClassAt(i)] != classShards[graph.userClassAt(graph.userClassStart(u))]) {
+                    count++;
+                    break;
+                }
+            }
+        }
+        return count;
+    }
+
+    public int getNumShards() {
+        return numShards;
+    }
+
+    public int getShard(int classId) {
+        return classShards[classId];
+    }
+
+    /**
+     * @param shard
+     * @return the number of enrollments, teachers included, of the classes in the shard
+     */
+    public long getShardLoad(int shard) {
+        return shardLoads[shard];
+    }
+
+    /**
+     * @return the number of users whose classes are in more than one shard
+     */
+    public int getNumCrossShardUsers() {
+        return numCrossShardUsers;
+    }
+
+    public int getNumRounds() {
+        return numRounds;
+    }
+}
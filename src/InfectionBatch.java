@@ -0,0 +1,40 @@
+/**
+ * A batch of infection events from one run: the users infected since the previous batch, the classes the run
+ * infected or spread through since then, and the percentage of all users infected once the batch was infected
+ */
+public class InfectionBatch {
+
+    private final String siteVersion;
+    private final int[] users; //the ids of the newly infected users, in order
+    private final int[] classes; //the ids of the classes infected or spread through, in order
+    private final float percentageInfected;
+
+    public InfectionBatch(String siteVersion, int[] users, int[] classes, float percentageInfected) {
+        this.siteVersion = siteVersion;
+        this.users = users;
+        this.classes = classes;
+        this.percentageInfected = percentageInfected;
+    }
+
+    public String getSiteVersion() {
+        return siteVersion;
+    }
+
+    /**
+     * @return the ids of the users, which are their indexes in TestEnvironment.getAllUsersList
+     */
+    public int[] getUsers() {
+        return users;
+    }
+
+    /**
+     * @return the ids of the classes, which are their indexes in TestEnvironment.getAllClasses
+     */
+    public int[] getClasses() {
+        return classes;
+    }
+
+    public float getPercentageInfected() {
+        return percentageInfected;
+    }
+}
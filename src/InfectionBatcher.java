@@ -0,0 +1,93 @@
+import java.util.function.Consumer;
+
+/**
+ * Collects the users and classes a run infects into batches of up to batchSize users for an InfectionListener,
+ * and remembers whether the listener asked to stop. Users are only kept until their batch is delivered, so a run
+ * with a listener doesn't hold on to every user it infected
+ */
+public class InfectionBatcher {
+
+    private final InfectionListener listener;
+    private final int batchSize;
+    private final String siteVersion;
+    private final InfectionState state; //the state of the run, for the running percentage
+    private final int numUsers;
+    private final IntQueue users; //the users infected since the last batch
+    private final IntQueue classes; //the classes infected since the last batch
+    private final Consumer<IntQueue> writer; //writes the users of every batch back before it is delivered, may be null
+    private int numInfected; //the number of users infected by the run so far
+    private boolean stopped;
+
+    /**
+     * @param listener
+     * @param batchSize the most users in one batch
+     * @param siteVersion the site version the run moves users to
+     * @param state the state the run records infections in
+     * @param numUsers the number of users in the graph
+     * @param writer given the users of every batch before the listener, null if nothing needs to be written back
+     */
+    public InfectionBatcher(InfectionListener listener, int batchSize, String siteVersion, InfectionState state,
+                            int numUsers, Consumer<IntQueue> writer) {
+        this.listener = listener;
+        this.batchSize = Math.max(1, batchSize);
+        this.siteVersion = siteVersion;
+        this.state = state;
+        this.numUsers = numUsers;
+        this.users = new IntQueue();
+        this.classes = new IntQueue();
+        this.writer = writer;
+        this.numInfected = 0;
+        this.stopped = false;
+    }
+
+    /**
+     * @param user a newly infected user
+     * @return false once the listener has asked to stop
+     */
+    public boolean addUser(int user) {
+        users.add(user);
+        numInfected++;
+        if (!stopped && users.size() >= batchSize) {
+            emit();
+        }
+        return !stopped;
+    }
+
+    public void addClass(int classId) {
+        classes.add(classId);
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * @return the number of users added so far
+     */
+    public int getNumInfected() {
+        return numInfected;
+    }
+
+    /**
+     * Delivers the last batch, and tells the listener the run is done
+     */
+    public void finish() {
+        if (!users.isEmpty() || !classes.isEmpty()) {
+            emit();
+        }
+        listener.onComplete(numInfected, stopped);
+    }
+
+    private void emit() {
+        if (writer != null) {
+            writer.accept(users);
+        }
+        float percentage = numUsers == 0 ? 0f : (float) state.getNumInfected() / (float) numUsers;
+        InfectionBatch batch = new InfectionBatch(siteVersion, users.toArray(), classes.toArray(), percentage);
+        users.clear();
+        classes.clear();
+        if (!listener.onBatch(batch)) {
+            stopped = true;
+        }
+    }
+}
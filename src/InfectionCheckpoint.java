@@ -0,0 +1,85 @@
+import java.nio.LongBuffer;
+
+/**
+ * Where an infection run that ran out of its RunControl's bounds stopped: what it was doing, its traversal state,
+ * and which users were infected. Everything infected before the stop stays infected in the environment's state, so
+ * the infected users are kept to check the state still matches when the run is resumed. A checkpoint can only be
+ * resumed over the graph it was taken over, so the enrollments must not change in between, nor may users be
+ * infected or rolled back.
+ */
+public class InfectionCheckpoint {
+
+    /**
+     * The algorithm that was running
+     */
+    public enum Kind {
+        TOTAL,
+        CLASS_QUEUE,
+        CHEAPEST_FIRST
+    }
+
+    private final Kind kind;
+    private final Graph graph; //the snapshot the run was over
+    private final short newVersion; //the code of the site version the run moved users to
+    private final float targetPercentage; //unused for total infections
+    private final int[] frontier; //the queued users of a total infection, or the queued classes of a limited one
+    private final boolean[] visited; //the classes a total infection visited, or a cheapest first one expanded
+    private final LongBuffer infectedBits; //bit u is set when user u was infected at the checkpoint
+    private final int numInfected; //the number of users the run infected before the checkpoint
+    private final long numSteps; //the number of steps the run took before the checkpoint
+
+    public InfectionCheckpoint(Kind kind, Graph graph, short newVersion, float targetPercentage, int[] frontier,
+                               boolean[] visited, LongBuffer infectedBits, int numInfected, long numSteps) {
+        this.kind = kind;
+        this.graph = graph;
+        this.newVersion = newVersion;
+        this.targetPercentage = targetPercentage;
+        this.frontier = frontier;
+        this.visited = visited;
+        this.infectedBits = infectedBits;
+        this.numInfected = numInfected;
+        this.numSteps = numSteps;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public Graph getGraph() {
+        return graph;
+    }
+
+    public short getNewVersion() {
+        return newVersion;
+    }
+
+    public float getTargetPercentage() {
+        return targetPercentage;
+    }
+
+    public int[] getFrontier() {
+        return frontier;
+    }
+
+    /**
+     * @return the visited classes, or null for a class queue run
+     */
+    public boolean[] getVisited() {
+        return visited;
+    }
+
+    /**
+     * @return a read only view of the infected users, bit u set when user u was infected
+     */
+    public LongBuffer getInfectedBits() {
+        return infectedBits.asReadOnlyBuffer();
+    }
+
+    public int getNumInfected() {
+        return numInfected;
+    }
+
+    public long getNumSteps() {
+        return numSteps;
+    }
+}
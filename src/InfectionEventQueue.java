@@ -0,0 +1,129 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An InfectionListener that hands the batches of a run to another thread through a bounded queue. When the queue
+ * is full the run waits for the consumer, so a slow consumer holds back the run instead of the batches piling up
+ * in memory. The consumer can cancel the run, which stops it at its next batch and drops the rest of its batches.
+ * The queue can be reused for the next run once take returned null or the run was cancelled: every batch is tagged
+ * with its run, and take skips whatever an earlier run left in the queue.
+ */
+public class InfectionEventQueue implements InfectionListener {
+
+    private final BlockingQueue<Entry> batches;
+    private volatile int startedRun; //the number of runs started, which is the tag of the current run's batches
+    private volatile boolean cancelled; //whether the consumer cancelled the current run
+    private int takingRun; //the earliest run the consumer still takes batches of, only used by the consumer
+    private volatile boolean stopped; //whether the run ended early, valid once take returned null
+    private volatile int numInfected; //valid once take returned null
+
+    /**
+     * @param capacity the most batches waiting for the consumer
+     */
+    public InfectionEventQueue(int capacity) {
+        this.batches = new ArrayBlockingQueue<>(capacity);
+        this.startedRun = 0;
+        this.cancelled = false;
+        this.takingRun = 0;
+    }
+
+    /**
+     * Drops what the last run left in the queue and its cancellation, so the next run doesn't wait behind batches
+     * nobody takes, and isn't stopped right away
+     */
+    @Override
+    public void onStart() {
+        batches.clear();
+        cancelled = false;
+        startedRun++;
+    }
+
+    @Override
+    public boolean onBatch(InfectionBatch batch) {
+        if (cancelled) {
+            return false;
+        }
+        try {
+            batches.put(new Entry(startedRun, batch));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return !cancelled;
+    }
+
+    @Override
+    public void onComplete(int numInfected, boolean stopped) {
+        if (cancelled) {
+            return;
+        }
+        this.numInfected = numInfected;
+        this.stopped = stopped;
+        try {
+            batches.put(new Entry(startedRun, null));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the next batch, skipping the batches of the runs the consumer is done with
+     * @return the batch, or null once the run is done and every batch was taken. The take after that waits for
+     * the next run
+     * @throws InterruptedException
+     */
+    public InfectionBatch take() throws InterruptedException {
+        while (true) {
+            Entry entry = batches.take();
+            if (entry.run < takingRun) {
+                continue;
+            }
+            //a batch of a later run means the consumer moved on from the earlier ones
+            takingRun = entry.run;
+            if (entry.batch == null) {
+                takingRun = entry.run + 1;
+                return null;
+            }
+            return entry.batch;
+        }
+    }
+
+    /**
+     * Stops the run at its next batch, and drops the batches it hasn't delivered yet. The run's end isn't handed
+     * to the consumer either, so the next take waits for the next run. Call from the consumer's thread
+     */
+    public void cancel() {
+        cancelled = true;
+        takingRun = startedRun + 1;
+        //frees the run if it waits on a full queue, it puts nothing more once it sees the cancellation
+        batches.clear();
+    }
+
+    /**
+     * @return the number of users the run infected, once take returned null
+     */
+    public int getNumInfected() {
+        return numInfected;
+    }
+
+    /**
+     * @return true if the run was stopped early, once take returned null
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * A batch tagged with the run that delivered it, or the end of the run when the batch is null
+     */
+    private static class Entry {
+
+        private final int run;
+        private final InfectionBatch batch;
+
+        private Entry(int run, InfectionBatch batch) {
+            this.run = run;
+            this.batch = batch;
+        }
+    }
+}
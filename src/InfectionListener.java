@@ -0,0 +1,27 @@
+/**
+ * Notified of the users an infection run infects, in batches, while the run goes on. Batches are delivered on the
+ * thread doing the run, which waits for the listener to return, so a slow listener slows the run down instead of
+ * letting batches pile up. To consume batches on another thread, use an InfectionEventQueue.
+ */
+public interface InfectionListener {
+
+    /**
+     * Called when a run starts, before its first batch
+     */
+    default void onStart() {
+    }
+
+    /**
+     * @param batch the users and classes infected since the last batch
+     * @return true to go on, false to stop the run early. A stopped run still finishes the class it is infecting,
+     * so no class is left half infected by the stop; the users infected meanwhile come in one last batch
+     */
+    boolean onBatch(InfectionBatch batch);
+
+    /**
+     * Called once the run is done, after the last batch
+     * @param numInfected the number of users the run infected
+     * @param stopped true if the listener stopped the run early
+     */
+    void onComplete(int numInfected, boolean stopped);
+}
@@ -0,0 +1,201 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what the infection runs of a TestEnvironment do, and times their phases. Rollouts count into plain fields
+ * as they go, and the counts are only added here once a run is done, so the hot loops pay nothing for the metrics.
+ * Counters are LongAdders and histograms are lock free, so runs on several threads can record at the same time.
+ *
+ * Read the metrics with snapshot(). A snapshot can be written in the Prometheus text format, for example to a file
+ * the node exporter's textfile collector picks up.
+ */
+public class InfectionMetrics {
+
+    private final LongAdder numRuns = new LongAdder();
+    private final LongAdder numUsersVisited = new LongAdder();
+    private final LongAdder numUsersInfected = new LongAdder();
+    private final LongAdder numEdgesScanned = new LongAdder();
+    private final LongAdder numDuplicateClasses = new LongAdder();
+    private final LongAdder numRequirementRejections = new LongAdder();
+    private final LongAdder numForcedInfections = new LongAdder();
+    private final LongAdder numAffectedReads = new LongAdder();
+    private final LatencyHistogram graphBuildNanos = new LatencyHistogram(); //rebuilding the graph snapshot
+    private final LatencyHistogram traversalNanos = new LatencyHistogram(); //every infection run
+
+    /**
+     * Adds the counts of a finished rollout
+     * @param rollout
+     * @param traversalNanos how long the run took
+     */
+    public void recordRun(Rollout rollout, long traversalNanos) {
+        numUsersVisited.add(rollout.getNumUsersVisited());
+        numEdgesScanned.add(rollout.getNumEdgesScanned());
+        numDuplicateClasses.add(rollout.getNumDuplicateClasses());
+        numRequirementRejections.add(rollout.getNumRequirementRejections());
+        numForcedInfections.add(rollout.getNumForcedInfections());
+        numAffectedReads.add(rollout.getNumAffectedReads());
+        recordRun(rollout.getNumNewlyInfected(), 0, traversalNanos);
+    }
+
+    /**
+     * Adds a finished run that didn't go through a Rollout
+     * @param numInfected the number of users the run infected
+     * @param numVisited the number of users the run checked
+     * @param traversalNanos how long the run took
+     */
+    public void recordRun(int numInfected, long numVisited, long traversalNanos) {
+        numRuns.increment();
+        numUsersInfected.add(numInfected);
+        numUsersVisited.add(numVisited);
+        this.traversalNanos.record(traversalNanos);
+    }
+
+    public void recordGraphBuild(long nanos) {
+        graphBuildNanos.record(nanos);
+    }
+
+    /**
+     * @return a copy of the metrics so far
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * The metrics at one point in time
+     */
+    public static class Snapshot {
+        private final long numRuns;
+        private final long numUsersVisited;
+        private final long numUsersInfected;
+        private final long numEdgesScanned;
+        private final long numDuplicateClasses;
+        private final long numRequirementRejections;
+        private final long numForcedInfections;
+        private final long numAffectedReads;
+        private final LatencyHistogram graphBuildNanos;
+        private final LatencyHistogram traversalNanos;
+
+        private Snapshot(InfectionMetrics metrics) {
+            this.numRuns = metrics.numRuns.sum();
+            this.numUsersVisited = metrics.numUsersVisited.sum();
+            this.numUsersInfected = metrics.numUsersInfected.sum();
+            this.numEdgesScanned = metrics.numEdgesScanned.sum();
+            this.numDuplicateClasses = metrics.numDuplicateClasses.sum();
+            this.numRequirementRejections = metrics.numRequirementRejections.sum();
+            this.numForcedInfections = metrics.numForcedInfections.sum();
+            this.numAffectedReads = metrics.numAffectedReads.sum();
+            this.graphBuildNanos = metrics.graphBuildNanos.copy();
+            this.traversalNanos = metrics.traversalNanos.copy();
+        }
+
+        public long getNumRuns() {
+            return numRuns;
+        }
+
+        public long getNumUsersVisited() {
+            return numUsersVisited;
+        }
+
+        public long getNumUsersInfected() {
+            return numUsersInfected;
+        }
+
+        public long getNumEdgesScanned() {
+            return numEdgesScanned;
+        }
+
+        /**
+         * @return the number of classes taken off a queue that had nothing left to infect
+         */
+        public long getNumDuplicateClasses() {
+            return numDuplicateClasses;
+        }
+
+        /**
+         * @return the number of randomly picked classes that didn't meet the requirements
+         */
+        public long getNumRequirementRejections() {
+            return numRequirementRejections;
+        }
+
+        public long getNumForcedInfections() {
+            return numForcedInfections;
+        }
+
+        /**
+         * @return the number of affected counts read
+         */
+        public long getNumAffectedReads() {
+            return numAffectedReads;
+        }
+
+        public LatencyHistogram getGraphBuildNanos() {
+            return graphBuildNanos;
+        }
+
+        public LatencyHistogram getTraversalNanos() {
+            return traversalNanos;
+        }
+
+        /**
+         * Writes the snapshot in the Prometheus text exposition format. Counters are suffixed _total, and the phase
+         * timings are a summary in seconds with a phase label
+         * @param out
+         * @throws IOException
+         */
+        public void writePrometheus(Writer out) throws IOException {
+            writeCounter(out, "infection_runs_total", "Infection runs finished", numRuns);
+            writeCounter(out, "infection_users_visited_total", "Users checked for infection", numUsersVisited);
+            writeCounter(out, "infection_users_infected_total", "Users moved to a new site version",
+                    numUsersInfected);
+            writeCounter(out, "infection_edges_scanned_total", "Enrollment and connection entries read",
+                    numEdgesScanned);
+            writeCounter(out, "infection_duplicate_queue_entries_total",
+                    "Queued classes that had nothing left to infect", numDuplicateClasses);
+            writeCounter(out, "infection_requirement_rejections_total",
+                    "Random classes that didn't meet the requirements", numRequirementRejections);
+            writeCounter(out, "infection_forced_infections_total",
+                    "Classes infected without meeting the requirements", numForcedInfections);
+            writeCounter(out, "infection_affected_count_reads_total", "Affected counts read", numAffectedReads);
+            out.write("# HELP infection_phase_seconds Wall time of the infection phases\n");
+            out.write("# TYPE infection_phase_seconds summary\n");
+            writeSummary(out, "graph_build", graphBuildNanos);
+            writeSummary(out, "traversal", traversalNanos);
+        }
+
+        /**
+         * Writes the snapshot to a file in the Prometheus text format. The file is written next to its destination
+         * and moved into place, so readers never see it half written
+         * @param file
+         * @throws IOException
+         */
+        public void writePrometheus(Path file) throws IOException {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writePrometheus(out);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static void writeCounter(Writer out, String name, String help, long value) throws IOException {
+            out.write("# HELP " + name + " " + help + "\n");
+            out.write("# TYPE " + name + " counter\n");
+            out.write(name + " " + value + "\n");
+        }
+
+        private static void writeSummary(Writer out, String phase, LatencyHistogram histogram) throws IOException {
+            for (double quantile : new double[]{0.5, 0.9, 0.99}) {
+                out.write("infection_phase_seconds{phase=\"" + phase + "\",quantile=\"" + quantile + "\"} "
+                        + histogram.getValueAtQuantile(quantile) / 1e9 + "\n");
+            }
+            out.write("infection_phase_seconds_sum{phase=\"" + phase + "\"} " + histogram.getSum() / 1e9 + "\n");
+            out.write("infection_phase_seconds_count{phase=\"" + phase + "\"} " + histogram.getCount() + "\n");
+        }
+    }
+}
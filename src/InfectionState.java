@@ -0,0 +1,634 @@
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.util.SplittableRandom;
+
+/**
+ * The infection state of a rollout over a Graph: which users are infected (a dense bitset indexed by user id),
+ * the interned site version code of every user, and the number of infected students of every class.
+ * The number of infected users is kept up to date as bits are set, so it can be read in O(1). Taking newly infected
+ * students off the affected count of every connected class is deferred until an affected count is read, so a
+ * class that gets many students infected in a row is fanned out to its connected classes once, not once per student.
+ * It also keeps the not infected users in a swap-remove array and weighs every class by its not infected members,
+ * so a random not infected user or class can be drawn without retries however many users are infected.
+ * Users can also be excluded, which takes them out of the random draws without infecting them, for users that
+ * belong to another rollout or are already on the rollout's site version.
+ * The per user state and the per class counts are held in buffers of the state's StorageMode, so they can be kept
+ * off the heap along with the graph.
+ */
+public class InfectionState {
+
+    private StorageMode storageMode; //where the per user buffers are allocated
+    private ShortBuffer versionCodes; //the SiteVersions code of every user, indexed by user id
+    private LongBuffer infectedBits; //bit u is set when user u has been infected
+    private int numUsers;
+    private int numInfected; //the number of set bits in infectedBits
+    private IntBuffer numStudentsInfected; //the number of infected students of each class, indexed by class id
+    private IntBuffer numStudentsAffected; //the number of not infected students in each class's connected classes
+    private IntBuffer pendingInfected; //infected less uninfected students of each class not yet in numStudentsAffected
+    private IntQueue pendingClasses; //the classes with pendingInfected above 0
+    private LongBuffer excludedBits; //bit u is set when user u has been excluded from this state's random draws
+    private int numExcluded;
+    private IntBuffer notInfectedUsers; //the not infected, not excluded users in no particular order, the first numAvailable are valid
+    private int numAvailable;
+    private IntBuffer notInfectedPositions; //the index of every not infected user in notInfectedUsers
+    private IntBuffer numAvailableMembers; //the number of not infected, not excluded members of each class
+    private FenwickSampler classSampler; //weighs every class by its number of available members
+    private InfectionUndoLog undoLog; //records every site version change, null when changes aren't recorded
+    private ClassScoreIndex scoreIndex; //kept up to date with the affected counts while a rollout picks classes from it, else null
+
+    public InfectionState() {
+        this(StorageMode.HEAP);
+    }
+
+    /**
+     * @param storageMode where to keep the per user state
+     */
+    public InfectionState(StorageMode storageMode) {
+        this.storageMode = storageMode;
+        this.versionCodes = storageMode.allocateShorts(0);
+        this.infectedBits = storageMode.allocateLongs(0);
+        this.numUsers = 0;
+        this.numInfected = 0;
+        this.excludedBits = storageMode.allocateLongs(0);
+        this.numExcluded = 0;
+        this.numAvailable = 0;
+        this.numStudentsInfected = storageMode.allocateInts(0);
+        this.numStudentsAffected = storageMode.allocateInts(0);
+        this.pendingInfected = storageMode.allocateInts(0);
+        this.pendingClasses = new IntQueue();
+        this.notInfectedUsers = storageMode.allocateInts(0);
+        this.notInfectedPositions = storageMode.allocateInts(0);
+        this.numAvailableMembers = storageMode.allocateInts(0);
+        this.classSampler = new FenwickSampler(numAvailableMembers, storageMode);
+        this.undoLog = null;
+        this.scoreIndex = null;
+    }
+
+    /**
+     * Grows the state to cover a rebuilt graph and recounts the infected users, and the infected and affected
+     * students of every class, since new enrollments may have put infected users into other classes.
+     * Users that are new to the graph start uninfected with version code 0
+     * @param graph
+     */
+    public void resize(Graph graph) {
+        numUsers = graph.getNumUsers();
+        versionCodes = storageMode.copyOf(versionCodes, numUsers);
+        infectedBits = storageMode.copyOf(infectedBits, (numUsers + 63) >>> 6);
+        numInfected = countInfected();
+        excludedBits = storageMode.copyOf(excludedBits, infectedBits.capacity());
+        numExcluded = 0;
+        for (int i = 0; i < excludedBits.capacity(); i++) {
+            numExcluded += Long.bitCount(excludedBits.get(i));
+        }
+        numStudentsInfected = storageMode.allocateInts(graph.getNumClasses());
+        for (int u = nextInfected(0); u < numUsers; u = nextInfected(u + 1)) {
+            for (int i = graph.userClassStart(u); i < graph.userClassEnd(u); i++) {
+                if (!graph.isTeachingEdge(i)) {
+                    int classId = graph.userClassAt(i);
+                    numStudentsInfected.put(classId, numStudentsInfected.get(classId) + 1);
+                }
+            }
+        }
+        numStudentsAffected = storageMode.allocateInts(graph.getNumClasses());
+        for (int c = 0; c < graph.getNumClasses(); c++) {
+            int affected = 0;
+            for (int i = graph.connectedStart(c); i < graph.connectedEnd(c); i++) {
+                affected += getNumStudentsNotInfected(graph, graph.connectedAt(i));
+            }
+            numStudentsAffected.put(c, affected);
+        }
+        pendingInfected = storageMode.allocateInts(graph.getNumClasses());
+        pendingClasses.clear();
+
+        if (notInfectedUsers.capacity() != numUsers) {
+            notInfectedUsers = storageMode.allocateInts(numUsers);
+            notInfectedPositions = storageMode.allocateInts(numUsers);
+        }
+        numAvailable = 0;
+        for (int u = 0; u < numUsers; u++) {
+            if (isAvailable(u)) {
+                notInfectedPositions.put(u, numAvailable);
+                notInfectedUsers.put(numAvailable++, u);
+            }
+        }
+        numAvailableMembers = storageMode.allocateInts(graph.getNumClasses());
+        for (int c = 0; c < graph.getNumClasses(); c++) {
+            int available = 0;
+            for (int i = graph.classMemberStart(c); i < graph.classMemberEnd(c); i++) {
+                if (isAvailable(graph.classMemberAt(i))) {
+                    available++;
+                }
+            }
+            numAvailableMembers.put(c, available);
+        }
+        classSampler = new FenwickSampler(numAvailableMembers, storageMode);
+    }
+
+    /**
+     * Resets this state to a separate copy of another state's site versions and infected users over the same graph,
+     * with nobody excluded, so a rollout can run on it without touching the other state. The users are available
+     * to the rollout exactly when they would be on the other state
+     * @param graph
+     * @param other
+     */
+    public void forkFrom(Graph graph, InfectionState other) {
+        versionCodes = storageMode.copyOf(other.versionCodes, graph.getNumUsers());
+        infectedBits = storageMode.copyOf(other.infectedBits, (graph.getNumUsers() + 63) >>> 6);
+        excludedBits = storageMode.allocateLongs(0);
+        resize(graph);
+    }
+
+    /**
+     * Moves the per user state to buffers of another storage mode
+     * @param mode
+     */
+    public void setStorageMode(StorageMode mode) {
+        if (mode == storageMode) {
+            return;
+        }
+        storageMode = mode;
+        versionCodes = mode.copyOf(versionCodes, versionCodes.capacity());
+        infectedBits = mode.copyOf(infectedBits, infectedBits.capacity());
+        excludedBits = mode.copyOf(excludedBits, excludedBits.capacity());
+        notInfectedUsers = mode.copyOf(notInfectedUsers);
+        notInfectedPositions = mode.copyOf(notInfectedPositions);
+        numStudentsInfected = mode.copyOf(numStudentsInfected);
+        numStudentsAffected = mode.copyOf(numStudentsAffected);
+        pendingInfected = mode.copyOf(pendingInfected);
+        numAvailableMembers = mode.copyOf(numAvailableMembers);
+        classSampler = new FenwickSampler(numAvailableMembers, mode);
+    }
+
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    /**
+     * Makes this state an exact copy of another one, reusing its own arrays where they have the right size.
+     * Copying a state that was just forked is a much cheaper way to reset a scratch state than forking again,
+     * since nothing has to be counted
+     * @param other
+     */
+    public void copyFrom(InfectionState other) {
+        versionCodes = copy(other.versionCodes, versionCodes);
+        infectedBits = copy(other.infectedBits, infectedBits);
+        excludedBits = copy(other.excludedBits, excludedBits);
+        numStudentsInfected = copy(other.numStudentsInfected, numStudentsInfected);
+        numStudentsAffected = copy(other.numStudentsAffected, numStudentsAffected);
+        pendingInfected = copy(other.pendingInfected, pendingInfected);
+        pendingClasses.clear();
+        for (int i = 0; i < other.pendingClasses.size(); i++) {
+            pendingClasses.add(other.pendingClasses.get(i));
+        }
+        notInfectedUsers = copy(other.notInfectedUsers, notInfectedUsers);
+        notInfectedPositions = copy(other.notInfectedPositions, notInfectedPositions);
+        numAvailableMembers = copy(other.numAvailableMembers, numAvailableMembers);
+        classSampler.copyFrom(other.classSampler);
+        numUsers = other.numUsers;
+        numInfected = other.numInfected;
+        numExcluded = other.numExcluded;
+        numAvailable = other.numAvailable;
+    }
+
+    private ShortBuffer copy(ShortBuffer from, ShortBuffer to) {
+        if (to.capacity() != from.capacity()) {
+            return storageMode.copyOf(from, from.capacity());
+        }
+        to.clear();
+        to.put(from.duplicate().clear()).clear();
+        return to;
+    }
+
+    private LongBuffer copy(LongBuffer from, LongBuffer to) {
+        if (to.capacity() != from.capacity()) {
+            return storageMode.copyOf(from, from.capacity());
+        }
+        to.clear();
+        to.put(from.duplicate().clear()).clear();
+        return to;
+    }
+
+    private IntBuffer copy(IntBuffer from, IntBuffer to) {
+        if (to.capacity() != from.capacity()) {
+            return storageMode.copyOf(from);
+        }
+        to.clear();
+        to.put(from.duplicate().clear()).clear();
+        return to;
+    }
+
+    /**
+     * Writes the site version code and infected bit of every user, and the counts of every class, as snapshot
+     * sections. Snapshots are taken between runs, so nobody is excluded
+     * @param graph the graph of the state, its pending affected counts are flushed first
+     * @param writer
+     * @throws IOException
+     */
+    public void writeTo(Graph graph, SnapshotFile.Writer writer) throws IOException {
+        flushAffected(graph, null);
+        writer.writeInt(numUsers);
+        writer.writeShorts(versionCodes.duplicate().clear().limit(numUsers));
+        writer.writeLongs(infectedBits.duplicate().clear());
+        writer.writeInt(numInfected);
+        writer.writeInts(numStudentsInfected.duplicate().clear());
+        writer.writeInts(numStudentsAffected.duplicate().clear());
+        writer.writeInts(numAvailableMembers.duplicate().clear());
+    }
+
+    /**
+     * Reads a state written by writeTo over the same graph. The per user state is copied, since it changes as users
+     * are infected, and the class counts are used as saved, without going over the graph again. Only the list of
+     * not infected users is rebuilt, in one pass over the infected bits
+     * @param graph the graph the state was saved with
+     * @param reader
+     * @throws IOException
+     */
+    public void readFrom(Graph graph, SnapshotFile.Reader reader) throws IOException {
+        numUsers = reader.readInt();
+        versionCodes = storageMode.copyOf(reader.mapShorts(numUsers), numUsers);
+        infectedBits = storageMode.copyOf(reader.mapLongs((numUsers + 63) >>> 6), (numUsers + 63) >>> 6);
+        numInfected = reader.readInt();
+        excludedBits = storageMode.allocateLongs(infectedBits.capacity());
+        numExcluded = 0;
+        int numClasses = graph.getNumClasses();
+        numStudentsInfected = storageMode.copyOf(reader.mapInts(numClasses), numClasses);
+        numStudentsAffected = storageMode.copyOf(reader.mapInts(numClasses), numClasses);
+        numAvailableMembers = storageMode.copyOf(reader.mapInts(numClasses), numClasses);
+        pendingInfected = storageMode.allocateInts(numClasses);
+        pendingClasses.clear();
+        notInfectedUsers = storageMode.allocateInts(numUsers);
+        notInfectedPositions = storageMode.allocateInts(numUsers);
+        numAvailable = 0;
+        for (int u = 0; u < numUsers; u++) {
+            if (!isInfected(u)) {
+                notInfectedPositions.put(u, numAvailable);
+                notInfectedUsers.put(numAvailable++, u);
+            }
+        }
+        classSampler = new FenwickSampler(numAvailableMembers, storageMode);
+    }
+
+    public short getVersion(int user) {
+        return versionCodes.get(user);
+    }
+
+    public void setVersion(int user, short versionCode) {
+        if (undoLog != null) {
+            undoLog.record(user, versionCodes.get(user), isInfected(user));
+        }
+        versionCodes.put(user, versionCode);
+    }
+
+    /**
+     * @param index moved along with the affected counts and available members from now on, null to stop
+     */
+    public void setScoreIndex(ClassScoreIndex index) {
+        this.scoreIndex = index;
+    }
+
+    /**
+     * @param log records the previous site version and infected bit of every user whose site version is set from
+     * now on, or null to stop recording
+     */
+    public void setUndoLog(InfectionUndoLog log) {
+        undoLog = log;
+    }
+
+    public boolean isInfected(int user) {
+        return (infectedBits.get(user >>> 6) & (1L << user)) != 0;
+    }
+
+    /**
+     * @return a copy of the infected bits, allocated in this state's storage mode
+     */
+    public LongBuffer copyInfectedBits() {
+        return storageMode.copyOf(infectedBits, infectedBits.capacity());
+    }
+
+    /**
+     * @param bits infected bits copied out of a state over the same graph
+     * @return true if exactly the users set in bits are infected
+     */
+    public boolean hasInfectedBits(LongBuffer bits) {
+        return infectedBits.duplicate().clear().equals(bits.duplicate().clear());
+    }
+
+    /**
+     * Sets the user's infected bit and counts them in every class they take
+     * @param graph
+     * @param user
+     * @return true if the user was not infected before
+     */
+    public boolean markInfected(Graph graph, int user) {
+        long bit = 1L << user;
+        long word = infectedBits.get(user >>> 6);
+        if ((word & bit) != 0) {
+            return false;
+        }
+        infectedBits.put(user >>> 6, word | bit);
+        numInfected++;
+        if (!isExcluded(user)) {
+            makeUnavailable(graph, user);
+        }
+        //on avg this will be quite small
+        countInfectedStudent(graph, user);
+        return true;
+    }
+
+    /**
+     * Undoes the changes in the log, newest first, so a user changed twice ends up with the site version from before
+     * the first change. Users the log's run infected are no longer infected.
+     * The users to uninfect are gathered in a bitset and uninfected in id order, which reads the graph front to back
+     * instead of in the order the run reached the users, and the class sampler is rebuilt once at the end instead of
+     * being updated for every enrollment, so this takes O(changed users) plus a pass over the bitset and the classes
+     * @param graph
+     * @param log what the run recorded in this state
+     */
+    public void rollback(Graph graph, InfectionUndoLog log) {
+        LongBuffer uninfected = storageMode.allocateLongs(infectedBits.capacity());
+        for (int i = log.size() - 1; i >= 0; i--) {
+            int user = log.getUser(i);
+            versionCodes.put(user, log.getPreviousVersion(i));
+            if (!log.wasInfected(i)) {
+                uninfected.put(user >>> 6, uninfected.get(user >>> 6) | 1L << user);
+            }
+        }
+        for (int w = 0; w < uninfected.capacity(); w++) {
+            long word = uninfected.get(w) & infectedBits.get(w);
+            if (word == 0) {
+                continue;
+            }
+            infectedBits.put(w, infectedBits.get(w) & ~word);
+            numInfected -= Long.bitCount(word);
+            while (word != 0) {
+                unmarkInfected(graph, (w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        classSampler = new FenwickSampler(numAvailableMembers, storageMode);
+    }
+
+    /**
+     * Takes a user whose infected bit was just cleared off the counts of every class they take, the reverse of
+     * markInfected, except that the class sampler is left for the caller to rebuild
+     */
+    private void unmarkInfected(Graph graph, int user) {
+        if (!isExcluded(user)) {
+            makeAvailable(graph, user);
+        }
+        uncountInfectedStudent(graph, user);
+    }
+
+    public boolean isExcluded(int user) {
+        return (excludedBits.get(user >>> 6) & (1L << user)) != 0;
+    }
+
+    /**
+     * Takes a not infected user out of the random draws, without infecting them
+     * @param graph
+     * @param user
+     * @return true if the user was neither infected nor excluded before
+     */
+    public boolean exclude(Graph graph, int user) {
+        if (isExcluded(user) || isInfected(user)) {
+            return false;
+        }
+        excludedBits.put(user >>> 6, excludedBits.get(user >>> 6) | 1L << user);
+        numExcluded++;
+        makeUnavailable(graph, user);
+        return true;
+    }
+
+    /**
+     * Puts an excluded user back into the random draws, the reverse of exclude. The score index must be detached
+     * @param graph
+     * @param user
+     * @return true if the user was excluded before
+     */
+    public boolean include(Graph graph, int user) {
+        if (!isExcluded(user)) {
+            return false;
+        }
+        excludedBits.put(user >>> 6, excludedBits.get(user >>> 6) & ~(1L << user));
+        numExcluded--;
+        if (!isInfected(user)) {
+            makeAvailable(graph, user);
+            for (int i = graph.userClassStart(user); i < graph.userClassEnd(user); i++) {
+                classSampler.add(graph.userClassAt(i), 1);
+            }
+        }
+        return true;
+    }
+
+    public int getNumExcluded() {
+        return numExcluded;
+    }
+
+    private boolean isAvailable(int user) {
+        return !isInfected(user) && !isExcluded(user);
+    }
+
+    /**
+     * Adds the user to the end of the available users, and to the available members of all their classes. The class
+     * sampler is left to the caller
+     */
+    private void makeAvailable(Graph graph, int user) {
+        notInfectedPositions.put(user, numAvailable);
+        notInfectedUsers.put(numAvailable++, user);
+        for (int i = graph.userClassStart(user); i < graph.userClassEnd(user); i++) {
+            int classId = graph.userClassAt(i);
+            numAvailableMembers.put(classId, numAvailableMembers.get(classId) + 1);
+        }
+    }
+
+    /**
+     * Swaps the last available user into this user's slot, and takes the user off the sampling weight of all
+     * their classes
+     */
+    private void makeUnavailable(Graph graph, int user) {
+        int lastUser = notInfectedUsers.get(--numAvailable);
+        int position = notInfectedPositions.get(user);
+        notInfectedUsers.put(position, lastUser);
+        notInfectedPositions.put(lastUser, position);
+        for (int i = graph.userClassStart(user); i < graph.userClassEnd(user); i++) {
+            int classId = graph.userClassAt(i);
+            int available = numAvailableMembers.get(classId) - 1;
+            numAvailableMembers.put(classId, available);
+            if (available == 0 && scoreIndex != null) {
+                scoreIndex.remove(classId);
+            }
+            classSampler.add(classId, -1);
+        }
+    }
+
+    /**
+     * @param classId
+     * @return the number of members of the class that are neither infected nor excluded
+     */
+    public int getNumAvailableMembers(int classId) {
+        return numAvailableMembers.get(classId);
+    }
+
+    /**
+     * @param random
+     * @return a uniformly random not infected user that isn't excluded, or -1 if there is none
+     */
+    public int sampleNotInfectedUser(SplittableRandom random) {
+        if (numAvailable == 0) {
+            return -1;
+        }
+        return notInfectedUsers.get(random.nextInt(numAvailable));
+    }
+
+    /**
+     * @param random
+     * @return a random class, with a probability proportional to its number of not infected, not excluded members,
+     * or -1 if there is no such member left
+     */
+    public int sampleClass(SplittableRandom random) {
+        if (classSampler.getTotal() == 0) {
+            return -1;
+        }
+        return classSampler.sample(random.nextLong(classSampler.getTotal()));
+    }
+
+    /**
+     * Counts the newly infected user in every class they take. Taking them off the affected count of every class
+     * connected to those is left pending
+     */
+    private void countInfectedStudent(Graph graph, int user) {
+        for (int i = graph.userClassStart(user); i < graph.userClassEnd(user); i++) {
+            if (!graph.isTeachingEdge(i)) {
+                int classId = graph.userClassAt(i);
+                numStudentsInfected.put(classId, numStudentsInfected.get(classId) + 1);
+                int pending = pendingInfected.get(classId);
+                pendingInfected.put(classId, pending + 1);
+                if (pending == 0) {
+                    pendingClasses.add(classId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes a user that is no longer infected off the infected count of every class they take. Putting them back on
+     * the affected counts is left pending, as a negative pending count. A class whose pending count goes through 0
+     * on the way can be queued twice, the second time with nothing left to do
+     */
+    private void uncountInfectedStudent(Graph graph, int user) {
+        for (int i = graph.userClassStart(user); i < graph.userClassEnd(user); i++) {
+            if (!graph.isTeachingEdge(i)) {
+                int classId = graph.userClassAt(i);
+                numStudentsInfected.put(classId, numStudentsInfected.get(classId) - 1);
+                int pending = pendingInfected.get(classId);
+                pendingInfected.put(classId, pending - 1);
+                if (pending == 0) {
+                    pendingClasses.add(classId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the pending infected students off the affected counts, once per class however many there are
+     */
+    private void flushAffected(Graph graph) {
+        flushAffected(graph, null);
+    }
+
+    /**
+     * Takes the pending infected students off the affected counts, and lowers the key of every changed class that
+     * is in the heap to its new affected count
+     * @param graph
+     * @param affectedHeap classes keyed by their affected count, or null
+     */
+    public void flushAffected(Graph graph, IntMinHeap affectedHeap) {
+        while (!pendingClasses.isEmpty()) {
+            int classId = pendingClasses.poll();
+            int change = pendingInfected.get(classId);
+            pendingInfected.put(classId, 0);
+            for (int j = graph.connectedStart(classId); j < graph.connectedEnd(classId); j++) {
+                int connectedClass = graph.connectedAt(j);
+                int affected = numStudentsAffected.get(connectedClass) - change;
+                numStudentsAffected.put(connectedClass, affected);
+                if (scoreIndex != null) {
+                    scoreIndex.update(connectedClass, affected);
+                }
+                if (affectedHeap != null && affectedHeap.contains(connectedClass)) {
+                    affectedHeap.decreaseKey(connectedClass, affected);
+                }
+            }
+        }
+        pendingClasses.clear();
+    }
+
+    public int getNumInfected() {
+        return numInfected;
+    }
+
+    /**
+     * Recounts the infected users from the bitset, one popcount per 64 users
+     * @return the number of infected users
+     */
+    public int countInfected() {
+        int count = 0;
+        for (int i = 0; i < infectedBits.capacity(); i++) {
+            count += Long.bitCount(infectedBits.get(i));
+        }
+        return count;
+    }
+
+    /**
+     * @param from
+     * @return the first infected user id >= from, or getNumUsers() if there is none
+     */
+    public int nextInfected(int from) {
+        if (from >= numUsers) {
+            return numUsers;
+        }
+        int wordIndex = from >>> 6;
+        long word = infectedBits.get(wordIndex) & (-1L << from);
+        while (word == 0) {
+            if (++wordIndex == infectedBits.capacity()) {
+                return numUsers;
+            }
+            word = infectedBits.get(wordIndex);
+        }
+        return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+    }
+
+    public int getNumUsers() {
+        return numUsers;
+    }
+
+    public int getNumStudentsInfected(int classId) {
+        return numStudentsInfected.get(classId);
+    }
+
+    /**
+     * @param classId
+     * @return the number of not infected students in all classes connected to the class, in O(1)
+     */
+    public int getNumStudentsAffected(Graph graph, int classId) {
+        if (!pendingClasses.isEmpty()) {
+            flushAffected(graph);
+        }
+        return numStudentsAffected.get(classId);
+    }
+
+    public int getNumStudentsNotInfected(Graph graph, int classId) {
+        return graph.getNumStudents(classId) - numStudentsInfected.get(classId);
+    }
+
+    /**
+     * @param graph
+     * @param classId
+     * @return true if the teacher and every student of the class are infected
+     */
+    public boolean isCompletelyInfected(Graph graph, int classId) {
+        return numStudentsInfected.get(classId) >= graph.getNumStudents(classId)
+                && isInfected(graph.getTeacher(classId));
+    }
+}
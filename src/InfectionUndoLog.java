@@ -0,0 +1,65 @@
+import java.util.Arrays;
+
+/**
+ * What one infection run changed, so it can be rolled back: every user whose site version the run set, with the
+ * site version code the user had before and whether the user was infected before. Entries are kept in three
+ * primitive arrays, six bytes and a bit per changed user, in the order the run made the changes.
+ */
+public class InfectionUndoLog {
+
+    private final short newVersion; //the code of the site version the run moved users to
+    private int[] users; //the first size are valid
+    private short[] previousVersions; //the code every user had before the run, by entry
+    private long[] wasInfected; //bit i is set when the user of entry i was already infected before the run
+    private int size;
+
+    public InfectionUndoLog(short newVersion) {
+        this.newVersion = newVersion;
+        this.users = new int[16];
+        this.previousVersions = new short[16];
+        this.wasInfected = new long[1];
+        this.size = 0;
+    }
+
+    /**
+     * @param user
+     * @param previousVersion the user's site version code before the change
+     * @param infected whether the user was infected before the change
+     */
+    public void record(int user, short previousVersion, boolean infected) {
+        if (size == users.length) {
+            users = Arrays.copyOf(users, size * 2);
+            previousVersions = Arrays.copyOf(previousVersions, size * 2);
+            wasInfected = Arrays.copyOf(wasInfected, (size * 2 + 63) >>> 6);
+        }
+        users[size] = user;
+        previousVersions[size] = previousVersion;
+        if (infected) {
+            wasInfected[size >>> 6] |= 1L << size;
+        }
+        size++;
+    }
+
+    public short getNewVersion() {
+        return newVersion;
+    }
+
+    /**
+     * @return the number of changes
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getUser(int entry) {
+        return users[entry];
+    }
+
+    public short getPreviousVersion(int entry) {
+        return previousVersions[entry];
+    }
+
+    public boolean wasInfected(int entry) {
+        return (wasInfected[entry >>> 6] & (1L << entry)) != 0;
+    }
+}
@@ -0,0 +1,131 @@
+import java.util.Arrays;
+
+/**
+ * An indexed binary min-heap of ids in [0, capacity) with int keys. Every id is in the heap at most once, and its
+ * position is tracked, so its key can be lowered without searching for it or adding a duplicate entry, and
+ * sifted up right away, in O(log n).
+ * Ties are broken by the smaller id, so the order is deterministic.
+ */
+public class IntMinHeap {
+
+    private int[] heap; //the ids, heap[0] has the smallest key
+    private int[] keys; //the key of every id, indexed by id
+    private int[] positions; //the index of every id in heap, -1 if it isn't in the heap
+    private int size;
+
+    /**
+     * @param capacity one more than the largest id
+     */
+    public IntMinHeap(int capacity) {
+        this.heap = new int[capacity];
+        this.keys = new int[capacity];
+        this.positions = new int[capacity];
+        Arrays.fill(positions, -1);
+        this.size = 0;
+    }
+
+    public boolean contains(int id) {
+        return positions[id] >= 0;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getKey(int id) {
+        return keys[id];
+    }
+
+    /**
+     * Adds the id, or lowers its key if it is already in the heap and the new key is lower
+     * @param id
+     * @param key
+     */
+    public void add(int id, int key) {
+        if (positions[id] >= 0) {
+            decreaseKey(id, key);
+            return;
+        }
+        keys[id] = key;
+        heap[size] = id;
+        positions[id] = size;
+        siftUp(size++);
+    }
+
+    /**
+     * Lowers the key of an id in the heap. A key that isn't lower is ignored
+     * @param id
+     * @param key
+     */
+    public void decreaseKey(int id, int key) {
+        if (key < keys[id]) {
+            keys[id] = key;
+            siftUp(positions[id]);
+        }
+    }
+
+    /**
+     * @return the id with the smallest key, which is removed from the heap
+     */
+    public int poll() {
+        int min = heap[0];
+        positions[min] = -1;
+        if (--size > 0) {
+            heap[0] = heap[size];
+            positions[heap[0]] = 0;
+            siftDown(0);
+        }
+        return min;
+    }
+
+    /**
+     * @return the ids in the heap, in no particular order
+     */
+    public int[] toArray() {
+        return Arrays.copyOf(heap, size);
+    }
+
+    private boolean less(int id, int otherId) {
+        return keys[id] < keys[otherId] || (keys[id] == keys[otherId] && id < otherId);
+    }
+
+    private void siftUp(int index) {
+        int id = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!less(id, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            positions[heap[index]] = index;
+            index = parent;
+        }
+        heap[index] = id;
+        positions[id] = index;
+    }
+
+    private void siftDown(int index) {
+        int id = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], id)) {
+                break;
+            }
+            heap[index] = heap[child];
+            positions[heap[index]] = index;
+            index = child;
+        }
+        heap[index] = id;
+        positions[id] = index;
+    }
+}
@@ -0,0 +1,72 @@
+import java.util.Arrays;
+
+/**
+ * A growable FIFO queue of primitive ints, used by the graph traversals so that
+ * enqueuing a user or class id never boxes or allocates a list node.
+ */
+public class IntQueue {
+
+    private int[] elements;
+    private int head; //index of the next element to poll
+    private int tail; //index one past the last element added
+
+    public IntQueue() {
+        this(16);
+    }
+
+    public IntQueue(int initialCapacity) {
+        this.elements = new int[Math.max(initialCapacity, 1)];
+        this.head = 0;
+        this.tail = 0;
+    }
+
+    public void add(int value) {
+        if (tail == elements.length) {
+            grow();
+        }
+        elements[tail++] = value;
+    }
+
+    public int poll() {
+        return elements[head++];
+    }
+
+    public int get(int index) {
+        return elements[head + index];
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    public int size() {
+        return tail - head;
+    }
+
+    /**
+     * @return a copy of the elements that haven't been polled yet, in order
+     */
+    public int[] toArray() {
+        return Arrays.copyOfRange(elements, head, tail);
+    }
+
+    public void clear() {
+        head = 0;
+        tail = 0;
+    }
+
+    /**
+     * Makes room for another element. If enough elements have already been polled the live ones are
+     * shifted to the front instead of growing the array
+     */
+    private void grow() {
+        int size = size();
+        if (head > 0 && size < elements.length / 2) {
+            System.arraycopy(elements, head, elements, 0, size);
+        } else {
+            elements = Arrays.copyOfRange(elements, head, head + elements.length * 2);
+        }
+        head = 0;
+        tail = size;
+    }
+}
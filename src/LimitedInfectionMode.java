@@ -0,0 +1,21 @@
+/**
+ * How limitedInfection picks the users to infect
+ */
+public enum LimitedInfectionMode {
+    /**
+     * Infects class by class from a random start, through a queue of connected classes, and gets picky about the
+     * classes it infects once it is within delta of the target. Lands within about one class size of the target
+     */
+    CLASS_QUEUE,
+    /**
+     * Like CLASS_QUEUE, but always infects the connected class that affects the fewest not infected students next,
+     * from an indexed min-heap with no duplicate classes. See Rollout.cheapestFirstInfection
+     */
+    CHEAPEST_FIRST,
+    /**
+     * Infects a set of whole connected components whose size adds up as close to the target as possible, picked
+     * with SubsetSum. No class, and no component, ends up split across site versions. Overshoots the target by at
+     * most the environment's target tolerance
+     */
+    WHOLE_COMPONENTS
+}
@@ -0,0 +1,81 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The index of every element of a list, so an element can be removed without searching for it: the last element
+ * is moved into its place, which changes the order of the list. An element may be in the list more than once,
+ * every occurrence is tracked, so removing one of them is O(number of occurrences) rather than O(list size).
+ * The list must only be changed through elementAdded and swapRemove once it is tracked.
+ * @param <T>
+ */
+public class ListPositions<T> {
+
+    private final List<T> list;
+    private final HashMap<T, int[]> positions; //the indexes of every occurrence of every element, in the order they were added
+
+    /**
+     * @param list indexed as it is now
+     */
+    public ListPositions(List<T> list) {
+        this.list = list;
+        this.positions = new HashMap<>();
+        for (int i = 0; i < list.size(); i++) {
+            track(list.get(i), i);
+        }
+    }
+
+    private void track(T element, int position) {
+        int[] at = positions.get(element);
+        if (at == null) {
+            positions.put(element, new int[] {position});
+        } else {
+            at = Arrays.copyOf(at, at.length + 1);
+            at[at.length - 1] = position;
+            positions.put(element, at);
+        }
+    }
+
+    /**
+     * Tracks the element that was just added to the end of the list
+     * @param element
+     */
+    public void elementAdded(T element) {
+        track(element, list.size() - 1);
+    }
+
+    public boolean contains(T element) {
+        return positions.containsKey(element);
+    }
+
+    /**
+     * Removes the most recently added occurrence of the element, moving the last element of the list into its place
+     * @param element
+     * @return false if the element is not in the list
+     */
+    public boolean swapRemove(T element) {
+        int[] at = positions.get(element);
+        if (at == null) {
+            return false;
+        }
+        int position = at[at.length - 1];
+        if (at.length == 1) {
+            positions.remove(element);
+        } else {
+            positions.put(element, Arrays.copyOf(at, at.length - 1));
+        }
+        int last = list.size() - 1;
+        if (position != last) {
+            T moved = list.get(last);
+            list.set(position, moved);
+            int[] movedAt = positions.get(moved);
+            for (int i = 0; i < movedAt.length; i++) {
+                if (movedAt[i] == last) {
+                    movedAt[i] = position;
+                }
+            }
+        }
+        list.remove(last);
+        return true;
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * A map from long keys to non negative int values, using open addressing with linear probing over two primitive
+ * arrays, so neither keys nor values are boxed and a lookup allocates nothing
+ */
+public class LongIntHashMap {
+
+    private static final float MAX_LOAD = 0.5f;
+
+    private long[] keys;
+    private int[] values; //the value of keys[i] plus one, 0 marks a free slot
+    private int size;
+    private int mask; //the capacity minus one, the capacity is always a power of two
+
+    /**
+     * @param expectedSize the number of keys the map should hold without growing
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = 4;
+        while (capacity < 1 << 30 && capacity * MAX_LOAD < expectedSize) {
+            capacity <<= 1;
+        }
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.size = 0;
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * @param key
+     * @return the value of the key, or -1 if the key isn't in the map
+     */
+    public int get(long key) {
+        for (int i = slot(key); values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i] - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks up the key, and maps it to newValue if it isn't in the map yet
+     * @param key
+     * @param newValue a non negative value
+     * @return the value the key had before, or -1 if it was added with newValue
+     */
+    public int putIfAbsent(long key, int newValue) {
+        int i = slot(key);
+        for (; values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i] - 1;
+            }
+        }
+        keys[i] = key;
+        values[i] = newValue + 1;
+        if (++size > MAX_LOAD * keys.length) {
+            grow();
+        }
+        return -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slot(long key) {
+        //fibonacci hashing spreads sequential ids over the whole table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length << 1];
+        values = new int[oldValues.length << 1];
+        mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != 0) {
+                int i = slot(oldKeys[j]);
+                while (values[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
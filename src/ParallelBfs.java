@@ -0,0 +1,238 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A level synchronous, direction optimizing breadth first search over a Graph, used by the PARALLEL mode of
+ * totalInfection. Each level is split into chunks that run on a fork-join pool and claim users and classes with an
+ * atomic test-and-set on shared visited bitsets.
+ *
+ * While the frontier is small a level is expanded top-down (frontier users scan the members of their classes).
+ * Once the frontier touches a large share of the unexplored edges it switches to bottom-up (every unvisited user
+ * checks whether one of its classes was reached this level), and back again once the frontier shrinks.
+ */
+public class ParallelBfs {
+
+    private static final int ALPHA = 14; //switch to bottom-up once the frontier has more than 1/ALPHA of the unexplored edges
+    private static final int BETA = 24; //switch back to top-down once the frontier has fewer than 1/BETA of the users
+    private static final int MIN_CHUNK_SIZE = 1024; //ranges smaller than this are not worth handing to the pool
+
+    private ForkJoinPool pool;
+    private int numChunks; //the max number of chunks each parallel step is split into
+
+    public ParallelBfs(ForkJoinPool pool) {
+        this.pool = pool;
+        this.numChunks = pool.getParallelism() * 4;
+    }
+
+    /**
+     * Finds every user reachable from startUser, where users that are already on newVersion are neither reached
+     * nor expanded (the same rule the sequential search uses). The state is only read
+     * @param graph
+     * @param state
+     * @param startUser
+     * @param newVersion
+     * @return the ids of all reached users, startUser included, in level order
+     */
+    public IntQueue run(Graph graph, InfectionState state, int startUser, short newVersion) {
+        int numUsers = graph.getNumUsers();
+        AtomicLongArray visitedUsers = new AtomicLongArray((numUsers + 63) >>> 6);
+        AtomicLongArray visitedClasses = new AtomicLongArray((graph.getNumClasses() + 63) >>> 6);
+        int[] classLevels = new int[graph.getNumClasses()]; //the bottom-up level a class was reached in, 0 if never
+        long[] chunkEdges = new long[numChunks];
+        IntQueue[] chunkUsers = new IntQueue[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            chunkUsers[i] = new IntQueue();
+        }
+
+        //users that already have the new version block the traversal, so they start out visited
+        parallelFor(numUsers, (chunk, from, to) -> {
+            long edges = 0;
+            for (int u = from; u < to; u++) {
+                if (state.getVersion(u) == newVersion) {
+                    testAndSet(visitedUsers, u);
+                    edges += graph.getNumClassesOfUser(u);
+                }
+            }
+            chunkEdges[chunk] = edges;
+        });
+        long unexploredEdges = graph.getNumEnrollments() - sum(chunkEdges);
+
+        IntQueue reached = new IntQueue();
+        if (!testAndSet(visitedUsers, startUser)) {
+            return reached;
+        }
+        reached.add(startUser);
+        int[] frontier = {startUser};
+        long frontierEdges = graph.getNumClassesOfUser(startUser);
+        boolean bottomUp = false;
+        int level = 0;
+
+        while (frontier.length > 0) {
+            unexploredEdges -= frontierEdges;
+            if (!bottomUp && frontierEdges > unexploredEdges / ALPHA) {
+                bottomUp = true;
+            } else if (bottomUp && frontier.length < numUsers / BETA) {
+                bottomUp = false;
+            }
+            level++;
+            for (int i = 0; i < numChunks; i++) {
+                chunkUsers[i].clear();
+                chunkEdges[i] = 0;
+            }
+            if (bottomUp) {
+                bottomUpStep(graph, frontier, level, classLevels, visitedUsers, visitedClasses, chunkUsers, chunkEdges);
+            } else {
+                topDownStep(graph, frontier, visitedUsers, visitedClasses, chunkUsers, chunkEdges);
+            }
+
+            int nextSize = 0;
+            for (IntQueue users : chunkUsers) {
+                nextSize += users.size();
+            }
+            int[] next = new int[nextSize];
+            int n = 0;
+            for (IntQueue users : chunkUsers) {
+                for (int i = 0; i < users.size(); i++) {
+                    next[n++] = users.get(i);
+                    reached.add(users.get(i));
+                }
+            }
+            frontier = next;
+            frontierEdges = sum(chunkEdges);
+        }
+        return reached;
+    }
+
+    /**
+     * Every frontier user claims its classes that haven't been expanded, and claims all unvisited members of them
+     */
+    private void topDownStep(Graph graph, int[] frontier, AtomicLongArray visitedUsers,
+                             AtomicLongArray visitedClasses, IntQueue[] chunkUsers, long[] chunkEdges) {
+        parallelFor(frontier.length, (chunk, from, to) -> {
+            IntQueue next = chunkUsers[chunk];
+            long edges = 0;
+            for (int f = from; f < to; f++) {
+                int user = frontier[f];
+                for (int i = graph.userClassStart(user); i < graph.userClassEnd(user); i++) {
+                    int classId = graph.userClassAt(i);
+                    if (!testAndSet(visitedClasses, classId)) {
+                        continue;
+                    }
+                    for (int j = graph.classMemberStart(classId); j < graph.classMemberEnd(classId); j++) {
+                        int member = graph.classMemberAt(j);
+                        if (testAndSet(visitedUsers, member)) {
+                            next.add(member);
+                            edges += graph.getNumClassesOfUser(member);
+                        }
+                    }
+                }
+            }
+            chunkEdges[chunk] = edges;
+        });
+    }
+
+    /**
+     * First the frontier claims its unexpanded classes and stamps them with the level, then every unvisited user
+     * joins the next frontier if any of its classes carries this level's stamp
+     */
+    private void bottomUpStep(Graph graph, int[] frontier, int level, int[] classLevels, AtomicLongArray visitedUsers,
+                              AtomicLongArray visitedClasses, IntQueue[] chunkUsers, long[] chunkEdges) {
+        parallelFor(frontier.length, (chunk, from, to) -> {
+            for (int f = from; f < to; f++) {
+                int user = frontier[f];
+                for (int i = graph.userClassStart(user); i < graph.userClassEnd(user); i++) {
+                    int classId = graph.userClassAt(i);
+                    if (testAndSet(visitedClasses, classId)) {
+                        classLevels[classId] = level;
+                    }
+                }
+            }
+        });
+        //chunks are aligned to 64 users, so no two chunks ever share a word of visitedUsers
+        parallelFor(graph.getNumUsers(), (chunk, from, to) -> {
+            IntQueue next = chunkUsers[chunk];
+            long edges = 0;
+            for (int user = from; user < to; user++) {
+                if ((visitedUsers.get(user >>> 6) & (1L << user)) != 0) {
+                    continue;
+                }
+                for (int i = graph.userClassStart(user); i < graph.userClassEnd(user); i++) {
+                    if (classLevels[graph.userClassAt(i)] == level) {
+                        testAndSet(visitedUsers, user);
+                        next.add(user);
+                        edges += graph.getNumClassesOfUser(user);
+                        break;
+                    }
+                }
+            }
+            chunkEdges[chunk] = edges;
+        });
+    }
+
+    /**
+     * Atomically sets the bit
+     * @param bits
+     * @param index
+     * @return true if this call set the bit, false if it was already set
+     */
+    private static boolean testAndSet(AtomicLongArray bits, int index) {
+        int wordIndex = index >>> 6;
+        long bit = 1L << index;
+        long word = bits.get(wordIndex);
+        while ((word & bit) == 0) {
+            if (bits.compareAndSet(wordIndex, word, word | bit)) {
+                return true;
+            }
+            word = bits.get(wordIndex);
+        }
+        return false;
+    }
+
+    private static long sum(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    /**
+     * Splits [0, size) into at most numChunks ranges aligned to 64, runs them on the pool and waits for all of them
+     */
+    private void parallelFor(int size, RangeTask task) {
+        if (size <= MIN_CHUNK_SIZE) {
+            task.run(0, 0, size);
+            return;
+        }
+        int chunkSize = ((size + numChunks - 1) / numChunks + 63) & ~63;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int from = 0, chunk = 0; from < size; from += chunkSize, chunk++) {
+            int chunkId = chunk;
+            int start = from;
+            int end = Math.min(size, from + chunkSize);
+            tasks.add(() -> {
+                task.run(chunkId, start, end);
+                return null;
+            });
+        }
+        try {
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted during parallel traversal", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Parallel traversal failed", e.getCause());
+        }
+    }
+
+    private interface RangeTask {
+        void run(int chunk, int from, int to);
+    }
+}
@@ -0,0 +1,654 @@
+import java.util.SplittableRandom;
+
+/**
+ * One run of the infection algorithms: it moves users of a Graph to a new site version, recording who it infected
+ * in an InfectionState. The graph is only read, so several rollouts, each with its own state and random generator,
+ * can run over the same graph at the same time.
+ *
+ * Rollouts that share their users through UserClaims only take users they win the claim for. A user claimed by
+ * another rollout is excluded from this rollout's state: it isn't infected and isn't traversed through.
+ * Users found already on the new site version are excluded the same way, so they count as taken: their classes run
+ * out of members to infect, and the run ends once nobody is left to take even if the target wasn't hit.
+ * A run's exclusions are lifted when it ends, so the state can be used by a rollout of another site version.
+ */
+public class Rollout {
+
+    private Graph graph;
+    private InfectionState state;
+    private short newVersion; //the code of the site version this rollout moves users to
+    private SplittableRandom random;
+    private UserClaims claims; //shared with the other rollouts running at the same time, null if there are none
+    private int claimant; //the id this rollout claims users with
+    private IntQueue newlyInfected; //every user this rollout moved to the new site version, in order, unless it has a batcher
+    private int numNewlyInfected; //the number of users this rollout moved to the new site version
+    private IntQueue excludedUsers; //the users this run excluded from the state, included again when it ends
+    private InfectionBatcher batcher; //streams the infections to a listener, null if there is none
+    private RunControl control; //bounds the run, null if it is unbounded
+    private InfectionCheckpoint checkpoint; //where the run stopped when it went over the control's bounds
+    private int priorInfected; //users infected by the run before the checkpoint it was resumed from
+    private long priorSteps; //steps taken by the run before the checkpoint it was resumed from
+    private float delta; //the acceptable range around the target percentage of the population that we want to hit
+    private float affectedThresholdFactor; //* with total population, the max amount of affected people we will tolerate
+    private int sizeLimit; //the max number of connected classes a starting class may have, unless no other class will do
+    private ClassScoreIndex scoreIndex; //the classes to start over from by affected count, built the first time the run needs it
+    private boolean forcedPick; //true when the last start class picked didn't meet the requirements
+    //what the run did, see InfectionMetrics. Plain fields, so counting costs next to nothing in the hot loops
+    private long numUsersVisited;
+    private long numEdgesScanned;
+    private long numDuplicateClasses;
+    private long numRequirementRejections;
+    private long numForcedInfections;
+    private long numAffectedReads;
+
+    /**
+     * @param graph
+     * @param state the state to record infections in. It must cover the graph
+     * @param newVersion the SiteVersions code of the new site version
+     * @param random
+     */
+    public Rollout(Graph graph, InfectionState state, short newVersion, SplittableRandom random) {
+        this.graph = graph;
+        this.state = state;
+        this.newVersion = newVersion;
+        this.random = random;
+        this.claims = null;
+        this.claimant = 0;
+        this.newlyInfected = new IntQueue();
+        this.excludedUsers = new IntQueue();
+        this.batcher = null;
+        this.control = null;
+        this.checkpoint = null;
+        //the same defaults as TestEnvironment
+        this.delta = 0.05f;
+        this.affectedThresholdFactor = 0.005f;
+        this.sizeLimit = 10000;
+    }
+
+    public void setDelta(float newDelta) {
+        delta = newDelta;
+    }
+
+    public void setAffectedThresholdFactor(float newFactor) {
+        affectedThresholdFactor = newFactor;
+    }
+
+    public void setSizeLimit(int limit) {
+        sizeLimit = limit;
+    }
+
+    /**
+     * @param claims the claims shared by all rollouts running at the same time
+     * @param claimant this rollout's id in the claims
+     */
+    public void setClaims(UserClaims claims, int claimant) {
+        this.claims = claims;
+        this.claimant = claimant;
+    }
+
+    /**
+     * @param batcher streams every user and class this rollout infects to a listener, which can stop the rollout.
+     * The users are handed to the batcher instead of being kept in getNewlyInfected. Finishing the batcher once the
+     * rollout is done is up to the caller
+     */
+    public void setBatcher(InfectionBatcher batcher) {
+        this.batcher = batcher;
+    }
+
+    /**
+     * @param control bounds the run, which leaves a checkpoint if it goes over them
+     */
+    public void setRunControl(RunControl control) {
+        this.control = control;
+    }
+
+    /**
+     * @return where the run stopped if it went over its control's bounds, else null
+     */
+    public InfectionCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    private void beginRun() {
+        if (control != null) {
+            control.beginRun();
+        }
+    }
+
+    /**
+     * Counts a step with the control
+     * @return true if the control says to stop before the step
+     */
+    private boolean outOfBounds() {
+        return control != null && control.shouldStop();
+    }
+
+    private InfectionCheckpoint checkpoint(InfectionCheckpoint.Kind kind, float targetPercentage, int[] frontier,
+                                           boolean[] visited) {
+        return new InfectionCheckpoint(kind, graph, newVersion, targetPercentage, frontier, visited,
+                state.copyInfectedBits(), priorInfected + numNewlyInfected, priorSteps + control.getNumSteps());
+    }
+
+    /**
+     * Goes on with a run from where it stopped. The state must be the one the run was recording infections in
+     * @param from a checkpoint taken over this rollout's graph, for this rollout's site version
+     * @throws IllegalStateException if the state's infected users changed since the checkpoint was taken
+     */
+    public void resume(InfectionCheckpoint from) {
+        if (!state.hasInfectedBits(from.getInfectedBits())) {
+            throw new IllegalStateException("The infected users changed since the checkpoint was taken");
+        }
+        beginRun();
+        priorInfected = from.getNumInfected();
+        priorSteps = from.getNumSteps();
+        IntQueue frontier = new IntQueue(from.getFrontier().length);
+        for (int id : from.getFrontier()) {
+            frontier.add(id);
+        }
+        if (from.getKind() == InfectionCheckpoint.Kind.TOTAL) {
+            spread(frontier, from.getVisited().clone());
+        } else if (from.getKind() == InfectionCheckpoint.Kind.CLASS_QUEUE) {
+            runClassQueue(from.getTargetPercentage(), frontier);
+        } else {
+            IntMinHeap heap = new IntMinHeap(graph.getNumClasses());
+            while (!frontier.isEmpty()) {
+                int classId = frontier.poll();
+                heap.add(classId, state.getNumStudentsAffected(graph, classId));
+            }
+            runCheapestFirst(from.getTargetPercentage(), heap, from.getVisited().clone());
+        }
+        endRun();
+    }
+
+    /**
+     * @return true if the listener asked to stop
+     */
+    public boolean isStopped() {
+        return batcher != null && batcher.isStopped();
+    }
+
+    /**
+     * @return the ids of every user this rollout moved to the new site version, or none if it has a batcher
+     */
+    public IntQueue getNewlyInfected() {
+        return newlyInfected;
+    }
+
+    /**
+     * @return the number of users this rollout moved to the new site version, batcher or not
+     */
+    public int getNumNewlyInfected() {
+        return numNewlyInfected;
+    }
+
+    public InfectionState getState() {
+        return state;
+    }
+
+    /**
+     * @return the number of times a user was checked for infection, whether or not it was taken
+     */
+    public long getNumUsersVisited() {
+        return numUsersVisited;
+    }
+
+    /**
+     * @return the number of user -> class, class -> member and class -> connected class entries read
+     */
+    public long getNumEdgesScanned() {
+        return numEdgesScanned;
+    }
+
+    /**
+     * @return the number of classes taken off the queue that had nothing left to infect
+     */
+    public long getNumDuplicateClasses() {
+        return numDuplicateClasses;
+    }
+
+    /**
+     * @return the number of randomly picked classes that didn't meet the requirements
+     */
+    public long getNumRequirementRejections() {
+        return numRequirementRejections;
+    }
+
+    /**
+     * @return the number of classes infected even though they didn't meet the requirements
+     */
+    public long getNumForcedInfections() {
+        return numForcedInfections;
+    }
+
+    /**
+     * @return the number of affected counts read
+     */
+    public long getNumAffectedReads() {
+        return numAffectedReads;
+    }
+
+    /**
+     * Picks a random user this rollout can take, and infects all users within any degree of connection to them
+     */
+    public void totalInfection() {
+        beginRun();
+        for (int startUser = state.sampleNotInfectedUser(random); startUser >= 0;
+             startUser = state.sampleNotInfectedUser(random)) {
+            //a user that isn't taken was excluded, so it isn't drawn again
+            if (take(startUser)) {
+                spreadFrom(startUser);
+                break;
+            }
+        }
+        endRun();
+    }
+
+    /**
+     * Infects all users within any degree of connection to the start user.
+     * Users that are already on the new site version are not traversed through
+     * @param startUser
+     */
+    public void totalInfection(int startUser) {
+        beginRun();
+        if (take(startUser)) {
+            spreadFrom(startUser);
+        }
+        endRun();
+    }
+
+    /**
+     * Breadth first from a user that was just taken. Users are taken and infected when they are queued so each is
+     * queued once, and each class's members are only scanned the first time one of its members is reached
+     */
+    private void spreadFrom(int startUser) {
+        //use bfs to avoid stack limitations of dfs
+        IntQueue allUsersToInfect = new IntQueue();
+        boolean[] classVisited = new boolean[graph.getNumClasses()];
+        markInfected(startUser);
+        allUsersToInfect.add(startUser);
+        spread(allUsersToInfect, classVisited);
+    }
+
+    /**
+     * @param allUsersToInfect the infected users whose classes haven't been scanned yet
+     * @param classVisited the classes whose members were already scanned
+     */
+    private void spread(IntQueue allUsersToInfect, boolean[] classVisited) {
+        while (!allUsersToInfect.isEmpty() && !isStopped()) {
+            if (outOfBounds()) {
+                checkpoint = checkpoint(InfectionCheckpoint.Kind.TOTAL, 0f, allUsersToInfect.toArray(),
+                        classVisited);
+                return;
+            }
+            int userToInfect = allUsersToInfect.poll();
+            numEdgesScanned += graph.userClassEnd(userToInfect) - graph.userClassStart(userToInfect);
+            for (int i = graph.userClassStart(userToInfect); i < graph.userClassEnd(userToInfect); i++) {
+                int classId = graph.userClassAt(i);
+                if (classVisited[classId]) {
+                    continue;
+                }
+                classVisited[classId] = true;
+                if (batcher != null) {
+                    batcher.addClass(classId);
+                }
+                numEdgesScanned += graph.classMemberEnd(classId) - graph.classMemberStart(classId);
+                for (int j = graph.classMemberStart(classId); j < graph.classMemberEnd(classId); j++) {
+                    int user = graph.classMemberAt(j);
+                    if (take(user)) {
+                        markInfected(user);
+                        allUsersToInfect.add(user);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Infects only up to the @targetPercentage amount of users, +/- error of 1 class size, which is assumed to be
+     * reasonably within the amount of the targetPercentage on average
+     * @param targetPercentage
+     */
+    public void limitedInfection(float targetPercentage) {
+        int startClass = state.sampleClass(random);
+        if (startClass >= 0) {
+            limitedInfection(targetPercentage, startClass);
+        }
+    }
+
+    /**
+     * Like limitedInfection, starting from the given class instead of a random one
+     * @param targetPercentage
+     * @param startClass the id of the first class to infect
+     */
+    public void limitedInfection(float targetPercentage, int startClass) {
+        beginRun();
+        IntQueue toInfectQueue = new IntQueue();
+        toInfectQueue.add(startClass);
+        runClassQueue(targetPercentage, toInfectQueue);
+        endRun();
+    }
+
+    private void runClassQueue(float targetPercentage, IntQueue toInfectQueue) {
+        boolean forceInfect = false;
+        //don't stop if the queue isn't empty or we haven't hit the target yet
+        while (!toInfectQueue.isEmpty() || !hitTarget(targetPercentage)) {
+            //stop if we hit or surpass the target, or the listener asked to
+            if (hitTarget(targetPercentage) || isStopped()) {
+                break;
+            }
+            //forceInfect is always false here, so the queue is all there is to save
+            if (outOfBounds()) {
+                checkpoint = checkpoint(InfectionCheckpoint.Kind.CLASS_QUEUE, targetPercentage,
+                        toInfectQueue.toArray(), null);
+                return;
+            }
+            // if we get here, means the queue is empty but the target hasn't been hit so we need to chose another class
+            if (toInfectQueue.isEmpty()) {
+                int startClass = pickStartClass(targetPercentage);
+                //every member of every class is infected or excluded, so there is nothing left to pick
+                if (startClass < 0) {
+                    break;
+                }
+                //if no class met the requirements, use one anyways (so we don't get stuck) and force infect it
+                toInfectQueue.add(startClass);
+                forceInfect = forcedPick;
+            }
+            int classToInfect = toInfectQueue.poll();
+            //if forceinfect is true, it means it will disregard any heuristics and just infect it to avoid
+            //the case in which we go on a never ending loop because all nodes in the system are "bad" according
+            //to the heuristic
+            if (forceInfect) {
+                numForcedInfections++;
+                infectClass(classToInfect, toInfectQueue);
+                forceInfect = false;
+            } else {
+                // if we are nearing our target percentage, we want to start being picky about the type of classes we choose to infect
+                // we only want to infect classes that will AFFECT a small amount of people,
+                // where "AFFECT" means the number of NON-infected students in all of the surrounding connected classes
+                //(aka this is the number of people who will be affected by this classroom getting infected)
+                //the affected count is maintained as students get infected, so checking it is O(1) even for big classes
+                if (isPercentageInfectedWithinTargetRange(targetPercentage)) {
+                    int numAffected = state.getNumStudentsAffected(graph, classToInfect);
+                    numAffectedReads++;
+                    if (numAffected < getAffectedThreshold()) {
+                        infectClass(classToInfect, toInfectQueue);
+                    }
+                } else {
+                    infectClass(classToInfect, toInfectQueue);
+                }
+            }
+        }
+    }
+
+    /**
+     * Like limitedInfection, but the frontier of classes connected to the infected ones is kept in a min-heap keyed
+     * by each class's affected count, so the class that affects the fewest not infected students is always infected
+     * next. Every class is in the frontier once, and its key is lowered as students of its connected classes get
+     * infected. When the frontier runs out a new start class is picked the way limitedInfection does
+     * @param targetPercentage
+     */
+    public void cheapestFirstInfection(float targetPercentage) {
+        beginRun();
+        //expanded holds the classes that were already taken off the frontier
+        runCheapestFirst(targetPercentage, new IntMinHeap(graph.getNumClasses()), new boolean[graph.getNumClasses()]);
+        endRun();
+    }
+
+    private void runCheapestFirst(float targetPercentage, IntMinHeap frontier, boolean[] expanded) {
+        while (!hitTarget(targetPercentage) && !isStopped()) {
+            if (outOfBounds()) {
+                checkpoint = checkpoint(InfectionCheckpoint.Kind.CHEAPEST_FIRST, targetPercentage,
+                        frontier.toArray(), expanded);
+                return;
+            }
+            if (frontier.isEmpty()) {
+                int startClass = pickStartClass(targetPercentage);
+                if (startClass < 0) {
+                    break;
+                }
+                if (forcedPick) {
+                    numForcedInfections++;
+                }
+                frontier.add(startClass, state.getNumStudentsAffected(graph, startClass));
+                numAffectedReads++;
+            }
+            int classToInfect = frontier.poll();
+            expanded[classToInfect] = true;
+            if (state.getNumAvailableMembers(classToInfect) == 0) {
+                numDuplicateClasses++;
+                continue;
+            }
+            numEdgesScanned += graph.classMemberEnd(classToInfect) - graph.classMemberStart(classToInfect)
+                    + graph.connectedEnd(classToInfect) - graph.connectedStart(classToInfect);
+            if (batcher != null) {
+                batcher.addClass(classToInfect);
+            }
+            for (int i = graph.classMemberStart(classToInfect); i < graph.classMemberEnd(classToInfect); i++) {
+                int user = graph.classMemberAt(i);
+                if (take(user)) {
+                    markInfected(user);
+                }
+            }
+            //lower the keys of the frontier before adding to it, so every key is current
+            state.flushAffected(graph, frontier);
+            for (int i = graph.connectedStart(classToInfect); i < graph.connectedEnd(classToInfect); i++) {
+                int connectedClass = graph.connectedAt(i);
+                if (!expanded[connectedClass] && !frontier.contains(connectedClass)
+                        && state.getNumAvailableMembers(connectedClass) > 0) {
+                    frontier.add(connectedClass, state.getNumStudentsAffected(graph, connectedClass));
+                    numAffectedReads++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks the class to start over from once the queue runs out. A random class, weighted by its members left to
+     * infect, is drawn first. If it doesn't meet the requirements, the score index is looked up for a class that
+     * does, which finds one if there is any without drawing again, and builds the index the first time. Hubs are
+     * only taken from the index when no other class will do. When no class meets the requirements, the drawn class
+     * is picked anyways and forcedPick is set
+     * @param targetPercentage
+     * @return the class, or -1 if every class is infected
+     */
+    private int pickStartClass(float targetPercentage) {
+        forcedPick = false;
+        int randomClass = state.sampleClass(random);
+        if (randomClass < 0 || meetsRequirements(randomClass, targetPercentage)) {
+            return randomClass;
+        }
+        numRequirementRejections++;
+        int maxAffected = getMaxAffected(targetPercentage);
+        int candidate = getScoreIndex().pick(maxAffected, random);
+        if (candidate >= 0 && graph.getNumConnectedClasses(candidate) <= sizeLimit) {
+            return candidate;
+        }
+        //a hub under the threshold is better than a class over it, but both are picked knowing they break a rule
+        forcedPick = true;
+        return candidate >= 0 ? candidate : randomClass;
+    }
+
+    /**
+     * @return the score index with the pending affected counts flushed into it, built and attached to the state
+     * the first time it's needed
+     */
+    private ClassScoreIndex getScoreIndex() {
+        if (scoreIndex == null) {
+            scoreIndex = new ClassScoreIndex(graph, state, sizeLimit);
+            state.setScoreIndex(scoreIndex);
+        }
+        state.flushAffected(graph, null);
+        return scoreIndex;
+    }
+
+    /**
+     * Detaches the score index from the state at the end of a run, so the state doesn't keep paying for it, and
+     * includes the users the run excluded again
+     */
+    private void endRun() {
+        if (scoreIndex != null) {
+            state.setScoreIndex(null);
+            scoreIndex = null;
+        }
+        while (!excludedUsers.isEmpty()) {
+            state.include(graph, excludedUsers.poll());
+        }
+    }
+
+    /**
+     * Will completely infect the classToInfect students and teacher, except for users claimed by another rollout.
+     * Adds the connected classes to the queue. This is a run of its own, so its exclusions are lifted at the end
+     * @param classToInfect
+     * @param toInfectQueue receives all classes that users in the class are connected to
+     */
+    public void infect(int classToInfect, IntQueue toInfectQueue) {
+        infectClass(classToInfect, toInfectQueue);
+        endRun();
+    }
+
+    private void infectClass(int classToInfect, IntQueue toInfectQueue) {
+        //a class with no member left to take has nothing to spread, whether its members are infected or claimed
+        if (state.getNumAvailableMembers(classToInfect) == 0) {
+            numDuplicateClasses++;
+            return;
+        }
+        numEdgesScanned += graph.classMemberEnd(classToInfect) - graph.classMemberStart(classToInfect)
+                + graph.connectedEnd(classToInfect) - graph.connectedStart(classToInfect);
+        if (batcher != null) {
+            batcher.addClass(classToInfect);
+        }
+        for (int i = graph.classMemberStart(classToInfect); i < graph.classMemberEnd(classToInfect); i++) {
+            int user = graph.classMemberAt(i);
+            if (take(user)) {
+                markInfected(user);
+            }
+        }
+        for (int i = graph.connectedStart(classToInfect); i < graph.connectedEnd(classToInfect); i++) {
+            toInfectQueue.add(graph.connectedAt(i));
+        }
+    }
+
+    /**
+     * Moves the user to the new site version, unless they already are on it or another rollout claimed them first,
+     * in which case they are excluded for the rest of the run
+     * @param user
+     * @return true if the user was taken by this rollout
+     */
+    private boolean take(int user) {
+        numUsersVisited++;
+        if (state.isExcluded(user)) {
+            return false;
+        }
+        if (state.getVersion(user) == newVersion || (claims != null && !claims.claim(user, claimant))) {
+            if (state.exclude(graph, user)) {
+                excludedUsers.add(user);
+            }
+            return false;
+        }
+        state.setVersion(user, newVersion);
+        return true;
+    }
+
+    private void markInfected(int user) {
+        numNewlyInfected++;
+        state.markInfected(graph, user);
+        if (batcher != null) {
+            batcher.addUser(user);
+        } else {
+            newlyInfected.add(user);
+        }
+    }
+
+    public float getTotalPercentageInfected() {
+        return getTotalPercentageInfected(state.getNumInfected(), graph.getNumUsers());
+    }
+
+    /**
+     * The formulas below are static so TestEnvironment answers the same questions about its own state without
+     * setting up a rollout
+     * @param numInfected
+     * @param numUsers
+     * @return the fraction of the users that are infected
+     */
+    protected static float getTotalPercentageInfected(int numInfected, int numUsers) {
+        return (float) numInfected / (float) numUsers;
+    }
+
+    /**
+     * Calculates whether the total percentage of infected users is within some delta of the target percentage
+     * @param targetPercentage
+     * @return
+     */
+    public boolean isPercentageInfectedWithinTargetRange(float targetPercentage) {
+        return isWithinTargetRange(getTotalPercentageInfected(), targetPercentage, delta);
+    }
+
+    protected static boolean isWithinTargetRange(float percentageInfected, float targetPercentage, float delta) {
+        return targetPercentage - percentageInfected < delta;
+    }
+
+    /**
+     * Calculates if the total percentage of infected people has met/surpassed the target percentage
+     * @param targetPercentage
+     * @return
+     */
+    public boolean hitTarget(float targetPercentage) {
+        return hitTarget(getTotalPercentageInfected(), targetPercentage);
+    }
+
+    protected static boolean hitTarget(float percentageInfected, float targetPercentage) {
+        return percentageInfected >= targetPercentage;
+    }
+
+    /**
+     * Gets the max number of uninfected people we will tolerate affecting
+     * @return
+     */
+    public int getAffectedThreshold() {
+        return getAffectedThreshold(affectedThresholdFactor, graph.getNumUsers());
+    }
+
+    protected static int getAffectedThreshold(float affectedThresholdFactor, int numUsers) {
+        return (int) (affectedThresholdFactor * numUsers);
+    }
+
+    /**
+     * @return the affected threshold if we are close to the target, else no limit
+     */
+    private int getMaxAffected(float targetPercentage) {
+        return isPercentageInfectedWithinTargetRange(targetPercentage) ? getAffectedThreshold() : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns true if the class's connections don't go over the size limit, and its under the threshold given
+     * that we're already close to the target percentage
+     * @param randomClass
+     * @param targetPercentage
+     * @return
+     */
+    public boolean meetsRequirements(int randomClass, float targetPercentage) {
+        int maxAffected = getMaxAffected(targetPercentage);
+        if (maxAffected < Integer.MAX_VALUE) {
+            numAffectedReads++;
+        }
+        return meetsRequirements(graph, state, randomClass, maxAffected, sizeLimit);
+    }
+
+    /**
+     * @param graph
+     * @param state
+     * @param classId
+     * @param maxAffected the affected count the class must be under, Integer.MAX_VALUE when we aren't close to the
+     * target yet, in which case the affected count isn't read
+     * @param sizeLimit
+     * @return true if the class meets the requirements
+     */
+    protected static boolean meetsRequirements(Graph graph, InfectionState state, int classId, int maxAffected,
+                                               int sizeLimit) {
+        //if we are close to the target, we want to make sure the num affected is under the threshold
+        if (maxAffected < Integer.MAX_VALUE && state.getNumStudentsAffected(graph, classId) >= maxAffected) {
+            return false;
+        }
+        //we probably don't want to start at a class that touches > sizeLimit classes, so it doesn't meet requirements
+        return graph.getNumConnectedClasses(classId) <= sizeLimit;
+    }
+}
@@ -0,0 +1,74 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The settings of one limited infection a RolloutPlanner tries out: the seed of its random generator, the class it
+ * starts from and the heuristics' delta and affectedThresholdFactor
+ */
+public class RolloutCandidate {
+
+    private final long seed;
+    private final int startClass; //the id of the class to start from, -1 to pick one at random like limitedInfection
+    private final float delta;
+    private final float affectedThresholdFactor;
+
+    /**
+     * @param seed
+     * @param startClass the id of the class to start from, or -1 for a random one
+     * @param delta
+     * @param affectedThresholdFactor
+     */
+    public RolloutCandidate(long seed, int startClass, float delta, float affectedThresholdFactor) {
+        this.seed = seed;
+        this.startClass = startClass;
+        this.delta = delta;
+        this.affectedThresholdFactor = affectedThresholdFactor;
+    }
+
+    /**
+     * Every combination of numSeeds seeds, drawn from the given seed, with the deltas and threshold factors.
+     * The candidates start from random classes
+     * @param seed
+     * @param numSeeds
+     * @param deltas
+     * @param affectedThresholdFactors
+     * @return the candidates
+     */
+    public static List<RolloutCandidate> sweep(long seed, int numSeeds, float[] deltas,
+                                               float[] affectedThresholdFactors) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<RolloutCandidate> candidates = new ArrayList<>();
+        for (int i = 0; i < numSeeds; i++) {
+            long candidateSeed = random.nextLong();
+            for (float delta : deltas) {
+                for (float factor : affectedThresholdFactors) {
+                    candidates.add(new RolloutCandidate(candidateSeed, -1, delta, factor));
+                }
+            }
+        }
+        return candidates;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getStartClass() {
+        return startClass;
+    }
+
+    public float getDelta() {
+        return delta;
+    }
+
+    public float getAffectedThresholdFactor() {
+        return affectedThresholdFactor;
+    }
+
+    @Override
+    public String toString() {
+        return "seed " + seed + ", start class " + startClass + ", delta " + delta
+                + ", affected threshold factor " + affectedThresholdFactor;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * The outcome of a candidate evaluated by a RolloutPlanner: the users it would move to the new site version and how
+ * well it did. Nothing is changed in the environment until the result is applied with TestEnvironment.applyRollout
+ */
+public class RolloutPlan {
+
+    private final RolloutCandidate candidate;
+    private final RolloutResult result;
+    private final float percentageInfected; //of all users, once the plan is applied, counting the ones infected before
+    private final int numPartiallyInfectedClasses; //classes left with some, but not all, of their students infected
+    private final float score; //lower is better
+
+    public RolloutPlan(RolloutCandidate candidate, RolloutResult result, float percentageInfected,
+                       int numPartiallyInfectedClasses, float score) {
+        this.candidate = candidate;
+        this.result = result;
+        this.percentageInfected = percentageInfected;
+        this.numPartiallyInfectedClasses = numPartiallyInfectedClasses;
+        this.score = score;
+    }
+
+    public RolloutCandidate getCandidate() {
+        return candidate;
+    }
+
+    /**
+     * @return the users to infect. Its rollout id is the index of the candidate in the list that was evaluated
+     */
+    public RolloutResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return the percentage of all users that would be infected once the plan is applied, including the users that
+     * were infected before. The result's own percentage only counts the users the plan infects
+     */
+    public float getPercentageInfected() {
+        return percentageInfected;
+    }
+
+    /**
+     * @return the number of classes that aren't completely infected and have at least
+     * RolloutPlanner.PARTIAL_INFECTION_THRESHOLD of their students infected
+     */
+    public int getNumPartiallyInfectedClasses() {
+        return numPartiallyInfectedClasses;
+    }
+
+    public float getScore() {
+        return score;
+    }
+}
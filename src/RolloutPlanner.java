@@ -0,0 +1,150 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Dry runs many limited infections of a site version over a read-only snapshot of an environment's graph, and picks
+ * the best one to apply. Candidates run on scratch InfectionStates, so the environment isn't changed.
+ * Each worker thread has one scratch state that is reset between its candidates by copying a state forked from the
+ * environment once, which is a flat array copy instead of recounting the state, so hundreds of candidates are cheap.
+ *
+ * Candidates start from the environment's infected users, so a plan on top of an earlier infection only infects what
+ * the target still needs. Plans are scored by how far the environment's infected percentage would land from the
+ * target once the plan is applied, plus partialInfectionWeight times the fraction of classes
+ * they leave partially infected, the same breakdown testLimitedInfection prints. Lower scores are better.
+ * The environment's enrollments must not change while the planner is in use.
+ */
+public class RolloutPlanner {
+
+    public static final float PARTIAL_INFECTION_THRESHOLD = 0.005f; //infected students fraction above which a class is partially infected
+
+    private final TestEnvironment testEnv;
+    private final Graph graph; //the snapshot every candidate runs over
+    private final InfectionState baseState; //the site versions and infected users every candidate starts from
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private float partialInfectionWeight; //how much the fraction of partially infected classes counts in the score
+
+    /**
+     * @param testEnv the environment whose graph and site versions the candidates start from
+     * @param parallelism the number of candidates that run at the same time
+     */
+    public RolloutPlanner(TestEnvironment testEnv, int parallelism) {
+        this.testEnv = testEnv;
+        this.graph = testEnv.getGraph();
+        this.baseState = new InfectionState(testEnv.getStorageMode());
+        this.baseState.forkFrom(graph, testEnv.getState());
+        this.pool = new ForkJoinPool(parallelism);
+        this.parallelism = parallelism;
+        this.partialInfectionWeight = 1f;
+    }
+
+    public void setPartialInfectionWeight(float weight) {
+        partialInfectionWeight = weight;
+    }
+
+    /**
+     * Runs every candidate's limited infection, with the environment's size limit
+     * @param newSiteVersion
+     * @param targetPercentage
+     * @param candidates
+     * @return a plan for every candidate, in the same order
+     * @throws InterruptedException
+     * @throws ExecutionException if a candidate failed
+     */
+    public List<RolloutPlan> evaluate(String newSiteVersion, float targetPercentage,
+                                      List<RolloutCandidate> candidates)
+            throws InterruptedException, ExecutionException {
+        //the environment's site versions aren't thread safe, so the rollouts are all set up here
+        int numWorkers = Math.max(1, Math.min(parallelism, candidates.size()));
+        List<Callable<Void>> workers = new ArrayList<>();
+        RolloutPlan[] plans = new RolloutPlan[candidates.size()];
+        for (int w = 0; w < numWorkers; w++) {
+            InfectionState scratch = new InfectionState(testEnv.getStorageMode());
+            List<Integer> indexes = new ArrayList<>();
+            List<Rollout> rollouts = new ArrayList<>();
+            for (int i = w; i < candidates.size(); i += numWorkers) {
+                RolloutCandidate candidate = candidates.get(i);
+                Rollout rollout = testEnv.newRollout(graph, scratch, newSiteVersion,
+                        new SplittableRandom(candidate.getSeed()));
+                rollout.setDelta(candidate.getDelta());
+                rollout.setAffectedThresholdFactor(candidate.getAffectedThresholdFactor());
+                indexes.add(i);
+                rollouts.add(rollout);
+            }
+            workers.add(() -> {
+                for (int j = 0; j < rollouts.size(); j++) {
+                    int i = indexes.get(j);
+                    scratch.copyFrom(baseState);
+                    plans[i] = run(i, candidates.get(i), rollouts.get(j), newSiteVersion, targetPercentage);
+                }
+                return null;
+            });
+        }
+        for (Future<Void> worker : pool.invokeAll(workers)) {
+            worker.get();
+        }
+        List<RolloutPlan> result = new ArrayList<>();
+        for (RolloutPlan plan : plans) {
+            result.add(plan);
+        }
+        return result;
+    }
+
+    /**
+     * @param newSiteVersion
+     * @param targetPercentage
+     * @param candidates
+     * @return the plan with the lowest score, the first one on ties, or null if there are no candidates
+     * @throws InterruptedException
+     * @throws ExecutionException if a candidate failed
+     */
+    public RolloutPlan findBestPlan(String newSiteVersion, float targetPercentage, List<RolloutCandidate> candidates)
+            throws InterruptedException, ExecutionException {
+        RolloutPlan best = null;
+        for (RolloutPlan plan : evaluate(newSiteVersion, targetPercentage, candidates)) {
+            if (best == null || plan.getScore() < best.getScore()) {
+                best = plan;
+            }
+        }
+        return best;
+    }
+
+    private RolloutPlan run(int candidateIndex, RolloutCandidate candidate, Rollout rollout, String newSiteVersion,
+                            float targetPercentage) {
+        if (candidate.getStartClass() >= 0) {
+            rollout.limitedInfection(targetPercentage, candidate.getStartClass());
+        } else {
+            rollout.limitedInfection(targetPercentage);
+        }
+        InfectionState state = rollout.getState();
+        int numPartiallyInfected = 0;
+        for (int c = 0; c < graph.getNumClasses(); c++) {
+            int numInfected = state.getNumStudentsInfected(c);
+            if (numInfected > 0 && !state.isCompletelyInfected(graph, c)
+                    && numInfected >= PARTIAL_INFECTION_THRESHOLD * graph.getNumStudents(c)) {
+                numPartiallyInfected++;
+            }
+        }
+        RolloutResult result = new RolloutResult(candidateIndex, newSiteVersion,
+                rollout.getNewlyInfected().toArray(), graph.getNumUsers());
+        //the users infected before the plan count too
+        float percentageInfected = rollout.getTotalPercentageInfected();
+        float score = Math.abs(percentageInfected - targetPercentage);
+        if (graph.getNumClasses() > 0) {
+            score += partialInfectionWeight * numPartiallyInfected / graph.getNumClasses();
+        }
+        return new RolloutPlan(candidate, result, percentageInfected, numPartiallyInfected, score);
+    }
+
+    /**
+     * Stops the worker threads
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
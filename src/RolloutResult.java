@@ -0,0 +1,44 @@
+/**
+ * The outcome of one rollout run by a RolloutService: the users it moved to its site version.
+ * Nothing is changed in the environment until the result is applied with TestEnvironment.applyRollout
+ */
+public class RolloutResult {
+
+    private final int rolloutId;
+    private final String siteVersion;
+    private final int[] infectedUsers; //the ids of the users the rollout moved to the site version, in order
+    private final int numUsers; //the number of users in the graph the rollout ran over
+
+    public RolloutResult(int rolloutId, String siteVersion, int[] infectedUsers, int numUsers) {
+        this.rolloutId = rolloutId;
+        this.siteVersion = siteVersion;
+        this.infectedUsers = infectedUsers;
+        this.numUsers = numUsers;
+    }
+
+    /**
+     * @return the id the rollout claimed users with, in the order rollouts were submitted to the service
+     */
+    public int getRolloutId() {
+        return rolloutId;
+    }
+
+    public String getSiteVersion() {
+        return siteVersion;
+    }
+
+    /**
+     * @return the ids of the infected users, which are their indexes in TestEnvironment.getAllUsersList
+     */
+    public int[] getInfectedUsers() {
+        return infectedUsers;
+    }
+
+    public int getNumInfected() {
+        return infectedUsers.length;
+    }
+
+    public float getPercentageInfected() {
+        return (float) infectedUsers.length / (float) numUsers;
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs several rollouts of different site versions at the same time, over one read-only snapshot of an
+ * environment's graph. Every rollout works on its own InfectionState, forked from the environment's site versions
+ * and infected users when the service was created, on its own worker thread, so throughput grows with the number of
+ * workers. A rollout takes the same users it would on the environment: users already on its site version count
+ * as taken, and the users infected before count towards its target.
+ * How rollouts that reach the same user are resolved is set by the ConflictPolicy; under FIRST_CLAIM_WINS the
+ * users are claimed lock-free through UserClaims.
+ *
+ * Rollouts don't change the environment: their results are applied with TestEnvironment.applyRollout.
+ * The environment's enrollments must not change while the service is in use.
+ */
+public class RolloutService {
+
+    private final TestEnvironment testEnv;
+    private final Graph graph; //the snapshot every rollout runs over
+    private final InfectionState baseState; //the site versions and infected users every rollout starts from
+    private final UserClaims claims; //null unless the policy is FIRST_CLAIM_WINS
+    private final ForkJoinPool pool;
+    private int numRollouts; //the number of rollouts submitted so far, which is the id of the next one
+
+    /**
+     * @param testEnv the environment whose graph and site versions the rollouts start from
+     * @param policy
+     * @param parallelism the number of rollouts that run at the same time
+     */
+    public RolloutService(TestEnvironment testEnv, ConflictPolicy policy, int parallelism) {
+        this.testEnv = testEnv;
+        this.graph = testEnv.getGraph();
+        this.baseState = new InfectionState(testEnv.getStorageMode());
+        this.baseState.forkFrom(graph, testEnv.getState());
+        this.claims = policy == ConflictPolicy.FIRST_CLAIM_WINS ? new UserClaims(graph.getNumUsers()) : null;
+        this.pool = new ForkJoinPool(parallelism);
+        this.numRollouts = 0;
+    }
+
+    /**
+     * Starts a limited infection of the new site version, with the environment's current settings
+     * @param newSiteVersion
+     * @param targetPercentage
+     * @return the result, once the rollout is done
+     */
+    public Future<RolloutResult> submitLimitedInfection(String newSiteVersion, float targetPercentage) {
+        return submit(newSiteVersion, rollout -> rollout.limitedInfection(targetPercentage));
+    }
+
+    /**
+     * Starts a total infection of the new site version from a random user
+     * @param newSiteVersion
+     * @return the result, once the rollout is done
+     */
+    public Future<RolloutResult> submitTotalInfection(String newSiteVersion) {
+        return submit(newSiteVersion, Rollout::totalInfection);
+    }
+
+    /**
+     * The environment's site versions and random generator aren't thread safe, so they are only used here, on the
+     * submitting thread; the rest of the setup, copying the base state, happens on the worker
+     */
+    private synchronized Future<RolloutResult> submit(String newSiteVersion, RolloutTask task) {
+        int rolloutId = numRollouts++;
+        InfectionState state = new InfectionState(testEnv.getStorageMode());
+        Rollout rollout = testEnv.newRollout(graph, state, newSiteVersion, testEnv.splitRandom());
+        if (claims != null) {
+            rollout.setClaims(claims, rolloutId);
+        }
+        return pool.submit(() -> {
+            state.copyFrom(baseState);
+            task.run(rollout);
+            return new RolloutResult(rolloutId, newSiteVersion, rollout.getNewlyInfected().toArray(),
+                    graph.getNumUsers());
+        });
+    }
+
+    /**
+     * @param user the id of a user
+     * @return the id of the rollout that claimed the user, or -1 if none did or the policy is INDEPENDENT
+     */
+    public int getOwner(int user) {
+        return claims == null ? -1 : claims.getOwner(user);
+    }
+
+    /**
+     * Stops the worker threads once the submitted rollouts are done
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private interface RolloutTask {
+        void run(Rollout rollout);
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Bounds an infection run: a deadline, a budget of steps, and cancellation from any thread. A step is one class
+ * infected by a limited infection, or one user expanded by a total infection. A run that goes over its bounds
+ * stops at a step boundary and leaves an InfectionCheckpoint it can be resumed from. The bounds are per run: the
+ * steps and the time limit start over every time a run starts, so one control can bound every run of an environment.
+ * A cancelled control stays cancelled.
+ */
+public class RunControl {
+
+    private static final int CLOCK_CHECK_INTERVAL = 64; //steps between reads of the clock
+
+    private long timeLimitNanos;
+    private long deadlineNanos; //in System.nanoTime terms, timeLimitNanos after the current run started
+    private boolean hasDeadline;
+    private long maxSteps;
+    private long numSteps;
+    private volatile boolean cancelled;
+
+    /**
+     * A control with no limits, that only stops a run when cancelled
+     */
+    public RunControl() {
+        this.hasDeadline = false;
+        this.maxSteps = Long.MAX_VALUE;
+        this.numSteps = 0;
+        this.cancelled = false;
+    }
+
+    /**
+     * @param millis the most time a run may take, counted from now for a run already going, else from its start
+     */
+    public void setTimeLimit(long millis) {
+        timeLimitNanos = millis * 1000000L;
+        deadlineNanos = System.nanoTime() + timeLimitNanos;
+        hasDeadline = true;
+    }
+
+    /**
+     * @param steps the most steps a run may take
+     */
+    public void setStepLimit(long steps) {
+        maxSteps = steps;
+    }
+
+    /**
+     * Stops the run at its next step. Can be called from any thread
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Starts the bounds over for a new run, called by the rollout as the run starts
+     */
+    public void beginRun() {
+        numSteps = 0;
+        if (hasDeadline) {
+            deadlineNanos = System.nanoTime() + timeLimitNanos;
+        }
+    }
+
+    /**
+     * @return the number of steps the current run took
+     */
+    public long getNumSteps() {
+        return numSteps;
+    }
+
+    /**
+     * Counts a step about to be taken. The clock is only read every CLOCK_CHECK_INTERVAL steps, so checking
+     * costs next to nothing even when steps are short
+     * @return true if the step must not be taken
+     */
+    public boolean shouldStop() {
+        if (cancelled || numSteps >= maxSteps) {
+            return true;
+        }
+        if (hasDeadline && numSteps % CLOCK_CHECK_INTERVAL == 0 && System.nanoTime() - deadlineNanos >= 0) {
+            return true;
+        }
+        numSteps++;
+        return false;
+    }
+}
@@ -0,0 +1,584 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs infections over a graph split into shards by a GraphPartition, the way they would run across several worker
+ * processes. Every shard holds its classes as a Graph of its own, with local user ids, and a copy of the site versions
+ * of its users; shards only learn about the rest of the graph through messages. Here the shards are simulated on
+ * the threads of a pool, and a message is a batch of about batchSize ints put in the receiving shard's inbox for
+ * the next superstep.
+ *
+ * Both infections run in level synchronous supersteps: every shard reads its inbox, works locally until it has
+ * nothing left to do without hearing from the other shards, and sends what it learned about its cross shard users,
+ * batched per receiving shard. The run is over after a superstep in which nothing was sent. The number of messages
+ * and ints sent by the last run is kept, which is the traffic the partition has to keep low.
+ *
+ * Like a RolloutService, the runs don't change the environment; apply their results with
+ * TestEnvironment.applyRollout. The environment's enrollments must not change while this is in use.
+ */
+public class ShardedInfection {
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private final TestEnvironment testEnv;
+    private final Graph graph; //the snapshot the shards were split from
+    private final GraphPartition partition;
+    private final Shard[] shards;
+    private final int[] unshardedUsers; //the users with no classes, which no shard holds
+    private final ForkJoinPool pool;
+    private int batchSize; //the most ints in one message
+    private int numRuns;
+    //what the last run did
+    private int numSupersteps;
+    private long numMessages;
+    private long numIdsSent;
+
+    /**
+     * Splits the environment's current graph into shards
+     * @param testEnv
+     * @param partition a partition of the environment's current graph
+     */
+    public ShardedInfection(TestEnvironment testEnv, GraphPartition partition) {
+        this.testEnv = testEnv;
+        this.graph = testEnv.getGraph();
+        if (partition.getNumShards() < 1) {
+            throw new IllegalArgumentException("A partition needs at least one shard");
+        }
+        this.partition = partition;
+        this.batchSize = DEFAULT_BATCH_SIZE;
+        this.pool = new ForkJoinPool(partition.getNumShards());
+        this.numRuns = 0;
+
+        int numShards = partition.getNumShards();
+        List<ShardBuilder> builders = new ArrayList<>();
+        for (int s = 0; s < numShards; s++) {
+            builders.add(new ShardBuilder());
+        }
+        //every user goes to the shards of its classes, in id order, and knows which other shards hold it
+        IntQueue unsharded = new IntQueue();
+        IntQueue userShards = new IntQueue();
+        int[] stamps = new int[numShards];
+        Arrays.fill(stamps, -1);
+        for (int u = 0; u < graph.getNumUsers(); u++) {
+            userShards.clear();
+            for (int i = graph.userClassStart(u); i < graph.userClassEnd(u); i++) {
+                int shard = partition.getShard(graph.userClassAt(i));
+                if (stamps[shard] != u) {
+                    stamps[shard] = u;
+                    userShards.add(shard);
+                }
+            }
+            if (userShards.isEmpty()) {
+                unsharded.add(u);
+            }
+            for (int i = 0; i < userShards.size(); i++) {
+                //the shard of the user's first class counts the user when the shards report on their users
+                builders.get(userShards.get(i)).addUser(u, i == 0, userShards, i);
+            }
+        }
+        for (int c = 0; c < graph.getNumClasses(); c++) {
+            builders.get(partition.getShard(c)).addClass(graph, c);
+        }
+        this.shards = new Shard[numShards];
+        for (int s = 0; s < numShards; s++) {
+            shards[s] = builders.get(s).build(s);
+        }
+        this.unshardedUsers = unsharded.toArray();
+    }
+
+    public void setBatchSize(int size) {
+        batchSize = size;
+    }
+
+    public GraphPartition getPartition() {
+        return partition;
+    }
+
+    /**
+     * Infects all users within any degree of connection to the start user, shard by shard. Users that are already
+     * on the new site version are not traversed through. Infects the same users as the environment's totalInfection
+     * @param startUser the id of the first user to infect
+     * @param newSiteVersion
+     * @return the infected users, in id order
+     * @throws InterruptedException
+     * @throws ExecutionException if a shard failed
+     */
+    public RolloutResult totalInfection(int startUser, String newSiteVersion)
+            throws InterruptedException, ExecutionException {
+        short newVersion = load(newSiteVersion);
+        InfectionState state = testEnv.getState();
+        boolean[] infected = new boolean[graph.getNumUsers()];
+        if (state.getVersion(startUser) != newVersion) {
+            infected[startUser] = true;
+            //the coordinator tells every shard that holds the start user, then the shards spread it among themselves
+            for (Shard shard : shards) {
+                if (shard.localIds.get(startUser) >= 0) {
+                    shard.inbox.add(new int[]{startUser});
+                    numMessages++;
+                    numIdsSent++;
+                }
+            }
+            runSupersteps(Shard::spread);
+            for (Shard shard : shards) {
+                for (int i = 0; i < shard.reached.size(); i++) {
+                    infected[shard.globalIds[shard.reached.get(i)]] = true;
+                }
+            }
+        }
+        return finish(newSiteVersion, infected);
+    }
+
+    /**
+     * Infects a set of whole connected components whose size adds up as close to the target as possible, like the
+     * environment's WHOLE_COMPONENTS limited infection, and infects the same users. The components are found by the
+     * shards propagating the smallest user id of every component to all its members; the shards then report how many
+     * users every component would newly infect, the coordinator picks the components with SubsetSum, and every
+     * shard reports the users of the picked components it is the first shard of
+     * @param newSiteVersion
+     * @param targetPercentage
+     * @return the infected users, in id order
+     * @throws InterruptedException
+     * @throws ExecutionException if a shard failed
+     */
+    public RolloutResult limitedInfection(String newSiteVersion, float targetPercentage)
+            throws InterruptedException, ExecutionException {
+        short newVersion = load(newSiteVersion);
+        InfectionState state = testEnv.getState();
+        int numUsers = graph.getNumUsers();
+        boolean[] infected = new boolean[numUsers];
+        int needed = (int) Math.ceil((double) targetPercentage * numUsers) - state.getNumInfected();
+        if (needed <= 0) {
+            return finish(newSiteVersion, infected);
+        }
+        runSupersteps(Shard::propagateLabels);
+
+        //the gains of every component, indexed by its label, which is its smallest user id. Every shard reports a
+        //(label, gain) pair for every label of the users it is the first shard of
+        int[] gains = new int[numUsers];
+        int[] reportedBy = new int[numUsers];
+        Arrays.fill(reportedBy, -1);
+        for (Shard shard : shards) {
+            for (int l = 0; l < shard.globalIds.length; l++) {
+                if (shard.owned[l] && !shard.infected[l] && shard.versions[l] != newVersion) {
+                    int label = shard.labels[l];
+                    gains[label]++;
+                    if (reportedBy[label] != shard.id) {
+                        reportedBy[label] = shard.id;
+                        numIdsSent += 2;
+                    }
+                }
+            }
+            numMessages++;
+        }
+        for (int user : unshardedUsers) {
+            if (!state.isInfected(user) && state.getVersion(user) != newVersion) {
+                gains[user]++;
+            }
+        }
+        IntQueue labels = new IntQueue();
+        IntQueue weights = new IntQueue();
+        for (int label = 0; label < numUsers; label++) {
+            if (gains[label] > 0) {
+                labels.add(label);
+                weights.add(gains[label]);
+            }
+        }
+        boolean[] chosen = SubsetSum.select(weights.toArray(), needed,
+                (int) (testEnv.getTargetTolerance() * numUsers));
+        boolean[] chosenLabels = new boolean[numUsers];
+        int numChosen = 0;
+        for (int i = 0; i < chosen.length; i++) {
+            if (chosen[i]) {
+                chosenLabels[labels.get(i)] = true;
+                numChosen++;
+            }
+        }
+        //the picked labels go to every shard, which answers with the users it infects
+        for (Shard shard : shards) {
+            numMessages += 2;
+            numIdsSent += numChosen;
+            for (int l = 0; l < shard.globalIds.length; l++) {
+                if (shard.owned[l] && chosenLabels[shard.labels[l]] && shard.versions[l] != newVersion) {
+                    infected[shard.globalIds[l]] = true;
+                    numIdsSent++;
+                }
+            }
+        }
+        for (int user : unshardedUsers) {
+            if (chosenLabels[user] && state.getVersion(user) != newVersion) {
+                infected[user] = true;
+            }
+        }
+        return finish(newSiteVersion, infected);
+    }
+
+    /**
+     * Resets the counts of the last run, and loads the site versions and infected users of the environment into the
+     * shards
+     * @return the code of the new site version
+     */
+    private short load(String newSiteVersion) throws InterruptedException, ExecutionException {
+        numSupersteps = 0;
+        numMessages = 0;
+        numIdsSent = 0;
+        short newVersion = testEnv.internSiteVersion(newSiteVersion);
+        InfectionState state = testEnv.getState();
+        List<Callable<Void>> loads = new ArrayList<>();
+        for (Shard shard : shards) {
+            loads.add(() -> {
+                shard.load(state, newVersion, batchSize);
+                return null;
+            });
+        }
+        invokeAll(loads);
+        return newVersion;
+    }
+
+    /**
+     * Runs supersteps on all shards at once until a superstep sends nothing. The pool's invokeAll is the barrier
+     * between supersteps, so every shard sees all messages sent to it in the superstep before
+     */
+    private void runSupersteps(SuperstepTask task) throws InterruptedException, ExecutionException {
+        List<Callable<Void>> steps = new ArrayList<>();
+        for (Shard shard : shards) {
+            steps.add(() -> {
+                task.run(shard);
+                shard.flush();
+                return null;
+            });
+        }
+        boolean sent = true;
+        while (sent) {
+            numSupersteps++;
+            invokeAll(steps);
+            sent = false;
+            for (Shard shard : shards) {
+                //what was sent in this superstep is read in the next one
+                ConcurrentLinkedQueue<int[]> read = shard.inbox;
+                shard.inbox = shard.nextInbox;
+                shard.nextInbox = read;
+                sent |= !shard.inbox.isEmpty();
+                numMessages += shard.numMessagesSent;
+                numIdsSent += shard.numIdsSent;
+                shard.numMessagesSent = 0;
+                shard.numIdsSent = 0;
+            }
+        }
+    }
+
+    private void invokeAll(List<Callable<Void>> tasks) throws InterruptedException, ExecutionException {
+        for (Future<Void> result : pool.invokeAll(tasks)) {
+            result.get();
+        }
+    }
+
+    private RolloutResult finish(String newSiteVersion, boolean[] infected) {
+        IntQueue infectedUsers = new IntQueue();
+        for (int u = 0; u < infected.length; u++) {
+            if (infected[u]) {
+                infectedUsers.add(u);
+            }
+        }
+        return new RolloutResult(numRuns++, newSiteVersion, infectedUsers.toArray(), graph.getNumUsers());
+    }
+
+    /**
+     * @return the number of supersteps the last run took
+     */
+    public int getNumSupersteps() {
+        return numSupersteps;
+    }
+
+    /**
+     * @return the number of messages the last run sent, between shards and between the coordinator and the shards
+     */
+    public long getNumMessages() {
+        return numMessages;
+    }
+
+    /**
+     * @return the number of ints the last run sent. Frontier users are one int, and a component label update is
+     * two, the user and its label
+     */
+    public long getNumIdsSent() {
+        return numIdsSent;
+    }
+
+    /**
+     * Stops the worker threads
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private interface SuperstepTask {
+        void run(Shard shard);
+    }
+
+    /**
+     * Collects the users and classes of one shard, in id order
+     */
+    private class ShardBuilder {
+        private IntQueue globalIds = new IntQueue();
+        private IntQueue owned = new IntQueue(); //the local ids of the users this shard is the first shard of
+        private IntQueue remoteOffsets = new IntQueue();
+        private IntQueue remoteShards = new IntQueue();
+        private LongIntHashMap localIds = new LongIntHashMap(16);
+        private IntQueue classMemberOffsets = new IntQueue();
+        private IntQueue classMembers = new IntQueue();
+
+        private ShardBuilder() {
+            remoteOffsets.add(0);
+            classMemberOffsets.add(0);
+        }
+
+        /**
+         * @param user
+         * @param isOwner true if this is the first shard of the user
+         * @param userShards every shard that holds the user
+         * @param self this shard's index in userShards
+         */
+        private void addUser(int user, boolean isOwner, IntQueue userShards, int self) {
+            int local = globalIds.size();
+            localIds.putIfAbsent(user, local);
+            globalIds.add(user);
+            if (isOwner) {
+                owned.add(local);
+            }
+            for (int i = 0; i < userShards.size(); i++) {
+                if (i != self) {
+                    remoteShards.add(userShards.get(i));
+                }
+            }
+            remoteOffsets.add(remoteShards.size());
+        }
+
+        private void addClass(Graph graph, int classId) {
+            for (int i = graph.classMemberStart(classId); i < graph.classMemberEnd(classId); i++) {
+                classMembers.add(localIds.get(graph.classMemberAt(i)));
+            }
+            classMemberOffsets.add(classMembers.size());
+        }
+
+        private Shard build(int id) {
+            Graph local = Graph.fromMembers(globalIds.size(), classMemberOffsets.size() - 1,
+                    classMemberOffsets.toArray(), classMembers.toArray());
+            boolean[] isOwned = new boolean[globalIds.size()];
+            for (int i = 0; i < owned.size(); i++) {
+                isOwned[owned.get(i)] = true;
+            }
+            return new Shard(id, local, globalIds.toArray(), localIds, isOwned, remoteOffsets.toArray(),
+                    remoteShards.toArray());
+        }
+    }
+
+    /**
+     * One worker's part of the graph, and its part of a run
+     */
+    private class Shard {
+        private final int id;
+        private final Graph graph; //the shard's classes, over local user ids
+        private final int[] globalIds; //the environment's id of every local user
+        private final LongIntHashMap localIds; //the local id of every user in the shard, by the environment's id
+        private final boolean[] owned; //true for the users this is the first shard of
+        private final int[] remoteOffsets; //remoteShards[remoteOffsets[l] .. remoteOffsets[l+1]) hold local user l too
+        private final int[] remoteShards;
+        private ConcurrentLinkedQueue<int[]> inbox; //the messages sent to this shard in the last superstep
+        private ConcurrentLinkedQueue<int[]> nextInbox; //the messages sent to this shard in this superstep
+        private final IntQueue[] outboxes; //the ints waiting to be sent to every shard
+        private int batchSize;
+        private long numMessagesSent; //in this superstep
+        private long numIdsSent;
+        //the run
+        private short newVersion;
+        private short[] versions; //the site version code of every local user
+        private boolean[] infected; //true for the local users that were infected before the run
+        private boolean[] seen; //true for the local users the total infection reached
+        private boolean[] classVisited; //true for the local classes the total infection scanned
+        private IntQueue reached; //the local users the total infection reached, in order
+        private int[] labels; //the smallest user id known to be in every local user's component
+        private boolean labelsStarted; //false until the first superstep of a label propagation
+
+        private Shard(int id, Graph graph, int[] globalIds, LongIntHashMap localIds, boolean[] owned,
+                      int[] remoteOffsets, int[] remoteShards) {
+            this.id = id;
+            this.graph = graph;
+            this.globalIds = globalIds;
+            this.localIds = localIds;
+            this.owned = owned;
+            this.remoteOffsets = remoteOffsets;
+            this.remoteShards = remoteShards;
+            this.inbox = new ConcurrentLinkedQueue<>();
+            this.nextInbox = new ConcurrentLinkedQueue<>();
+            this.outboxes = new IntQueue[partition.getNumShards()];
+            for (int s = 0; s < outboxes.length; s++) {
+                outboxes[s] = new IntQueue();
+            }
+        }
+
+        private void load(InfectionState state, short newVersion, int batchSize) {
+            this.newVersion = newVersion;
+            this.batchSize = batchSize;
+            versions = new short[globalIds.length];
+            infected = new boolean[globalIds.length];
+            for (int l = 0; l < globalIds.length; l++) {
+                versions[l] = state.getVersion(globalIds[l]);
+                infected[l] = state.isInfected(globalIds[l]);
+            }
+            seen = new boolean[globalIds.length];
+            classVisited = new boolean[graph.getNumClasses()];
+            reached = new IntQueue();
+            labels = null;
+            labelsStarted = false;
+            inbox.clear();
+            nextInbox.clear();
+        }
+
+        /**
+         * Takes the users sent to this shard and spreads through the shard's classes until it runs out of users.
+         * Every newly reached user is sent to the other shards that hold it. A user sent here is not sent on, its
+         * sender sent it to all of its shards
+         */
+        private void spread() {
+            IntQueue toExpand = new IntQueue();
+            for (int[] message = inbox.poll(); message != null; message = inbox.poll()) {
+                for (int user : message) {
+                    int local = localIds.get(user);
+                    if (!seen[local] && versions[local] != newVersion) {
+                        seen[local] = true;
+                        reached.add(local);
+                        toExpand.add(local);
+                    }
+                }
+            }
+            while (!toExpand.isEmpty()) {
+                int user = toExpand.poll();
+                for (int i = graph.userClassStart(user); i < graph.userClassEnd(user); i++) {
+                    int classId = graph.userClassAt(i);
+                    if (classVisited[classId]) {
+                        continue;
+                    }
+                    classVisited[classId] = true;
+                    for (int j = graph.classMemberStart(classId); j < graph.classMemberEnd(classId); j++) {
+                        int member = graph.classMemberAt(j);
+                        if (!seen[member] && versions[member] != newVersion) {
+                            seen[member] = true;
+                            reached.add(member);
+                            toExpand.add(member);
+                            for (int r = remoteOffsets[member]; r < remoteOffsets[member + 1]; r++) {
+                                send(remoteShards[r], globalIds[member]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Lowers the labels of the users sent to this shard, and lowers every label in the shard's classes to the
+         * smallest one in the class until nothing changes. The users whose labels went down are sent to the other
+         * shards that hold them, with their new label
+         */
+        private void propagateLabels() {
+            IntQueue dirtyClasses = new IntQueue();
+            boolean[] isDirty = new boolean[graph.getNumClasses()];
+            if (!labelsStarted) {
+                labelsStarted = true;
+                labels = globalIds.clone();
+                for (int c = 0; c < graph.getNumClasses(); c++) {
+                    isDirty[c] = true;
+                    dirtyClasses.add(c);
+                }
+            }
+            for (int[] message = inbox.poll(); message != null; message = inbox.poll()) {
+                for (int i = 0; i < message.length; i += 2) {
+                    int local = localIds.get(message[i]);
+                    if (message[i + 1] < labels[local]) {
+                        labels[local] = message[i + 1];
+                        markDirty(local, dirtyClasses, isDirty);
+                    }
+                }
+            }
+            IntQueue changed = new IntQueue();
+            boolean[] isChanged = new boolean[globalIds.length];
+            while (!dirtyClasses.isEmpty()) {
+                int classId = dirtyClasses.poll();
+                isDirty[classId] = false;
+                int smallest = Integer.MAX_VALUE;
+                for (int i = graph.classMemberStart(classId); i < graph.classMemberEnd(classId); i++) {
+                    smallest = Math.min(smallest, labels[graph.classMemberAt(i)]);
+                }
+                for (int i = graph.classMemberStart(classId); i < graph.classMemberEnd(classId); i++) {
+                    int member = graph.classMemberAt(i);
+                    if (labels[member] > smallest) {
+                        labels[member] = smallest;
+                        markDirty(member, dirtyClasses, isDirty);
+                        if (!isChanged[member] && remoteOffsets[member] < remoteOffsets[member + 1]) {
+                            isChanged[member] = true;
+                            changed.add(member);
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < changed.size(); i++) {
+                int user = changed.get(i);
+                for (int r = remoteOffsets[user]; r < remoteOffsets[user + 1]; r++) {
+                    send(remoteShards[r], globalIds[user], labels[user]);
+                }
+            }
+        }
+
+        private void markDirty(int user, IntQueue dirtyClasses, boolean[] isDirty) {
+            for (int i = graph.userClassStart(user); i < graph.userClassEnd(user); i++) {
+                int classId = graph.userClassAt(i);
+                if (!isDirty[classId]) {
+                    isDirty[classId] = true;
+                    dirtyClasses.add(classId);
+                }
+            }
+        }
+
+        private void send(int shard, int user) {
+            outboxes[shard].add(user);
+            if (outboxes[shard].size() >= batchSize) {
+                sendBatch(shard);
+            }
+        }
+
+        /**
+         * Sends a user and its label, which always go in the same batch
+         */
+        private void send(int shard, int user, int label) {
+            outboxes[shard].add(user);
+            outboxes[shard].add(label);
+            if (outboxes[shard].size() >= batchSize) {
+                sendBatch(shard);
+            }
+        }
+
+        private void sendBatch(int shard) {
+            IntQueue outbox = outboxes[shard];
+            shards[shard].nextInbox.add(outbox.toArray());
+            numMessagesSent++;
+            numIdsSent += outbox.size();
+            outbox.clear();
+        }
+
+        /**
+         * Sends what is left in the outboxes, at the end of a superstep
+         */
+        private void flush() {
+            for (int s = 0; s < outboxes.length; s++) {
+                if (!outboxes[s].isEmpty()) {
+                    sendBatch(s);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.nio.file.Path;
+
+/**
+ * The site version of every user at one point in time, taken from a TestEnvironment or read from a snapshot file.
+ * Two snapshots can be diffed to list the users whose site version differs between them. Users are identified by
+ * their ids, so snapshots are only comparable when they are of the same environment, or of one saved by it.
+ */
+public class SiteVersionSnapshot {
+
+    private final short[] versionCodes; //the site version code of every user, indexed by user id
+    private final String[] siteVersions; //the site version of every code, indexed by code
+
+    public SiteVersionSnapshot(short[] versionCodes, String[] siteVersions) {
+        this.versionCodes = versionCodes;
+        this.siteVersions = siteVersions;
+    }
+
+    /**
+     * Reads the site versions out of a file written by TestEnvironment.saveSnapshot, without creating the User and
+     * Class objects of the environment
+     * @param file
+     * @return the snapshot
+     * @throws IOException if the file can't be read, or fails its checksum
+     */
+    public static SiteVersionSnapshot read(Path file) throws IOException {
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(file)) {
+            reader.readString();
+            String[] siteVersions = new String[reader.readInt()];
+            for (int code = 0; code < siteVersions.length; code++) {
+                siteVersions[code] = reader.readString();
+            }
+            //the graph comes first, mapping it only skips over it
+            Graph.readFrom(reader);
+            short[] versionCodes = new short[reader.readInt()];
+            ShortBuffer saved = reader.mapShorts(versionCodes.length);
+            saved.get(versionCodes);
+            return new SiteVersionSnapshot(versionCodes, siteVersions);
+        }
+    }
+
+    public int getNumUsers() {
+        return versionCodes.length;
+    }
+
+    public String getSiteVersion(int user) {
+        return siteVersions[versionCodes[user]];
+    }
+
+    /**
+     * Compares the snapshots user by user. Codes are translated through the site version names once, so the
+     * snapshots may have interned their site versions in different orders
+     * @param other
+     * @return the ids of the users whose site version differs, in id order. Users that are in only one of the
+     * snapshots differ
+     */
+    public int[] diff(SiteVersionSnapshot other) {
+        //the code of every one of the other snapshot's site versions in this one, -1 if this one doesn't have it
+        short[] translated = new short[other.siteVersions.length];
+        for (int otherCode = 0; otherCode < translated.length; otherCode++) {
+            translated[otherCode] = -1;
+            for (int code = 0; code < siteVersions.length; code++) {
+                if (siteVersions[code].equals(other.siteVersions[otherCode])) {
+                    translated[otherCode] = (short) code;
+                    break;
+                }
+            }
+        }
+        int numShared = Math.min(versionCodes.length, other.versionCodes.length);
+        IntQueue differing = new IntQueue();
+        for (int u = 0; u < numShared; u++) {
+            if (versionCodes[u] != translated[other.versionCodes[u]]) {
+                differing.add(u);
+            }
+        }
+        for (int u = numShared; u < Math.max(versionCodes.length, other.versionCodes.length); u++) {
+            differing.add(u);
+        }
+        return differing.toArray();
+    }
+}
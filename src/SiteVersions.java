@@ -0,0 +1,43 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Interns site version strings to small integer codes, so a user's site version can be stored as a short
+ * and compared with == instead of String.equals
+ */
+public class SiteVersions {
+
+    private HashMap<String, Short> codes; //the code of every site version seen so far
+    private List<String> versions; //the site version of every code, indexed by code
+
+    public SiteVersions() {
+        this.codes = new HashMap<>();
+        this.versions = new ArrayList<>();
+    }
+
+    /**
+     * @param siteVersion
+     * @return the code of the site version, handing out a new one if it hasn't been seen before
+     */
+    public short intern(String siteVersion) {
+        Short code = codes.get(siteVersion);
+        if (code == null) {
+            if (versions.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("Too many site versions: " + versions.size());
+            }
+            code = (short) versions.size();
+            codes.put(siteVersion, code);
+            versions.add(siteVersion);
+        }
+        return code;
+    }
+
+    public String getSiteVersion(short code) {
+        return versions.get(code);
+    }
+
+    public int size() {
+        return versions.size();
+    }
+}
@@ -0,0 +1,281 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The on disk format of TestEnvironment snapshots: a header of MAGIC and VERSION as ints and the CRC32 of the rest
+ * of the file as a long, followed by a sequence of int and long scalars, strings and primitive array sections.
+ * Everything is little endian, the native order of common hardware, and every array section starts at a multiple
+ * of 8 bytes, so the reader can hand out memory mapped sections that are used in place, without copying.
+ * The reader verifies the checksum of the whole file before anything is read.
+ *
+ * Sections are read and written in the same order; what they hold is up to TestEnvironment, Graph and
+ * InfectionState. A single section can't be larger than 2GB, the most a mapped buffer can hold.
+ */
+public class SnapshotFile {
+
+    public static final int MAGIC = 0x54454E56; //"TENV"
+    public static final int VERSION = 2;
+    private static final int HEADER_SIZE = 16;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_WINDOW_SIZE = 1 << 30; //the most bytes mapped at once while checksumming
+
+    /**
+     * Writes a snapshot file sequentially, through one small buffer, checksumming everything it writes
+     */
+    public static class Writer implements Closeable {
+        private FileChannel channel;
+        private ByteBuffer buffer;
+        private CRC32 crc;
+        private long position; //the number of bytes written after the header
+
+        public Writer(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            this.crc = new CRC32();
+            this.position = 0;
+            channel.position(HEADER_SIZE);
+        }
+
+        public void writeInt(int value) throws IOException {
+            ensureRoom(4);
+            buffer.putInt(value);
+            position += 4;
+        }
+
+        public void writeLong(long value) throws IOException {
+            ensureRoom(8);
+            buffer.putLong(value);
+            position += 8;
+        }
+
+        public void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(bytes.length);
+            writeBytes(bytes, 0, bytes.length);
+        }
+
+        public void writeBytes(byte[] values, int from, int to) throws IOException {
+            while (from < to) {
+                ensureRoom(1);
+                int count = Math.min(to - from, buffer.remaining());
+                buffer.put(values, from, count);
+                from += count;
+                position += count;
+            }
+        }
+
+        /**
+         * Writes the values from the current position to the limit of the source, as an array section
+         */
+        public void writeInts(IntBuffer values) throws IOException {
+            align();
+            IntBuffer source = values.duplicate();
+            while (source.hasRemaining()) {
+                ensureRoom(4);
+                int count = Math.min(source.remaining(), buffer.remaining() >> 2);
+                IntBuffer slice = source.slice();
+                slice.limit(count);
+                buffer.asIntBuffer().put(slice);
+                buffer.position(buffer.position() + (count << 2));
+                source.position(source.position() + count);
+                position += (long) count << 2;
+            }
+        }
+
+        public void writeLongs(LongBuffer values) throws IOException {
+            align();
+            LongBuffer source = values.duplicate();
+            while (source.hasRemaining()) {
+                ensureRoom(8);
+                int count = Math.min(source.remaining(), buffer.remaining() >> 3);
+                LongBuffer slice = source.slice();
+                slice.limit(count);
+                buffer.asLongBuffer().put(slice);
+                buffer.position(buffer.position() + (count << 3));
+                source.position(source.position() + count);
+                position += (long) count << 3;
+            }
+        }
+
+        public void writeShorts(ShortBuffer values) throws IOException {
+            align();
+            ShortBuffer source = values.duplicate();
+            while (source.hasRemaining()) {
+                ensureRoom(2);
+                int count = Math.min(source.remaining(), buffer.remaining() >> 1);
+                ShortBuffer slice = source.slice();
+                slice.limit(count);
+                buffer.asShortBuffer().put(slice);
+                buffer.position(buffer.position() + (count << 1));
+                source.position(source.position() + count);
+                position += (long) count << 1;
+            }
+        }
+
+        /**
+         * Pads with zeros up to the next multiple of 8 bytes
+         */
+        private void align() throws IOException {
+            while ((position & 7) != 0) {
+                ensureRoom(1);
+                buffer.put((byte) 0);
+                position++;
+            }
+        }
+
+        private void ensureRoom(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Flushes the rest of the file, then writes the header with the checksum
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putLong(crc.getValue());
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot file sequentially. Array sections are memory mapped read only, and stay valid after the
+     * reader is closed, for as long as they are referenced
+     */
+    public static class Reader implements Closeable {
+        private FileChannel channel;
+        private long position; //the file position of the next read
+
+        /**
+         * Opens the file and verifies its header and checksum
+         * @param file
+         * @throws IOException if the file can't be read, isn't a snapshot of this version or is corrupt
+         */
+        public Reader(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                if (size < HEADER_SIZE) {
+                    throw new IOException("Not a snapshot file, only " + size + " bytes");
+                }
+                ByteBuffer header = map(0, HEADER_SIZE);
+                if (header.getInt() != MAGIC) {
+                    throw new IOException("Not a snapshot file");
+                }
+                int version = header.getInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported snapshot version " + version);
+                }
+                long checksum = header.getLong();
+                CRC32 crc = new CRC32();
+                for (long from = HEADER_SIZE; from < size; from += MAX_WINDOW_SIZE) {
+                    crc.update(map(from, Math.min(MAX_WINDOW_SIZE, size - from)));
+                }
+                if (crc.getValue() != checksum) {
+                    throw new IOException("Snapshot checksum mismatch, the file is corrupt");
+                }
+                this.position = HEADER_SIZE;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public int readInt() throws IOException {
+            int value = map(position, 4).getInt();
+            position += 4;
+            return value;
+        }
+
+        public long readLong() throws IOException {
+            long value = map(position, 8).getLong();
+            position += 8;
+            return value;
+        }
+
+        public String readString() throws IOException {
+            int length = readInt();
+            ByteBuffer bytes = map(position, length);
+            position += length;
+            return StandardCharsets.UTF_8.decode(bytes).toString();
+        }
+
+        /**
+         * @param length
+         * @return the next length bytes, mapped
+         */
+        public ByteBuffer mapBytes(int length) throws IOException {
+            ByteBuffer bytes = map(position, length);
+            position += length;
+            return bytes;
+        }
+
+        public IntBuffer mapInts(int count) throws IOException {
+            return mapSection(count, 4).asIntBuffer();
+        }
+
+        public LongBuffer mapLongs(int count) throws IOException {
+            return mapSection(count, 8).asLongBuffer();
+        }
+
+        public ShortBuffer mapShorts(int count) throws IOException {
+            return mapSection(count, 2).asShortBuffer();
+        }
+
+        private ByteBuffer mapSection(int count, int width) throws IOException {
+            position = (position + 7) & ~7L;
+            long length = (long) count * width;
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot section of " + length + " bytes is too large to map");
+            }
+            ByteBuffer section = map(position, length);
+            position += length;
+            return section;
+        }
+
+        private ByteBuffer map(long from, long length) throws IOException {
+            if (from + length > channel.size()) {
+                throw new IOException("Snapshot file is truncated");
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            return mapped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,102 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Where a TestEnvironment keeps its graph snapshot, infection state and component index
+ */
+public enum StorageMode {
+    /**
+     * In arrays on the Java heap
+     */
+    HEAP,
+    /**
+     * In direct buffers, outside of the Java heap, so the garbage collector never scans or copies them. Direct
+     * memory is bounded by -XX:MaxDirectMemorySize, which defaults to the maximum heap size, so a small heap with a
+     * large graph needs it raised. A single buffer can't hold more than 2GB, as with memory mapped snapshots.
+     * The graph with its connected class index, the infection state with its per class counts, and the component
+     * index go off the heap; the scratch arrays of a single run, such as its visited classes, don't. Runs write
+     * their counts back to the Class objects without pushing them to the connected Class objects, so bulk loaded
+     * classes don't build connected class sets on the heap.
+     * The User and Class objects themselves, and the maps from them to their ids, are the environment's public
+     * model and stay on the heap, so the heap still grows by a hundred bytes or more a user: a 100M user
+     * environment does not fit a 1GB heap in either mode
+     */
+    OFF_HEAP;
+
+    public IntBuffer allocateInts(int size) {
+        if (this == HEAP) {
+            return IntBuffer.allocate(size);
+        }
+        return allocateDirect((long) size * Integer.BYTES).asIntBuffer();
+    }
+
+    public LongBuffer allocateLongs(int size) {
+        if (this == HEAP) {
+            return LongBuffer.allocate(size);
+        }
+        return allocateDirect((long) size * Long.BYTES).asLongBuffer();
+    }
+
+    public ShortBuffer allocateShorts(int size) {
+        if (this == HEAP) {
+            return ShortBuffer.allocate(size);
+        }
+        return allocateDirect((long) size * Short.BYTES).asShortBuffer();
+    }
+
+    private static ByteBuffer allocateDirect(long numBytes) {
+        if (numBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A buffer of " + numBytes + " bytes is too large");
+        }
+        return ByteBuffer.allocateDirect((int) numBytes).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @param buffer
+     * @return a copy of the buffer's contents, from its position to its limit, allocated in this mode
+     */
+    public IntBuffer copyOf(IntBuffer buffer) {
+        IntBuffer copy = allocateInts(buffer.remaining());
+        copy.put(buffer.duplicate()).flip();
+        return copy;
+    }
+
+    public LongBuffer copyOf(LongBuffer buffer) {
+        LongBuffer copy = allocateLongs(buffer.remaining());
+        copy.put(buffer.duplicate()).flip();
+        return copy;
+    }
+
+    /**
+     * @param buffer
+     * @param size
+     * @return a buffer of the given size allocated in this mode, starting with the buffer's contents from index 0,
+     * truncated or padded with zeroes, like Arrays.copyOf
+     */
+    public IntBuffer copyOf(IntBuffer buffer, int size) {
+        IntBuffer copy = allocateInts(size);
+        IntBuffer from = buffer.duplicate();
+        from.position(0).limit(Math.min(size, buffer.capacity()));
+        copy.put(from).clear();
+        return copy;
+    }
+
+    public ShortBuffer copyOf(ShortBuffer buffer, int size) {
+        ShortBuffer copy = allocateShorts(size);
+        ShortBuffer from = buffer.duplicate();
+        from.position(0).limit(Math.min(size, buffer.capacity()));
+        copy.put(from).clear();
+        return copy;
+    }
+
+    public LongBuffer copyOf(LongBuffer buffer, int size) {
+        LongBuffer copy = allocateLongs(size);
+        LongBuffer from = buffer.duplicate();
+        from.position(0).limit(Math.min(size, buffer.capacity()));
+        copy.put(from).clear();
+        return copy;
+    }
+}
@@ -0,0 +1,140 @@
+import java.util.Arrays;
+
+/**
+ * Picks a subset of positive weights whose sum is as close as possible to a target, which is how a whole component
+ * limited infection picks the components to infect.
+ *
+ * Equal weights are grouped and every group is split into bundles of 1, 2, 4... items, so any number of items of
+ * a weight can be made of bundles, and the bitset dynamic program over the reachable sums runs once per bundle
+ * instead of once per item: O(d log n) shift-ors of (target + tolerance) / 64 words for d distinct weights.
+ * Every reachable sum remembers the bundle that first reached it, which is enough to rebuild the subset.
+ * Component sizes are dominated by a few small sizes, so d stays small; when the program would still take more than
+ * MAX_DP_WORK word operations, or target + tolerance is above MAX_DP_CAPACITY, a greedy pass, largest weights first,
+ * is used instead.
+ */
+public class SubsetSum {
+
+    public static final long MAX_DP_WORK = 1L << 28; //the most word operations the dynamic program may take
+    public static final int MAX_DP_CAPACITY = 1 << 25; //the largest target + tolerance the dynamic program is used for
+
+    /**
+     * @param weights the positive weight of every item
+     * @param target
+     * @param tolerance how far above the target the sum may go. Sums below the target are always allowed
+     * @return which items to take. The sum is the one closest to the target, preferring sums below it on ties,
+     * unless the greedy pass was used, whose sum is at most target + tolerance
+     */
+    public static boolean[] select(int[] weights, int target, int tolerance) {
+        boolean[] chosen = new boolean[weights.length];
+        long totalWeight = 0;
+        for (int weight : weights) {
+            totalWeight += weight;
+        }
+        int capacity = (int) Math.min(totalWeight, Math.min(Integer.MAX_VALUE - 64, (long) target + tolerance));
+        if (capacity <= 0) {
+            return chosen;
+        }
+        //the items sorted by weight, packed as weight << 32 | index
+        long[] items = new long[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            items[i] = (long) weights[i] << 32 | i;
+        }
+        Arrays.sort(items);
+
+        //bundles of consecutive items of the same weight
+        int[] bundleFrom = new int[64];
+        int[] bundleCount = new int[64];
+        int numBundles = 0;
+        for (int from = 0; from < items.length; ) {
+            int weight = (int) (items[from] >>> 32);
+            int to = from;
+            while (to < items.length && (int) (items[to] >>> 32) == weight) {
+                to++;
+            }
+            //no more items of this weight than fit under the capacity are ever taken
+            int end = from + Math.min(to - from, capacity / weight);
+            for (int size = 1; from < end; size <<= 1) {
+                int count = Math.min(size, end - from);
+                if (numBundles == bundleFrom.length) {
+                    bundleFrom = Arrays.copyOf(bundleFrom, numBundles * 2);
+                    bundleCount = Arrays.copyOf(bundleCount, numBundles * 2);
+                }
+                bundleFrom[numBundles] = from;
+                bundleCount[numBundles++] = count;
+                from += count;
+            }
+            from = to;
+        }
+
+        int numWords = (capacity >>> 6) + 1;
+        if (capacity > MAX_DP_CAPACITY || (long) numBundles * numWords > MAX_DP_WORK) {
+            selectGreedily(items, capacity, chosen);
+            return chosen;
+        }
+
+        long[] reachable = new long[numWords]; //bit s is set when some subset of the bundles so far sums to s
+        int[] firstBundle = new int[capacity + 1]; //the bundle that first made every reachable sum reachable
+        reachable[0] = 1L;
+        long lastWordMask = -1L >>> (63 - (capacity & 63));
+        for (int b = 0; b < numBundles; b++) {
+            int shift = (int) (items[bundleFrom[b]] >>> 32) * bundleCount[b];
+            int wordShift = shift >>> 6;
+            int bitShift = shift & 63;
+            //from the top down, so every word is shifted in before it is updated
+            for (int w = numWords - 1; w >= wordShift; w--) {
+                long shifted = reachable[w - wordShift] << bitShift;
+                if (bitShift != 0 && w - wordShift > 0) {
+                    shifted |= reachable[w - wordShift - 1] >>> (64 - bitShift);
+                }
+                if (w == numWords - 1) {
+                    shifted &= lastWordMask;
+                }
+                long added = shifted & ~reachable[w];
+                reachable[w] |= added;
+                while (added != 0) {
+                    firstBundle[(w << 6) + Long.numberOfTrailingZeros(added)] = b;
+                    added &= added - 1;
+                }
+            }
+        }
+
+        //the reachable sum closest to the target, below it first
+        int sum = 0;
+        for (int distance = 0; ; distance++) {
+            if (target - distance >= 0 && target - distance <= capacity && isSet(reachable, target - distance)) {
+                sum = target - distance;
+                break;
+            }
+            if (target + distance <= capacity && isSet(reachable, target + distance)) {
+                sum = target + distance;
+                break;
+            }
+        }
+        while (sum > 0) {
+            int b = firstBundle[sum];
+            for (int i = bundleFrom[b]; i < bundleFrom[b] + bundleCount[b]; i++) {
+                chosen[(int) items[i]] = true;
+                sum -= (int) (items[i] >>> 32);
+            }
+        }
+        return chosen;
+    }
+
+    private static boolean isSet(long[] bits, int index) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Takes the items from the largest weight down, whenever they still fit under the capacity
+     */
+    private static void selectGreedily(long[] sortedItems, int capacity, boolean[] chosen) {
+        long sum = 0;
+        for (int i = sortedItems.length - 1; i >= 0 && sum < capacity; i--) {
+            int weight = (int) (sortedItems[i] >>> 32);
+            if (sum + weight <= capacity) {
+                sum += weight;
+                chosen[(int) sortedItems[i]] = true;
+            }
+        }
+    }
+}
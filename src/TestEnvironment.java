@@ -1,51 +1,311 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Queue;
-import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * This is the environment which holds all the information for testing a new feature to the website,
  * such as all registered users, classes, ect.
  * It also has the two main testing methods: total infection and limited infection
+ *
+ * Users and classes are registered through the object model (addClass, Class.enrollStudent, ...), but the
+ * infection algorithms run on a primitive Graph snapshot of it, which is rebuilt only when the enrollments change.
+ * The results are written back to the User and Class objects once a run is done.
+ * The environment and its objects belong to one thread; other threads enroll users through the EnrollmentStream.
  */
-public class TestEnvironment {
+public class TestEnvironment implements EnrollmentListener {
 
-    private HashSet<User> allUsersSet; //A set of all the users in the system
+    private HashMap<User, Integer> userIds; //maps every user in the system to its id, which is its index in allUsersList
     private List<User> allUsersList; //A list of all the users in the system (needed to get access to ordered user)
+    private HashMap<Class, Integer> classIds; //maps every class in the system to its id, which is its index in allClasses
     private List<Class> allClasses; //A list of all classes registered in the system
-    private HashSet<User> infectedUsers; //A list of all users that have been infected in the system
+    private ComponentIndex components; //groups the users into connected components as they are enrolled
+    private boolean componentsStale; //true when an unenrollment may have split a component, so the index must be rebuilt
+    private int modCount; //incremented on every change to the classes or enrollments
+    private Graph graph; //snapshot of the enrollment graph
+    private int graphModCount; //the modCount the graph snapshot was built at
+    private SiteVersions siteVersions; //interns every site version seen to a short code
+    private InfectionState state; //the infected users, their site version codes and the per class infection counts
     private String baseSiteVersion; //The site version that every user starts with prior to infection
     private boolean debug; //a test variable to help with developer testing
     private float delta; //this delta determines an acceptable range around the target percentage of the population that we want to hit
     private float affectedThresholdFactor; //this factor is intended to be * with total population, get to the max amount of affected people we will tolerate
-    private int sizeLimit; //this is the max number of classes per "connected" calculation that we do. this factor is here for performance reasons
-    private int numRetries; //this is the max number of retries we do when picking a random user while the queue is empty
+    private int sizeLimit; //this is the max number of connected classes a starting class may have, unless no other class will do
+    private float targetTolerance; //how far past the target percentage a whole component limited infection may go
+    private ForkJoinPool pool; //the pool parallel traversals run on
+    private SplittableRandom random; //the source of every random pick, so a seeded environment is reproducible
+    private InfectionMetrics metrics; //what the infection runs did, null unless metrics are enabled
+    private InfectionListener listener; //streamed the infections of every run, null if there is none
+    private int listenerBatchSize; //the most users in a batch delivered to the listener
+    private RunControl runControl; //bounds every run, null if runs are unbounded
+    private InfectionCheckpoint checkpoint; //where the last run stopped if it went over the run control's bounds
+    private StorageMode storageMode; //where the graph snapshot and the per user infection state are kept
+    private ArrayDeque<InfectionUndoLog> undoLogs; //what the last runs changed, the most recent last
+    private int undoHistory; //the most runs that can be rolled back
+    private InfectionUndoLog runLog; //what the run in progress changed, null outside of runs
+    private EnrollmentStream enrollmentStream; //enrollments made from other threads, applied when the graph is next needed
+    private boolean infectOnArrival; //whether users streamed into a completely infected class are infected too
 
     public TestEnvironment(String baseSiteVersion, boolean debug) {
+        this(baseSiteVersion, debug, new SplittableRandom());
+    }
+
+    /**
+     * Creates an environment whose random picks are reproducible: the same seed and the same classes, added in the
+     * same order, give the same infected users
+     * @param baseSiteVersion
+     * @param debug
+     * @param seed
+     */
+    public TestEnvironment(String baseSiteVersion, boolean debug, long seed) {
+        this(baseSiteVersion, debug, new SplittableRandom(seed));
+    }
+
+    private TestEnvironment(String baseSiteVersion, boolean debug, SplittableRandom random) {
+        this.random = random;
         this.baseSiteVersion = baseSiteVersion;
         this.allClasses = new ArrayList<>();
-        this.allUsersSet = new HashSet<>();
+        this.classIds = new HashMap<>();
+        this.userIds = new HashMap<>();
         this.allUsersList = new ArrayList<>();
+        this.components = new ComponentIndex();
+        this.componentsStale = false;
+        this.modCount = 0;
+        this.graphModCount = -1;
         this.debug = debug;
-        this.infectedUsers = new HashSet<>();
+        this.siteVersions = new SiteVersions();
+        this.siteVersions.intern(baseSiteVersion);
+        this.state = new InfectionState();
         //the following are default values, and can of course be tweaked
         this.delta = 0.05f;
         this.affectedThresholdFactor = 0.005f;
         this.sizeLimit = 10000;
-        this.numRetries = 10;
+        this.targetTolerance = 0f;
+        this.pool = ForkJoinPool.commonPool();
+        this.metrics = null;
+        this.listener = null;
+        this.listenerBatchSize = 0;
+        this.runControl = null;
+        this.checkpoint = null;
+        this.storageMode = StorageMode.HEAP;
+        this.undoLogs = new ArrayDeque<>();
+        this.undoHistory = 1;
+        this.runLog = null;
+        this.enrollmentStream = new EnrollmentStream();
+        this.infectOnArrival = false;
     }
 
     public void addClass(Class classToAdd) {
+        if (classIds.containsKey(classToAdd)) {
+            return;
+        }
+        classIds.put(classToAdd, allClasses.size());
         allClasses.add(classToAdd);
         for (User student : classToAdd.getStudents()) {
-            if (allUsersSet.add(student)) {
-                allUsersList.add(student);
+            addUser(student);
+        }
+        addUser(classToAdd.getTeacher());
+        int teacher = userIds.get(classToAdd.getTeacher());
+        for (User student : classToAdd.getStudents()) {
+            components.union(teacher, userIds.get(student));
+        }
+        classToAdd.addEnrollmentListener(this);
+        modCount++;
+    }
+
+    /**
+     * Adds every user and class read by the loader in one pass over its arrays. Users are new User objects named
+     * by their id in the loaded files, and classes are linked to them in bulk (see Class.fromEnrollments).
+     * If the environment was empty, the loader's graph is used as the snapshot as is
+     * @param loader
+     * @throws IOException if a loaded class has no teacher
+     */
+    public void addEnrollments(EnrollmentLoader loader) throws IOException {
+        Graph loaded = loader.buildGraph();
+        List<User> users = new ArrayList<>(loaded.getNumUsers());
+        for (int u = 0; u < loaded.getNumUsers(); u++) {
+            users.add(new User(Long.toString(loader.getUserKey(u)), baseSiteVersion));
+        }
+        addGraph(loaded, users, false);
+    }
+
+    /**
+     * Adds the users and classes of a graph built outside of the environment. If the environment was empty,
+     * the graph is used as the snapshot as is
+     * @param loaded
+     * @param users the users of the graph, in id order
+     * @param stateLoaded true if the state was read along with the graph, so its counts are used as they are
+     */
+    private void addGraph(Graph loaded, List<User> users, boolean stateLoaded) {
+        boolean wasEmpty = allUsersList.isEmpty() && allClasses.isEmpty();
+        int firstUser = allUsersList.size();
+        for (int u = 0; u < loaded.getNumUsers(); u++) {
+            userIds.put(users.get(u), firstUser + u);
+            allUsersList.add(users.get(u));
+            components.addUser();
+        }
+        for (int c = 0; c < loaded.getNumClasses(); c++) {
+            int teacher = firstUser + loaded.getTeacher(c);
+            ArrayList<User> students = new ArrayList<>(loaded.getNumStudents(c));
+            for (int i = loaded.classMemberStart(c) + 1; i < loaded.classMemberEnd(c); i++) {
+                students.add(allUsersList.get(firstUser + loaded.classMemberAt(i)));
+                components.union(teacher, firstUser + loaded.classMemberAt(i));
+            }
+            Class classroom = Class.fromEnrollments(allUsersList.get(teacher), students);
+            classIds.put(classroom, allClasses.size());
+            allClasses.add(classroom);
+            classroom.addEnrollmentListener(this);
+        }
+        modCount++;
+        if (wasEmpty) {
+            graph = storageMode == StorageMode.HEAP ? loaded : loaded.copyTo(storageMode);
+            graphModCount = modCount;
+            if (!stateLoaded) {
+                state.resize(graph);
             }
         }
-        if (allUsersSet.add(classToAdd.getTeacher())) {
-            allUsersList.add(classToAdd.getTeacher());
+    }
+
+    /**
+     * Saves the graph snapshot, the infection state, every user's name and every class's infection count to a
+     * file that loadSnapshot can map back in. The settings and the random generator are not saved
+     * @param file
+     * @throws IOException
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        Graph graph = getGraph();
+        try (SnapshotFile.Writer writer = new SnapshotFile.Writer(file)) {
+            writer.writeString(baseSiteVersion);
+            writer.writeInt(siteVersions.size());
+            for (int code = 0; code < siteVersions.size(); code++) {
+                writer.writeString(siteVersions.getSiteVersion((short) code));
+            }
+            graph.writeTo(writer);
+            state.writeTo(graph, writer);
+            int[] classInfected = new int[allClasses.size()];
+            for (int c = 0; c < classInfected.length; c++) {
+                classInfected[c] = allClasses.get(c).getNumStudentsInfected();
+            }
+            writer.writeInts(IntBuffer.wrap(classInfected));
+            //the names go in two passes, so the reader knows how big the section is before mapping it
+            int[] nameLengths = new int[allUsersList.size()];
+            long totalNameLength = 0;
+            for (int u = 0; u < nameLengths.length; u++) {
+                nameLengths[u] = allUsersList.get(u).getName().getBytes(StandardCharsets.UTF_8).length;
+                totalNameLength += nameLengths[u];
+            }
+            writer.writeInts(IntBuffer.wrap(nameLengths));
+            writer.writeLong(totalNameLength);
+            for (User user : allUsersList) {
+                byte[] name = user.getName().getBytes(StandardCharsets.UTF_8);
+                writer.writeBytes(name, 0, name.length);
+            }
+        }
+    }
+
+    /**
+     * Loads an environment saved by saveSnapshot. The graph is used straight from the memory mapped file, so the
+     * file must not change while the environment is in use; only the User and Class objects are created again.
+     * The saved counts are trusted, as the file passed its checksum: nothing is recounted over the graph, and the
+     * classes only work out their connected classes when they are first needed.
+     * The environment has the default settings and an unseeded random generator
+     * @param file
+     * @param debug
+     * @return the environment
+     * @throws IOException if the file can't be read, or fails its checksum
+     */
+    public static TestEnvironment loadSnapshot(Path file, boolean debug) throws IOException {
+        try (SnapshotFile.Reader reader = new SnapshotFile.Reader(file)) {
+            TestEnvironment testEnv = new TestEnvironment(reader.readString(), debug);
+            int numSiteVersions = reader.readInt();
+            for (int code = 0; code < numSiteVersions; code++) {
+                testEnv.siteVersions.intern(reader.readString());
+            }
+            Graph loaded = Graph.readFrom(reader);
+            testEnv.state.readFrom(loaded, reader);
+            IntBuffer classInfected = reader.mapInts(loaded.getNumClasses());
+            IntBuffer nameLengths = reader.mapInts(loaded.getNumUsers());
+            long totalNameLength = reader.readLong();
+            if (totalNameLength > Integer.MAX_VALUE) {
+                throw new IOException("User names of " + totalNameLength + " bytes are too large to map");
+            }
+            ByteBuffer names = reader.mapBytes((int) totalNameLength);
+            List<User> users = new ArrayList<>(loaded.getNumUsers());
+            byte[] name = new byte[64];
+            for (int u = 0; u < loaded.getNumUsers(); u++) {
+                int length = nameLengths.get(u);
+                if (length > name.length) {
+                    name = new byte[Math.max(length, name.length * 2)];
+                }
+                names.get(name, 0, length);
+                String siteVersion = testEnv.siteVersions.getSiteVersion(testEnv.state.getVersion(u));
+                users.add(new User(new String(name, 0, length, StandardCharsets.UTF_8), siteVersion));
+            }
+            testEnv.addGraph(loaded, users, true);
+            //no class has worked out its connected classes or affected count yet, so there is nothing to push to
+            for (int c = 0; c < loaded.getNumClasses(); c++) {
+                testEnv.allClasses.get(c).restoreNumStudentsInfected(classInfected.get(c));
+            }
+            return testEnv;
+        }
+    }
+
+    /**
+     * Keeps the environment in sync with enrollments made after a class was added, including the class's count of
+     * infected students
+     */
+    @Override
+    public void onEnrollment(Class classroom, User user, boolean isTeacher) {
+        addUser(user);
+        if (isTeacher) {
+            for (User student : classroom.getStudents()) {
+                components.union(userIds.get(user), userIds.get(student));
+            }
+        } else {
+            components.union(userIds.get(user), userIds.get(classroom.getTeacher()));
+            if (isInfected(user)) {
+                classroom.increaseNumStudentsInfected();
+            }
+        }
+        modCount++;
+    }
+
+    /**
+     * A union-find can't split components, so an unenrollment marks the component index for a rebuild.
+     * The user keeps their id, even if they are left without classes, so undo logs and checkpoints stay valid
+     */
+    @Override
+    public void onUnenrollment(Class classroom, User user, boolean isTeacher) {
+        componentsStale = true;
+        if (!isTeacher && isInfected(user)) {
+            classroom.setNumStudentsInfected(classroom.getNumStudentsInfected() - 1);
+        }
+        modCount++;
+    }
+
+    private boolean isInfected(User user) {
+        int id = userIds.get(user);
+        return id < state.getNumUsers() && state.isInfected(id);
+    }
+
+    private void addUser(User user) {
+        if (!userIds.containsKey(user)) {
+            userIds.put(user, allUsersList.size());
+            allUsersList.add(user);
+            components.addUser();
         }
     }
 
@@ -69,69 +329,367 @@ public class TestEnvironment {
         sizeLimit = limit;
     }
 
-    public void setNumRetries(int retries) {
-        numRetries = retries;
+    /**
+     * @param tolerance how far past the target percentage a WHOLE_COMPONENTS limited infection may go, as a fraction
+     * of the population
+     */
+    public void setTargetTolerance(float tolerance) {
+        targetTolerance = tolerance;
+    }
+
+    public float getTargetTolerance() {
+        return targetTolerance;
+    }
+
+    /**
+     * @param newMetrics what every infection run and graph rebuild is recorded in from now on, or null to stop
+     * recording
+     */
+    public void setMetrics(InfectionMetrics newMetrics) {
+        metrics = newMetrics;
+    }
+
+    /**
+     * @return the metrics runs are recorded in, or null if metrics aren't enabled
+     */
+    public InfectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Streams the users every infection run infects to the listener, in batches, while the run goes on.
+     * The listener can stop a run early; the users infected until then stay infected
+     * @param newListener the listener, or null to stop streaming
+     * @param batchSize the most users in one batch
+     */
+    public void setInfectionListener(InfectionListener newListener, int batchSize) {
+        listener = newListener;
+        listenerBatchSize = batchSize;
+    }
+
+    /**
+     * Bounds the SEQUENTIAL total infections and the CLASS_QUEUE and CHEAPEST_FIRST limited infections. A run that
+     * goes over the bounds stops and leaves a checkpoint, see getCheckpoint. The other modes are a single linear
+     * pass and aren't bounded
+     * @param control the bounds, or null for unbounded runs. The control's step count is shared by the runs
+     */
+    public void setRunControl(RunControl control) {
+        runControl = control;
+    }
+
+    /**
+     * @return where the last run stopped if it went over the run control's bounds, else null
+     */
+    public InfectionCheckpoint getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Goes on with a run that went over the run control's bounds, under the current run control
+     * @param from the checkpoint the run left
+     * @throws IllegalStateException if the classes or enrollments changed since the checkpoint was taken
+     */
+    public void resume(InfectionCheckpoint from) {
+        Graph graph = getGraph();
+        if (from.getGraph() != graph) {
+            throw new IllegalStateException("The enrollments changed since the checkpoint was taken");
+        }
+        long start = System.nanoTime();
+        short newVersion = from.getNewVersion();
+        beginRun(newVersion);
+        InfectionBatcher batcher = newBatcher(graph, siteVersions.getSiteVersion(newVersion));
+        Rollout rollout = newRollout(graph, state, newVersion, random);
+        rollout.setBatcher(batcher);
+        rollout.setRunControl(runControl);
+        rollout.resume(from);
+        finishRun(rollout, newVersion, start, batcher);
+    }
+
+    /**
+     * Moves the graph snapshot, the infection state and the component index to the given storage, and keeps them
+     * there as they are rebuilt. OFF_HEAP keeps the arrays indexed by user and class id out of the garbage
+     * collector's way, but the User and Class objects and their id maps stay on the heap, see StorageMode; the
+     * infection methods work the same either way. Checkpoints taken before the move can't be resumed after it
+     * @param mode
+     */
+    public void setStorageMode(StorageMode mode) {
+        if (mode == storageMode) {
+            return;
+        }
+        storageMode = mode;
+        if (graph != null) {
+            graph = graph.copyTo(mode);
+        }
+        state.setStorageMode(mode);
+        components.setStorageMode(mode);
+    }
+
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    public void setSeed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Splits off an independent random generator, so a worker thread can make random picks without sharing
+     * (and contending on) the environment's generator. Splits are deterministic for a seeded environment
+     * @return the new generator
+     */
+    public SplittableRandom splitRandom() {
+        return random.split();
+    }
+
+    /**
+     * @param parallelism the number of worker threads parallel traversals should use
+     */
+    public void setParallelism(int parallelism) {
+        if (pool != ForkJoinPool.commonPool()) {
+            pool.shutdown();
+        }
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    /**
+     * @param user
+     * @return the id of the user's connected component. Ids stay the same until the next enrollment
+     */
+    public int getComponentId(User user) {
+        return getComponents().find(userIds.get(user));
+    }
+
+    /**
+     * @param user
+     * @return the number of users a total infection starting at this user would infect, assuming none of them is
+     * already on the new site version
+     */
+    public int getComponentSize(User user) {
+        return getComponents().getComponentSize(userIds.get(user));
+    }
+
+    public int getNumComponents() {
+        return getComponents().getNumComponents();
+    }
+
+    /**
+     * @return the number of connected components of each component size, ordered by size
+     */
+    public Map<Integer, Integer> getComponentSizeHistogram() {
+        return getComponents().getSizeHistogram();
+    }
+
+    /**
+     * @return the component index, rebuilt from the graph first if an unenrollment made it stale
+     */
+    private ComponentIndex getComponents() {
+        if (componentsStale) {
+            Graph graph = getGraph();
+            components = new ComponentIndex(storageMode);
+            for (int u = 0; u < graph.getNumUsers(); u++) {
+                components.addUser();
+            }
+            for (int c = 0; c < graph.getNumClasses(); c++) {
+                for (int i = graph.classMemberStart(c) + 1; i < graph.classMemberEnd(c); i++) {
+                    components.union(graph.getTeacher(c), graph.classMemberAt(i));
+                }
+            }
+            componentsStale = false;
+        }
+        return components;
     }
 
     public List<User> getAllUsersList() {
         return allUsersList;
     }
 
-    protected HashSet<User> getInfectedUsers() {
-        return infectedUsers;
+    /**
+     * @return a live view of the infected users. Adding a user to it marks that user as infected
+     */
+    protected Set<User> getInfectedUsers() {
+        return new InfectedUserSet();
     }
 
     public void prettyPrintInfectedUsers() {
         System.out.println("Infected users are:");
-        for (User infectedUser : infectedUsers) {
+        for (User infectedUser : getInfectedUsers()) {
             System.out.println(infectedUser.getName());
         }
     }
 
     /**
-     * Picks a random user, checks if they are infected. If yes, return. if no, try again.
-     * Use this to ensure a non deterministic user base who will test the features
-     * @return a random user that is not infected
+     * Returns the graph snapshot, rebuilding it first if any class or enrollment changed since the last build,
+     * including the enrollments streamed in since. The per user and per class infection state is carried over to
+     * the new snapshot
+     * @return the current graph
      */
-    public User getRandomNotInfectedUser() {
-        Random random = new Random();
-        boolean isUserInfected = true;
-        User pickedUser = null;
-        while (isUserInfected) {
-            int randomNum = random.nextInt(allUsersSet.size());
-            pickedUser = allUsersList.get(randomNum);
-            if (!infectedUsers.contains(pickedUser)) {
-                isUserInfected = false;
+    protected Graph getGraph() {
+        if (!enrollmentStream.isEmpty()) {
+            applyStreamedEnrollments();
+        }
+        return rebuildGraph();
+    }
+
+    private Graph rebuildGraph() {
+        if (graphModCount != modCount) {
+            long start = System.nanoTime();
+            graph = Graph.build(allUsersList.size(), userIds, allClasses);
+            if (storageMode != StorageMode.HEAP) {
+                graph = graph.copyTo(storageMode);
+            }
+            graphModCount = modCount;
+            if (metrics != null) {
+                metrics.recordGraphBuild(System.nanoTime() - start);
+            }
+            int oldNumUsers = state.getNumUsers();
+            state.resize(graph);
+            for (int u = oldNumUsers; u < graph.getNumUsers(); u++) {
+                state.setVersion(u, siteVersions.intern(allUsersList.get(u).getSiteVersion()));
             }
         }
-        return pickedUser;
+        return graph;
+    }
+
+    /**
+     * Applies every enrollment streamed so far to the User and Class objects. With infectOnArrival, a student
+     * streamed into a class that was completely infected before the enrollments were applied gets the teacher's site
+     * version and is infected. Arrivals aren't part of any run, so rolling a run back leaves them infected
+     */
+    private void applyStreamedEnrollments() {
+        Graph graph = rebuildGraph();
+        IntQueue arrivals = new IntQueue(); //the ids of the students to infect, each followed by their class's id
+        EnrollmentStream.Enrollment enrollment;
+        while ((enrollment = enrollmentStream.poll()) != null) {
+            if (enrollment.isNewClass()) {
+                addClass(new Class(enrollment.getTeacher(), enrollment.getStudents()));
+                continue;
+            }
+            if (enrollment.isTeacherChange()) {
+                enrollment.getClassroom().enrollTeacher(enrollment.getTeacher());
+                addClass(enrollment.getClassroom());
+                continue;
+            }
+            Class classroom = enrollment.getClassroom();
+            Integer classId = classIds.get(classroom);
+            boolean arriving = infectOnArrival && classId != null && classId < graph.getNumClasses()
+                    && state.isCompletelyInfected(graph, classId);
+            classroom.enrollStudent(enrollment.getStudent());
+            addClass(classroom);
+            if (arriving) {
+                arrivals.add(userIds.get(enrollment.getStudent()));
+                arrivals.add(classId);
+            }
+        }
+        if (arrivals.isEmpty()) {
+            return;
+        }
+        graph = rebuildGraph();
+        while (!arrivals.isEmpty()) {
+            int user = arrivals.poll();
+            User teacher = allUsersList.get(graph.getTeacher(arrivals.poll()));
+            if (!state.isInfected(user)) {
+                state.setVersion(user, siteVersions.intern(teacher.getSiteVersion()));
+                state.markInfected(graph, user);
+                allUsersList.get(user).setSiteVersion(teacher.getSiteVersion());
+            }
+        }
+        writeBackClasses();
+    }
+
+    /**
+     * @return where other threads stream enrollments into this environment
+     */
+    public EnrollmentStream getEnrollmentStream() {
+        return enrollmentStream;
+    }
+
+    /**
+     * @param infect whether students streamed into a completely infected class are infected with it when the
+     * stream is applied
+     */
+    public void setInfectOnArrival(boolean infect) {
+        this.infectOnArrival = infect;
     }
 
     /**
-     * Given a user, infected all users within any degree of connection to that user
+     * Draws a uniformly random user out of the not infected ones, in O(1) however many users are infected.
+     * Use this to ensure a non deterministic user base who will test the features
+     * @return a random user that is not infected, or null if every user is infected
+     */
+    public User getRandomNotInfectedUser() {
+        getGraph();
+        int pickedUser = state.sampleNotInfectedUser(random);
+        return pickedUser < 0 ? null : allUsersList.get(pickedUser);
+    }
+
+    /**
+     * Picks a random user that is not infected, and infects all users within any degree of connection to that user
      * @param newSiteVersion
      */
     public void totalInfection(String newSiteVersion) {
-        //use bfs to avoid stack limitations of dfs
-        Queue<User> allUsersToInfect = new LinkedList<>();
-        allUsersToInfect.add(getRandomNotInfectedUser());
-
-        while (!allUsersToInfect.isEmpty()) {
-            User userToInfect = allUsersToInfect.poll();
-            if (!userToInfect.getSiteVersion().equals(newSiteVersion)) {
-                userToInfect.setSiteVersion(newSiteVersion);
-                if (isDebug()) {
-                    infectedUsers.add(userToInfect);
-                }
-                for (Class classUserTeaches : userToInfect.getTeachingClasses()) {
-                    allUsersToInfect.addAll(classUserTeaches.getStudents());
-                }
-                for (Class classUserTakes : userToInfect.getTakingClasses()) {
-                    allUsersToInfect.add(classUserTakes.getTeacher());
+        totalInfection(newSiteVersion, TraversalMode.SEQUENTIAL);
+    }
+
+    public void totalInfection(String newSiteVersion, TraversalMode mode) {
+        User startUser = getRandomNotInfectedUser();
+        if (startUser != null) {
+            totalInfection(startUser, newSiteVersion, mode);
+        }
+    }
+
+    /**
+     * Given a user, infected all users within any degree of connection to that user.
+     * Users that are already on the new site version are not traversed through
+     * @param startUser
+     * @param newSiteVersion
+     * @param mode how to traverse the graph, see TraversalMode
+     */
+    public void totalInfection(User startUser, String newSiteVersion, TraversalMode mode) {
+        Graph graph = getGraph();
+        short newVersion = siteVersions.intern(newSiteVersion);
+        int startId = userIds.get(startUser);
+        if (state.getVersion(startId) == newVersion) {
+            return;
+        }
+        beginRun(newVersion);
+        long start = System.nanoTime();
+        IntQueue newlyInfected = new IntQueue();
+        InfectionBatcher batcher = newBatcher(graph, newSiteVersion);
+        if (mode == TraversalMode.COMPONENT) {
+            //walk the start user's component member list, no edges needed
+            int numVisited = 0;
+            int user = startId;
+            do {
+                numVisited++;
+                if (state.getVersion(user) != newVersion) {
+                    state.setVersion(user, newVersion);
+                    markInfected(graph, user, newlyInfected, batcher);
                 }
+                user = getComponents().getNextMember(user);
+            } while (user != startId && (batcher == null || !batcher.isStopped()));
+            finishRun(newlyInfected, newVersion, numVisited, start, batcher);
+            return;
+        }
+        if (mode == TraversalMode.PARALLEL) {
+            //the traversal only reads, so stopping early infects the users reached first, level by level
+            IntQueue reached = new ParallelBfs(pool).run(graph, state, startId, newVersion);
+            int numVisited = 0;
+            while (!reached.isEmpty() && (batcher == null || !batcher.isStopped())) {
+                int user = reached.poll();
+                numVisited++;
+                state.setVersion(user, newVersion);
+                markInfected(graph, user, newlyInfected, batcher);
             }
+            finishRun(newlyInfected, newVersion, numVisited, start, batcher);
+            return;
         }
+        Rollout rollout = newRollout(graph, state, newVersion, random);
+        rollout.setBatcher(batcher);
+        rollout.setRunControl(runControl);
+        rollout.totalInfection(startId);
+        finishRun(rollout, newVersion, start, batcher);
     }
+
     /**
      * Infects only up to the @targetPercentage amount of users, +/- error of 1 class size, which is assumed to be
      * reasonably within the amount of the targetPercentage on average
@@ -139,63 +697,86 @@ public class TestEnvironment {
      * @param targetPercentage
      */
     public void limitedInfection(String newSiteVersion, float targetPercentage) {
-        setAllConnectedClasses();
-        boolean forceInfect = false;
-        Queue<Class> toInfectQueue = new LinkedList<>();
-        toInfectQueue.add(getRandomClass());
-
-        //don't stop if the queue isn't empty or we haven't hit the target yet
-        while (!toInfectQueue.isEmpty() || !hitTarget(targetPercentage)) {
-            //stop if we hit or surpass the target
-            if (hitTarget(targetPercentage)) {
-                return;
+        limitedInfection(newSiteVersion, targetPercentage, LimitedInfectionMode.CLASS_QUEUE);
+    }
+
+    /**
+     * @param newSiteVersion
+     * @param targetPercentage
+     * @param mode how to pick the users, see LimitedInfectionMode
+     */
+    public void limitedInfection(String newSiteVersion, float targetPercentage, LimitedInfectionMode mode) {
+        Graph graph = getGraph();
+        short newVersion = siteVersions.intern(newSiteVersion);
+        beginRun(newVersion);
+        long start = System.nanoTime();
+        InfectionBatcher batcher = newBatcher(graph, newSiteVersion);
+        if (mode == LimitedInfectionMode.WHOLE_COMPONENTS) {
+            IntQueue newlyInfected = infectWholeComponents(graph, newVersion, targetPercentage, batcher);
+            finishRun(newlyInfected, newVersion, graph.getNumUsers(), start, batcher);
+            return;
+        }
+        Rollout rollout = newRollout(graph, state, newVersion, random);
+        rollout.setBatcher(batcher);
+        rollout.setRunControl(runControl);
+        if (mode == LimitedInfectionMode.CHEAPEST_FIRST) {
+            rollout.cheapestFirstInfection(targetPercentage);
+        } else {
+            rollout.limitedInfection(targetPercentage);
+        }
+        finishRun(rollout, newVersion, start, batcher);
+    }
+
+    /**
+     * Counts the users every component would newly infect in one pass over the users, picks the components with
+     * SubsetSum, and walks their member lists. Components are handed to SubsetSum in the order of their smallest
+     * user id, which doesn't depend on how the ComponentIndex happened to link them, so a ShardedInfection picks
+     * the same ones
+     * @return the ids of the newly infected users
+     */
+    private IntQueue infectWholeComponents(Graph graph, short newVersion, float targetPercentage,
+                                           InfectionBatcher batcher) {
+        IntQueue newlyInfected = new IntQueue();
+        int numUsers = graph.getNumUsers();
+        int needed = (int) Math.ceil((double) targetPercentage * numUsers) - state.getNumInfected();
+        if (needed <= 0) {
+            return newlyInfected;
+        }
+        ComponentIndex componentIndex = getComponents();
+        IntBuffer gains = storageMode.allocateInts(numUsers); //the users a component would newly infect, indexed by its root
+        for (int u = 0; u < numUsers; u++) {
+            if (!state.isInfected(u) && state.getVersion(u) != newVersion) {
+                int root = componentIndex.find(u);
+                gains.put(root, gains.get(root) + 1);
             }
-            // if we get here, means the queue is empty but the target hasn't been hit so we need to chose another class
-            if (toInfectQueue.isEmpty()) {
-                Class randomClass = null;
-                //tries to randomly pick a class that meets the requirements <numRetries> number of times
-                for (int i = 0; i < numRetries; i++) {
-                    randomClass = getRandomClass();
-                    if (meetsRequirements(randomClass, targetPercentage)) {
-                        toInfectQueue.add(randomClass);
-                        break;
-                    }
-                }
-                //if the queue is still empty then all the users we randomly chose did not meet the requirements
-                //but lets just use it anyways (so we don't get stuck) and force infect that user
-                if (toInfectQueue.isEmpty()) {
-                    toInfectQueue.add(randomClass);
-                    forceInfect = true;
-                }
+        }
+        //a component is first reached at its smallest member id, and its gain cleared once it is listed
+        IntQueue roots = new IntQueue(); //the roots of the components that would infect anybody
+        IntQueue weights = new IntQueue();
+        for (int u = 0; u < numUsers; u++) {
+            int root = componentIndex.find(u);
+            if (gains.get(root) > 0) {
+                roots.add(root);
+                weights.add(gains.get(root));
+                gains.put(root, 0);
             }
-            Class classToInfect = toInfectQueue.poll();
-            //if forceinfect is true, it means it will disregard any heuristics and just infect it to avoid
-            //the case in which we go on a never ending loop because all nodes in the system are "bad" according
-            //to the heuristic
-            if (forceInfect) {
-                infect(classToInfect, newSiteVersion, toInfectQueue);
-                forceInfect = false;
-            } else {
-                //the size limit serves two purposes:
-                //1) calculating 'getNumStudentsAffected' is expensive and the runtime is O(num of connected classes)
-                //   so we want to avoid nodes that will be very expensive
-                //2) we probably don't want to infect a person that will touch > 10k classes anyways
-                if (classToInfect.getConnectedClasses().size() < sizeLimit) {
-                    // if we are nearing our target percentage, we want to start being picky about the type of classes we choose to infect
-                    // we only want to infect classes that will AFFECT a small amount of people,
-                    // where "AFFECT" means the number of NON-infected students in all of the surrounding connected classes
-                    //(aka this is the number of people who will be affected by this classroom getting infected)
-                    if (isPercentageInfectedWithinTargetRange(targetPercentage)) {
-                        int numAffected = classToInfect.getNumStudentsAffected();
-                        if (numAffected < getAffectedThreshold()) {
-                            infect(classToInfect, newSiteVersion, toInfectQueue);
-                        }
-                    } else {
-                        infect(classToInfect, newSiteVersion, toInfectQueue);
-                    }
-                }
+        }
+        boolean[] chosen = SubsetSum.select(weights.toArray(), needed, (int) (targetTolerance * numUsers));
+        for (int i = 0; i < chosen.length && (batcher == null || !batcher.isStopped()); i++) {
+            if (!chosen[i]) {
+                continue;
             }
+            int root = roots.get(i);
+            int user = root;
+            do {
+                if (state.getVersion(user) != newVersion) {
+                    state.setVersion(user, newVersion);
+                    markInfected(graph, user, newlyInfected, batcher);
+                }
+                user = componentIndex.getNextMember(user);
+            } while (user != root);
         }
+        return newlyInfected;
     }
 
     /**
@@ -203,28 +784,287 @@ public class TestEnvironment {
      * Adds the connected classes to the queue
      * @param classToInfect
      * @param newSiteVersion
-     * @return Will return a list of all classes that users in the class are connected to
+     * @param toInfectQueue receives all classes that users in the class are connected to
+     */
+    protected void infect(Class classToInfect, String newSiteVersion, Queue<Class> toInfectQueue) {
+        Graph graph = getGraph();
+        short newVersion = siteVersions.intern(newSiteVersion);
+        beginRun(newVersion);
+        long start = System.nanoTime();
+        InfectionBatcher batcher = newBatcher(graph, newSiteVersion);
+        Rollout rollout = newRollout(graph, state, newVersion, random);
+        rollout.setBatcher(batcher);
+        IntQueue connectedClasses = new IntQueue();
+        rollout.infect(classIds.get(classToInfect), connectedClasses);
+        recordRun(rollout, start);
+        if (batcher != null) {
+            batcher.finish();
+        }
+        while (!connectedClasses.isEmpty()) {
+            toInfectQueue.add(allClasses.get(connectedClasses.poll()));
+        }
+        writeBack(rollout.getNewlyInfected(), newVersion);
+    }
+
+    /**
+     * Moves every user of a rollout's result to its site version, and marks them infected.
+     * Users that are already on that site version are left alone
+     * @param result
+     */
+    public void applyRollout(RolloutResult result) {
+        Graph graph = getGraph();
+        short newVersion = siteVersions.intern(result.getSiteVersion());
+        beginRun(newVersion);
+        IntQueue newlyInfected = new IntQueue();
+        for (int user : result.getInfectedUsers()) {
+            if (state.getVersion(user) != newVersion) {
+                state.setVersion(user, newVersion);
+                markInfected(graph, user, newlyInfected);
+            }
+        }
+        writeBack(newlyInfected, newVersion);
+    }
+
+    /**
+     * @return a rollout of the new site version over the graph, with this environment's settings
+     */
+    private Rollout newRollout(Graph graph, InfectionState rolloutState, short newVersion,
+                               SplittableRandom rolloutRandom) {
+        Rollout rollout = new Rollout(graph, rolloutState, newVersion, rolloutRandom);
+        rollout.setDelta(delta);
+        rollout.setAffectedThresholdFactor(affectedThresholdFactor);
+        rollout.setSizeLimit(sizeLimit);
+        return rollout;
+    }
+
+    /**
+     * Like newRollout, but interns the site version first. For a RolloutService, which runs its rollouts on
+     * separate states
+     */
+    protected Rollout newRollout(Graph graph, InfectionState rolloutState, String newSiteVersion,
+                                 SplittableRandom rolloutRandom) {
+        return newRollout(graph, rolloutState, siteVersions.intern(newSiteVersion), rolloutRandom);
+    }
+
+    /**
+     * @param siteVersion
+     * @return the code of the site version, for running it outside of a Rollout
+     */
+    protected short internSiteVersion(String siteVersion) {
+        return siteVersions.intern(siteVersion);
+    }
+
+    protected InfectionState getState() {
+        return state;
+    }
+
+    /**
+     * @return a batcher for the listener, or null if there is no listener
+     */
+    private InfectionBatcher newBatcher(Graph graph, String newSiteVersion) {
+        if (listener == null) {
+            return null;
+        }
+        listener.onStart();
+        //every batch is written back as it is delivered, so the run doesn't keep all of its users until it ends
+        return new InfectionBatcher(listener, listenerBatchSize, newSiteVersion, state, graph.getNumUsers(),
+                users -> writeBackUsers(users, newSiteVersion));
+    }
+
+    /**
+     * Records a finished rollout's metrics, delivers its last batch and writes it back
+     */
+    private void finishRun(Rollout rollout, short newVersion, long startNanos, InfectionBatcher batcher) {
+        checkpoint = rollout.getCheckpoint();
+        recordRun(rollout, startNanos);
+        if (batcher != null) {
+            batcher.finish();
+        }
+        writeBack(rollout.getNewlyInfected(), newVersion);
+    }
+
+    private void finishRun(IntQueue newlyInfected, short newVersion, long numVisited, long startNanos,
+                           InfectionBatcher batcher) {
+        checkpoint = null;
+        recordRun(batcher != null ? batcher.getNumInfected() : newlyInfected.size(), numVisited, startNanos);
+        if (batcher != null) {
+            batcher.finish();
+        }
+        writeBack(newlyInfected, newVersion);
+    }
+
+    private void recordRun(Rollout rollout, long startNanos) {
+        if (metrics != null) {
+            metrics.recordRun(rollout, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void recordRun(int numInfected, long numVisited, long startNanos) {
+        if (metrics != null) {
+            metrics.recordRun(numInfected, numVisited, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void markInfected(Graph graph, int user, IntQueue newlyInfected) {
+        markInfected(graph, user, newlyInfected, null);
+    }
+
+    /**
+     * @param newlyInfected receives the user, unless the batcher does
+     */
+    private void markInfected(Graph graph, int user, IntQueue newlyInfected, InfectionBatcher batcher) {
+        state.markInfected(graph, user);
+        if (batcher != null) {
+            batcher.addUser(user);
+        } else {
+            newlyInfected.add(user);
+        }
+    }
+
+    /**
+     * Starts recording what a run changes, if runs can be rolled back. Call it after getGraph, so the site versions
+     * of users that are new to the graph aren't recorded
+     */
+    private void beginRun(short newVersion) {
+        if (undoHistory > 0) {
+            runLog = new InfectionUndoLog(newVersion);
+            state.setUndoLog(runLog);
+        }
+    }
+
+    /**
+     * Copies the result of a run back onto the User and Class objects, and keeps what the run changed for rollback
+     * @param newlyInfected the ids of every user whose site version was changed by the run and wasn't written back
+     * with its batch
+     * @param newVersion the code of the new site version
+     */
+    private void writeBack(IntQueue newlyInfected, short newVersion) {
+        writeBackUsers(newlyInfected, siteVersions.getSiteVersion(newVersion));
+        if (runLog != null) {
+            state.setUndoLog(null);
+            undoLogs.addLast(runLog);
+            runLog = null;
+            while (undoLogs.size() > undoHistory) {
+                undoLogs.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Copies the new site version of the users, and the infected counts of their classes, onto the User and Class
+     * objects
+     */
+    private void writeBackUsers(IntQueue users, String newSiteVersion) {
+        for (int i = 0; i < users.size(); i++) {
+            allUsersList.get(users.get(i)).setSiteVersion(newSiteVersion);
+        }
+        writeBackClasses(users);
+    }
+
+    private void writeBackClasses() {
+        for (int c = 0; c < allClasses.size(); c++) {
+            writeBackClass(c);
+        }
+    }
+
+    /**
+     * Copies the infected counts of the classes the users take onto the Class objects, so a run that changed a few
+     * users doesn't go through every class. When the users outnumber the classes, every class is copied instead
+     * @param users the ids of the users whose infected bit may have changed
      */
-    protected void infect(Class classToInfect, String newSiteVersion, Queue toInfectQueue) {
-        if (classToInfect.isCompletelyInfected()) {
+    private void writeBackClasses(IntQueue users) {
+        if (users.size() >= allClasses.size()) {
+            writeBackClasses();
             return;
         }
-        for (User user : classToInfect.getAllUsers()) {
-            if (!user.getSiteVersion().equals(newSiteVersion)) {
-                user.setSiteVersion(newSiteVersion);
-                infectedUsers.add(user);
-                classToInfect.increaseNumStudentsInfected();
-                //on avg this will be quite small
-                for (Class usersClass : user.getAllClasses()) {
-                    usersClass.increaseNumStudentsInfected();
+        for (int i = 0; i < users.size(); i++) {
+            int user = users.get(i);
+            for (int j = graph.userClassStart(user); j < graph.userClassEnd(user); j++) {
+                if (!graph.isTeachingEdge(j)) {
+                    writeBackClass(graph.userClassAt(j));
                 }
             }
         }
-        toInfectQueue.addAll(classToInfect.getConnectedClasses());
+    }
+
+    /**
+     * Copies the infected count of the class onto its Class object. Off the heap, the count isn't pushed to the
+     * connected Class objects, which would make bulk loaded classes work out their connected class sets on the heap;
+     * the connected classes are found in the graph instead, and those that summed up their affected count sum it
+     * again when they are next asked
+     * @param classId
+     */
+    private void writeBackClass(int classId) {
+        Class classroom = allClasses.get(classId);
+        int numInfected = state.getNumStudentsInfected(classId);
+        if (storageMode == StorageMode.HEAP) {
+            classroom.setNumStudentsInfected(numInfected);
+        } else if (classroom.getNumStudentsInfected() != numInfected) {
+            classroom.restoreNumStudentsInfected(numInfected);
+            for (int i = graph.connectedStart(classId); i < graph.connectedEnd(classId); i++) {
+                allClasses.get(graph.connectedAt(i)).forgetNumStudentsAffected();
+            }
+        }
+    }
+
+    /**
+     * @param numRuns the most runs that can be rolled back, 0 to stop recording them. Every run that can be rolled
+     * back keeps six bytes and a bit per user it changed
+     */
+    public void setUndoHistory(int numRuns) {
+        undoHistory = numRuns;
+        while (undoLogs.size() > undoHistory) {
+            undoLogs.removeFirst();
+        }
+    }
+
+    /**
+     * @return the number of runs that can be rolled back
+     */
+    public int getNumUndoableRuns() {
+        return undoLogs.size();
+    }
+
+    /**
+     * Undoes the most recent run that hasn't been rolled back yet: every user it changed gets their previous site
+     * version back, and the users it infected are no longer infected, in O(changed users). Rolling back also drops
+     * the checkpoint of a bounded run
+     * @throws IllegalStateException if there is no run left to roll back
+     */
+    public void rollback() {
+        if (undoLogs.isEmpty()) {
+            throw new IllegalStateException("There is no run to roll back");
+        }
+        InfectionUndoLog log = undoLogs.removeLast();
+        state.rollback(getGraph(), log);
+        //newest change first, like the state
+        IntQueue changed = new IntQueue(log.size());
+        for (int i = log.size() - 1; i >= 0; i--) {
+            allUsersList.get(log.getUser(i)).setSiteVersion(siteVersions.getSiteVersion(log.getPreviousVersion(i)));
+            changed.add(log.getUser(i));
+        }
+        writeBackClasses(changed);
+        checkpoint = null;
+    }
+
+    /**
+     * @return the site version of every user as of now
+     */
+    public SiteVersionSnapshot snapshotSiteVersions() {
+        Graph graph = getGraph();
+        short[] versionCodes = new short[graph.getNumUsers()];
+        for (int u = 0; u < versionCodes.length; u++) {
+            versionCodes[u] = state.getVersion(u);
+        }
+        String[] names = new String[siteVersions.size()];
+        for (int code = 0; code < names.length; code++) {
+            names[code] = siteVersions.getSiteVersion((short) code);
+        }
+        return new SiteVersionSnapshot(versionCodes, names);
     }
 
     protected float getTotalPercentageInfected() {
-        return (float) infectedUsers.size() / (float) allUsersList.size();
+        return Rollout.getTotalPercentageInfected(state.getNumInfected(), getGraph().getNumUsers());
     }
 
     /**
@@ -233,7 +1073,7 @@ public class TestEnvironment {
      * @return
      */
     protected boolean isPercentageInfectedWithinTargetRange(float targetPercentage) {
-        return targetPercentage - getTotalPercentageInfected() < delta;
+        return Rollout.isWithinTargetRange(getTotalPercentageInfected(), targetPercentage, delta);
     }
 
 
@@ -243,7 +1083,7 @@ public class TestEnvironment {
      * @return
      */
     public boolean hitTarget(float targetPercentage) {
-        return getTotalPercentageInfected() >= targetPercentage;
+        return Rollout.hitTarget(getTotalPercentageInfected(), targetPercentage);
     }
 
     /**
@@ -251,7 +1091,7 @@ public class TestEnvironment {
      * @return
      */
     public int getAffectedThreshold() {
-        return (int) (affectedThresholdFactor * allUsersList.size());
+        return Rollout.getAffectedThreshold(affectedThresholdFactor, getGraph().getNumUsers());
     }
 
     /**
@@ -262,45 +1102,68 @@ public class TestEnvironment {
      * @return
      */
     public boolean meetsRequirements(Class randomClass, float targetPercentage) {
-        //if the node's connected classes are too big, doesn't meet requirements
-        if (randomClass.getConnectedClasses().size() > sizeLimit) {
-            return false;
-        }
-        //if we are close to the target, we also want to make sure the num affected is under the threshold
-        if (isPercentageInfectedWithinTargetRange(targetPercentage)) {
-            return randomClass.getNumStudentsAffected() < getAffectedThreshold();
-        }
-        //if we hit here it means we are not within target range and also under the size limit
-        return true;
+        int maxAffected = isPercentageInfectedWithinTargetRange(targetPercentage) ? getAffectedThreshold()
+                : Integer.MAX_VALUE;
+        return Rollout.meetsRequirements(getGraph(), state, classIds.get(randomClass), maxAffected, sizeLimit);
     }
 
     public int getRandomNumber(int max) {
-        Random random = new Random();
         return random.nextInt(max);
     }
 
     /**
-     * Gets a random class, but with a weighted probability given the number of users there are
-     * @return
+     * Gets a random class, but with a weighted probability given the number of not infected users there are in it
+     * @return the class, or null if every class is completely infected
      */
     public Class getRandomClass() {
-        User randomUser = getRandomNotInfectedUser();
-        int randomNumber = getRandomNumber(randomUser.getAllClasses().size());
-        return randomUser.getAllClasses().get(randomNumber);
+        getGraph();
+        int randomClass = state.sampleClass(random);
+        return randomClass < 0 ? null : allClasses.get(randomClass);
     }
 
     /**
-     * Goes through every class in the system and sets the correct number of "connecting classes".
-     * A class is "connected" to a class if there are any relations between the two classes
+     * A view of the infected users backed by the environment's infection bitset
      */
-    public void setAllConnectedClasses() {
-        List<Class> allClasses = getAllClasses();
-        for (Class c : allClasses) {
-            for (User user : c.getAllUsers()) {
-                c.getConnectedClasses().addAll(user.getAllClasses());
-                //don't add yourself
-                c.getConnectedClasses().remove(c);
-            }
+    private class InfectedUserSet extends AbstractSet<User> {
+
+        @Override
+        public int size() {
+            return state.getNumInfected();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            Integer id = userIds.get(o);
+            return id != null && id < state.getNumUsers() && state.isInfected(id);
+        }
+
+        @Override
+        public boolean add(User user) {
+            Graph graph = getGraph();
+            Integer id = userIds.get(user);
+            return id != null && state.markInfected(graph, id);
+        }
+
+        @Override
+        public Iterator<User> iterator() {
+            return new Iterator<User>() {
+                private int next = state.nextInfected(0);
+
+                @Override
+                public boolean hasNext() {
+                    return next < state.getNumUsers();
+                }
+
+                @Override
+                public User next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    User user = allUsersList.get(next);
+                    next = state.nextInfected(next + 1);
+                    return user;
+                }
+            };
         }
     }
 }
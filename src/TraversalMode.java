@@ -0,0 +1,19 @@
+/**
+ * How totalInfection traverses the graph
+ */
+public enum TraversalMode {
+    /**
+     * A single threaded breadth first search
+     */
+    SEQUENTIAL,
+    /**
+     * A level synchronous breadth first search that expands each level on a fork-join pool, switching between
+     * top-down and bottom-up steps depending on the size of the frontier. Infects exactly the same users as SEQUENTIAL
+     */
+    PARALLEL,
+    /**
+     * Walks the start user's connected component in the environment's ComponentIndex instead of traversing edges.
+     * Infects the whole component, even past users that are already on the new site version
+     */
+    COMPONENT
+}
@@ -1,5 +1,7 @@
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class User {
 
@@ -7,20 +9,53 @@ public class User {
     private List<Class> takingClasses;
     private String siteVersion;
     private String name; //unique Identifier
+    private List<Class> allClassesView; //read-only view of the taking classes followed by the teaching classes
+    private ListPositions<Class> takingPositions; //the index of every taking class, null until the first one is removed
+    private ListPositions<Class> teachingPositions; //the index of every teaching class, null until the first one is removed
 
     public User(String name, String siteVersion) {
         this.name = name;
         this.siteVersion = siteVersion;
         this.teachingClasses = new ArrayList<>();
         this.takingClasses = new ArrayList<>();
+        this.allClassesView = new AllClassesView();
     }
 
     protected void addClassToTake(Class classToTake ) {
         takingClasses.add(classToTake);
+        if (takingPositions != null) {
+            takingPositions.elementAdded(classToTake);
+        }
+    }
+
+    /**
+     * Removes one enrollment into the class by moving the last taking class into its place, so nothing is shifted
+     * or searched for. The taking classes are only indexed on the first removal
+     * @param classToTake
+     */
+    protected void removeClassToTake(Class classToTake) {
+        if (takingPositions == null) {
+            takingPositions = new ListPositions<>(takingClasses);
+        }
+        takingPositions.swapRemove(classToTake);
     }
 
     protected void addClassToTeach(Class classToTeach) {
         teachingClasses.add(classToTeach);
+        if (teachingPositions != null) {
+            teachingPositions.elementAdded(classToTeach);
+        }
+    }
+
+    /**
+     * Like removeClassToTake, for a class the user teaches
+     * @param classToTeach
+     */
+    protected void removeClassToTeach(Class classToTeach) {
+        if (teachingPositions == null) {
+            teachingPositions = new ListPositions<>(teachingClasses);
+        }
+        teachingPositions.swapRemove(classToTeach);
     }
 
     public List<Class> getTeachingClasses() {
@@ -31,6 +66,10 @@ public class User {
         return takingClasses;
     }
 
+    /**
+     * @return a copy of the taking classes followed by the teaching classes. Prefer forEachClass or
+     * getAllClassesView in loops, which don't allocate
+     */
     public List<Class> getAllClasses() {
         List<Class> allClasses = new ArrayList<>();
         allClasses.addAll(takingClasses);
@@ -38,6 +77,27 @@ public class User {
         return allClasses;
     }
 
+    /**
+     * @return a read-only live view of the taking classes followed by the teaching classes.
+     * The same view is returned every time
+     */
+    public List<Class> getAllClassesView() {
+        return allClassesView;
+    }
+
+    /**
+     * Calls the action on every class the user takes and then every class they teach, without allocating
+     * @param action
+     */
+    public void forEachClass(Consumer<? super Class> action) {
+        for (int i = 0; i < takingClasses.size(); i++) {
+            action.accept(takingClasses.get(i));
+        }
+        for (int i = 0; i < teachingClasses.size(); i++) {
+            action.accept(teachingClasses.get(i));
+        }
+    }
+
     public void setSiteVersion(String newSiteVersion) {
         this.siteVersion = newSiteVersion;
     }
@@ -49,4 +109,17 @@ public class User {
     public String getName() {
         return name;
     }
+
+    private class AllClassesView extends AbstractList<Class> {
+
+        @Override
+        public Class get(int index) {
+            return index < takingClasses.size() ? takingClasses.get(index) : teachingClasses.get(index - takingClasses.size());
+        }
+
+        @Override
+        public int size() {
+            return takingClasses.size() + teachingClasses.size();
+        }
+    }
 }
@@ -0,0 +1,36 @@
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Which rollout every user of a graph belongs to, when several rollouts run over it at the same time.
+ * Every user is claimed with one compare-and-set on its own slot, so rollouts never wait on each other and only
+ * ever contend on the users they both reach.
+ */
+public class UserClaims {
+
+    private final AtomicIntegerArray owners; //the id of the rollout that claimed every user plus one, 0 if unclaimed
+
+    public UserClaims(int numUsers) {
+        this.owners = new AtomicIntegerArray(numUsers);
+    }
+
+    /**
+     * @param user
+     * @param claimant the id of the rollout claiming the user, not negative
+     * @return true if the user now belongs to the claimant, whether it was claimed just now or before
+     */
+    public boolean claim(int user, int claimant) {
+        int owner = owners.get(user);
+        if (owner == 0 && owners.compareAndSet(user, 0, claimant + 1)) {
+            return true;
+        }
+        return owners.get(user) == claimant + 1;
+    }
+
+    /**
+     * @param user
+     * @return the id of the rollout that claimed the user, or -1 if no rollout did
+     */
+    public int getOwner(int user) {
+        return owners.get(user) - 1;
+    }
+}
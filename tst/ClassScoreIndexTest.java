@@ -0,0 +1,67 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class ClassScoreIndexTest {
+    private String baseSiteVersion = "11";
+
+    private List<User> students(String name, int count) {
+        List<User> students = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            students.add(new User(i + name, baseSiteVersion));
+        }
+        return students;
+    }
+
+    @Test
+    public void testPicksUnderThresholdAndHubsLast() throws Exception {
+        //classes 0, 1 and 2 of 3, 5 and 9 students share one student each with the hub, class 3. Class 4 is alone
+        List<Class> classes = new ArrayList<>();
+        for (int size : new int[] {3, 5, 9}) {
+            classes.add(new Class(new User(size + "teacher", baseSiteVersion), students("," + size, size)));
+        }
+        List<User> hubStudents = new ArrayList<>();
+        for (Class classroom : classes) {
+            hubStudents.add(classroom.getStudents().get(0));
+        }
+        classes.add(new Class(new User("hubTeacher", baseSiteVersion), hubStudents));
+        classes.add(new Class(new User("aloneTeacher", baseSiteVersion), students("alone", 4)));
+        TestEnvironment testEnv = new TestEnvironment(baseSiteVersion, false, 3);
+        for (Class classroom : classes) {
+            testEnv.addClass(classroom);
+        }
+        Graph graph = testEnv.getGraph();
+        InfectionState state = new InfectionState();
+        state.resize(graph);
+        ClassScoreIndex index = new ClassScoreIndex(graph, state, 2);
+        state.setScoreIndex(index);
+        SplittableRandom random = new SplittableRandom(3);
+
+        assertEquals(5, index.size());
+        assertEquals(4, index.pick(1, random));
+        boolean[] picked = new boolean[5];
+        for (int i = 0; i < 100; i++) {
+            picked[index.pick(4, random)] = true;
+        }
+        assertEquals(true, Arrays.equals(new boolean[] {true, true, true, false, true}, picked));
+
+        //taking every member of class 2 drops it, and takes its students off the hub's affected count
+        for (int i = graph.classMemberStart(2); i < graph.classMemberEnd(2); i++) {
+            state.markInfected(graph, graph.classMemberAt(i));
+        }
+        state.flushAffected(graph, null);
+        assertEquals(false, index.contains(2));
+        assertEquals(3 + 5, state.getNumStudentsAffected(graph, 3));
+        index.remove(0);
+        index.remove(1);
+        index.remove(4);
+        assertEquals(3, index.pick(Integer.MAX_VALUE, random));
+        assertEquals(3, index.pick(9, random));
+        assertEquals(-1, index.pick(8, random));
+    }
+}
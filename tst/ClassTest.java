@@ -51,4 +51,68 @@ public class ClassTest {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testAffectedStudentsFollowNeighbours() throws Exception {
+        List<User> students = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            students.add(new User(i+"test", baseSiteVersion));
+        }
+        Class otherClassroom = new Class(new User("teacher2", baseSiteVersion), students);
+        otherClassroom.enrollStudent(testClassroom.getStudents().get(0));
+        //6 students in the other classroom, 10 in ours
+        assertEquals(6, testClassroom.getNumStudentsAffected());
+        assertEquals(10, otherClassroom.getNumStudentsAffected());
+
+        otherClassroom.increaseNumStudentsInfected();
+        otherClassroom.enrollStudent(new User("late", baseSiteVersion));
+        assertEquals(6, testClassroom.getNumStudentsAffected());
+
+        otherClassroom.unenrollStudent(testClassroom.getStudents().get(0));
+        assertEquals(0, testClassroom.getNumStudentsAffected());
+    }
+
+    @Test
+    public void testReassignTeacherUnlinksOldTeacher() throws Exception {
+        User oldTeacher = testClassroom.getTeacher();
+        Class otherClassroom = new Class(new User("teacher2", baseSiteVersion), new ArrayList<>());
+        otherClassroom.enrollStudent(oldTeacher);
+        assertEquals(1, testClassroom.getConnectedClasses().size());
+
+        //the old teacher was the only link between the classes
+        testClassroom.enrollTeacher(testClassroom.getStudents().get(0));
+        assertEquals(0, oldTeacher.getTeachingClasses().size());
+        assertEquals(0, testClassroom.getConnectedClasses().size());
+        assertEquals(0, otherClassroom.getConnectedClasses().size());
+
+        //reassigning back and forth leaves one teaching class behind, not one per reassignment
+        User newTeacher = new User("newTeacher", baseSiteVersion);
+        for (int i = 0; i < 10; i++) {
+            testClassroom.enrollTeacher(newTeacher);
+            testClassroom.enrollTeacher(oldTeacher);
+        }
+        assertEquals(1, oldTeacher.getTeachingClasses().size());
+        assertEquals(0, newTeacher.getTeachingClasses().size());
+        assertEquals(1, testClassroom.getConnectedClasses().size());
+    }
+
+    @Test
+    public void testUnenrollMovesLastStudent() throws Exception {
+        User first = testClassroom.getStudents().get(0);
+        User last = testClassroom.getStudents().get(9);
+        testClassroom.enrollStudent(first);
+        assertEquals(true, testClassroom.unenrollStudent(first));
+        assertEquals(10, testClassroom.getStudents().size());
+        assertEquals(first, testClassroom.getStudents().get(0));
+        assertEquals(1, first.getTakingClasses().size());
+
+        assertEquals(true, testClassroom.unenrollStudent(first));
+        assertEquals(last, testClassroom.getStudents().get(0));
+        assertEquals(0, first.getTakingClasses().size());
+        assertEquals(false, testClassroom.unenrollStudent(first));
+
+        assertEquals(true, testClassroom.unenrollStudent(last));
+        assertEquals(8, testClassroom.getStudents().size());
+        assertEquals(false, testClassroom.getStudents().contains(last));
+    }
+
+}
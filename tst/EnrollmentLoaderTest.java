@@ -0,0 +1,119 @@
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class EnrollmentLoaderTest {
+    private String baseSiteVersion = "11";
+
+    //class 7: teacher 100, students 1, 2. class 8: teacher 1, student 3. class 9: teacher 200, student 4
+    private static final long[][] ROWS = {
+            {100, 7, 1}, {1, 7, 0}, {2, 7, 0}, {3, 8, 0}, {1, 8, 1}, {200, 9, 1}, {4, 9, 0}
+    };
+
+    @Test
+    public void testLoadCsv() throws Exception {
+        EnrollmentLoader loader = new EnrollmentLoader();
+        loader.load(writeCsv("userId,classId,role\n", "teacher"));
+        checkGraph(loader);
+    }
+
+    @Test
+    public void testLoadBinary() throws Exception {
+        EnrollmentLoader loader = new EnrollmentLoader();
+        loader.load(writeBinary());
+        checkGraph(loader);
+    }
+
+    @Test(expected = IOException.class)
+    public void testClassWithoutTeacher() throws Exception {
+        EnrollmentLoader loader = new EnrollmentLoader();
+        loader.load(writeCsv("", "student"));
+        loader.buildGraph();
+    }
+
+    @Test(expected = IOException.class)
+    public void testOverflowingIdRejected() throws Exception {
+        //wraps to 0 if the parser overflows, which would merge the user into the teacher of class 1
+        Path file = Files.createTempFile("enrollments", ".csv");
+        file.toFile().deleteOnExit();
+        Files.write(file, "0,1,teacher\n18446744073709551616,1,student\n".getBytes("US-ASCII"));
+        new EnrollmentLoader().load(file);
+    }
+
+    @Test
+    public void testEnvironmentFromEnrollments() throws Exception {
+        EnrollmentLoader loader = new EnrollmentLoader();
+        loader.load(writeBinary());
+        TestEnvironment testEnv = new TestEnvironment(baseSiteVersion, false);
+        testEnv.addEnrollments(loader);
+        assertEquals(6, testEnv.getAllUsersList().size());
+        assertEquals(2, testEnv.getNumComponents());
+
+        Class first = testEnv.getAllClasses().get(0);
+        Class second = testEnv.getAllClasses().get(1);
+        assertEquals("100", first.getTeacher().getName());
+        assertEquals(true, first.getConnectedClasses().contains(second));
+        assertEquals(true, second.getConnectedClasses().contains(first));
+        assertEquals(1, first.getNumStudentsAffected());
+
+        //later enrollments keep the bulk loaded classes connected as usual
+        Class third = testEnv.getAllClasses().get(2);
+        User student = third.getStudents().get(0);
+        second.enrollStudent(student);
+        assertEquals(true, third.getConnectedClasses().contains(second));
+        assertEquals(true, second.getConnectedClasses().contains(third));
+        assertEquals(1, testEnv.getNumComponents());
+
+        testEnv.totalInfection(first.getTeacher(), "22", TraversalMode.SEQUENTIAL);
+        assertEquals(6, testEnv.getInfectedUsers().size());
+        assertEquals("22", student.getSiteVersion());
+        assertEquals(2, second.getNumStudentsInfected());
+    }
+
+    private void checkGraph(EnrollmentLoader loader) throws IOException {
+        assertEquals(6, loader.getNumUsers());
+        assertEquals(3, loader.getNumClasses());
+        assertEquals(100, loader.getUserKey(0));
+        assertEquals(8, loader.getClassKey(1));
+        Graph graph = loader.buildGraph();
+        assertEquals(0, graph.getTeacher(0));
+        assertEquals(2, graph.getNumStudents(0));
+        //user 1 is the second user seen, and teaches class 8
+        assertEquals(1, graph.getTeacher(1));
+        assertEquals(1, graph.getNumStudents(1));
+        assertEquals(1, graph.getNumConnectedClasses(0));
+        assertEquals(0, graph.getNumConnectedClasses(2));
+    }
+
+    private Path writeCsv(String header, String teacherRole) throws IOException {
+        StringBuilder sb = new StringBuilder(header);
+        for (long[] row : ROWS) {
+            sb.append(row[0]).append(',').append(row[1]).append(',')
+                    .append(row[2] == 1 ? teacherRole : "student").append("\r\n");
+        }
+        Path file = Files.createTempFile("enrollments", ".csv");
+        file.toFile().deleteOnExit();
+        Files.write(file, sb.toString().getBytes("US-ASCII"));
+        return file;
+    }
+
+    private Path writeBinary() throws IOException {
+        Path file = Files.createTempFile("enrollments", ".bin");
+        file.toFile().deleteOnExit();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(EnrollmentLoader.BINARY_MAGIC);
+            out.writeInt(EnrollmentLoader.BINARY_VERSION);
+            for (long[] row : ROWS) {
+                out.writeLong(row[0]);
+                out.writeLong(row[1]);
+                out.writeByte((int) row[2]);
+            }
+        }
+        return file;
+    }
+}
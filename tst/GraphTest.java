@@ -0,0 +1,92 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class GraphTest {
+    private String baseSiteVersion = "11";
+    private Graph graph;
+
+    @Before
+    public void setUp() {
+        //class 0: teacher t0, students a, b. class 1: teacher a, student c. class 2: teacher t2, student d
+        User t0 = new User("t0", baseSiteVersion);
+        User a = new User("a", baseSiteVersion);
+        User b = new User("b", baseSiteVersion);
+        User c = new User("c", baseSiteVersion);
+        User t2 = new User("t2", baseSiteVersion);
+        User d = new User("d", baseSiteVersion);
+        List<Class> classes = new ArrayList<>();
+        classes.add(new Class(t0, list(a, b)));
+        classes.add(new Class(a, list(c)));
+        classes.add(new Class(t2, list(d)));
+
+        Map<User, Integer> userIds = new HashMap<>();
+        for (User user : list(t0, a, b, c, t2, d)) {
+            userIds.put(user, userIds.size());
+        }
+        graph = Graph.build(userIds.size(), userIds, classes);
+    }
+
+    @Test
+    public void testClassMembers() throws Exception {
+        assertEquals(3, graph.getNumClasses());
+        assertEquals(0, graph.getTeacher(0));
+        assertEquals(2, graph.getNumStudents(0));
+        assertEquals(1, graph.getTeacher(1));
+        assertEquals(3, graph.classMemberAt(graph.classMemberStart(1) + 1));
+    }
+
+    @Test
+    public void testUserClassesAndRoles() throws Exception {
+        //user a takes class 0 and teaches class 1
+        assertEquals(2, graph.getNumClassesOfUser(1));
+        int teaching = 0;
+        for (int i = graph.userClassStart(1); i < graph.userClassEnd(1); i++) {
+            if (graph.isTeachingEdge(i)) {
+                teaching++;
+                assertEquals(1, graph.userClassAt(i));
+            }
+        }
+        assertEquals(1, teaching);
+    }
+
+    @Test
+    public void testConnectedClasses() throws Exception {
+        assertEquals(1, graph.getNumConnectedClasses(0));
+        assertEquals(1, graph.connectedAt(graph.connectedStart(0)));
+        assertEquals(1, graph.getNumConnectedClasses(1));
+        assertEquals(0, graph.getNumConnectedClasses(2));
+    }
+
+    @Test
+    public void testUnenrollDisconnects() throws Exception {
+        Class first = new Class(new User("t", baseSiteVersion));
+        Class second = new Class(new User("t'", baseSiteVersion));
+        User shared = new User("shared", baseSiteVersion);
+        first.enrollStudent(shared);
+        second.enrollStudent(shared);
+        second.enrollStudent(shared);
+        assertEquals(true, first.getConnectedClasses().contains(second));
+
+        //still linked through the second enrollment
+        second.unenrollStudent(shared);
+        assertEquals(true, first.getConnectedClasses().contains(second));
+        second.unenrollStudent(shared);
+        assertEquals(0, first.getConnectedClasses().size());
+        assertEquals(0, second.getConnectedClasses().size());
+    }
+
+    private List<User> list(User... users) {
+        List<User> list = new ArrayList<>();
+        for (User user : users) {
+            list.add(user);
+        }
+        return list;
+    }
+}
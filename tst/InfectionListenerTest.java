@@ -0,0 +1,167 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class InfectionListenerTest {
+    private String baseSiteVersion = "11";
+    private TestEnvironment testEnv;
+    private List<Class> classes;
+
+    @Before
+    public void setUp() {
+        //a chain of 50 classes of 20 students, each sharing a student with the next
+        testEnv = new TestEnvironment(baseSiteVersion, false, 2);
+        classes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            List<User> students = new ArrayList<>();
+            for (int j = 0; j < 20; j++) {
+                students.add(new User(j + "," + i + "student", baseSiteVersion));
+            }
+            classes.add(new Class(new User(i + "teacher", baseSiteVersion), students));
+        }
+        for (int i = 0; i + 1 < classes.size(); i++) {
+            classes.get(i + 1).enrollStudent(classes.get(i).getStudents().get(0));
+        }
+        for (Class classroom : classes) {
+            testEnv.addClass(classroom);
+        }
+    }
+
+    @Test
+    public void testBatchesCoverTheRun() throws Exception {
+        RecordingListener listener = new RecordingListener(-1);
+        testEnv.setInfectionListener(listener, 64);
+        testEnv.totalInfection(classes.get(0).getTeacher(), "12", TraversalMode.SEQUENTIAL);
+
+        assertEquals(testEnv.getAllUsersList().size(), listener.users.size());
+        assertEquals(classes.size(), listener.numClasses);
+        assertEquals(listener.users.size(), listener.completedWith);
+        assertEquals(false, listener.stopped);
+        assertEquals(1f, listener.lastPercentage);
+        for (int user : listener.users) {
+            assertEquals("12", testEnv.getAllUsersList().get(user).getSiteVersion());
+        }
+    }
+
+    @Test
+    public void testListenerStopsTheRun() throws Exception {
+        RecordingListener listener = new RecordingListener(2);
+        testEnv.setInfectionListener(listener, 30);
+        testEnv.limitedInfection("12", 0.9f);
+
+        //stopped well short of the target, with every infected user delivered and no class split
+        assertEquals(true, listener.stopped);
+        assertEquals(testEnv.getInfectedUsers().size(), listener.users.size());
+        assertEquals(true, testEnv.getTotalPercentageInfected() < 0.5f);
+        for (Class c : classes) {
+            assertEquals(true, c.isCompletelyInfected() || c.getNumStudentsInfected() <= 1);
+        }
+    }
+
+    @Test
+    public void testEventQueueHandsBatchesToAnotherThread() throws Exception {
+        InfectionEventQueue queue = new InfectionEventQueue(2);
+        testEnv.setInfectionListener(queue, 10);
+        Thread run = new Thread(() -> testEnv.totalInfection(classes.get(0).getTeacher(), "12",
+                TraversalMode.SEQUENTIAL));
+        run.start();
+        int numUsers = 0;
+        for (InfectionBatch batch = queue.take(); batch != null; batch = queue.take()) {
+            assertEquals(true, batch.getUsers().length <= 10);
+            numUsers += batch.getUsers().length;
+        }
+        run.join();
+        assertEquals(testEnv.getAllUsersList().size(), numUsers);
+        assertEquals(numUsers, queue.getNumInfected());
+    }
+
+    @Test
+    public void testEventQueueIsReusedForTheNextRun() throws Exception {
+        InfectionEventQueue queue = new InfectionEventQueue(2);
+        testEnv.setInfectionListener(queue, 10);
+        for (String siteVersion : new String[] {"12", "13"}) {
+            Thread run = new Thread(() -> testEnv.totalInfection(classes.get(0).getTeacher(), siteVersion,
+                    TraversalMode.SEQUENTIAL));
+            run.start();
+            int numUsers = 0;
+            for (InfectionBatch batch = queue.take(); batch != null; batch = queue.take()) {
+                numUsers += batch.getUsers().length;
+            }
+            run.join();
+            //the end of the first run doesn't end the second one early
+            assertEquals(testEnv.getAllUsersList().size(), numUsers);
+            assertEquals(numUsers, queue.getNumInfected());
+            assertEquals(siteVersion, testEnv.getAllUsersList().get(numUsers - 1).getSiteVersion());
+        }
+    }
+
+    @Test
+    public void testEventQueueIsReusedAfterAnEarlyStop() throws Exception {
+        InfectionEventQueue queue = new InfectionEventQueue(2);
+        testEnv.setInfectionListener(queue, 10);
+        Thread abandoned = new Thread(() -> testEnv.totalInfection(classes.get(0).getTeacher(), "12",
+                TraversalMode.SEQUENTIAL));
+        abandoned.start();
+        queue.take();
+        //the consumer stops taking, the run is freed from the full queue by the cancellation
+        queue.cancel();
+        abandoned.join();
+
+        //the batches the first consumer left behind aren't handed to the next one
+        Thread run = new Thread(() -> testEnv.totalInfection(classes.get(0).getTeacher(), "13",
+                TraversalMode.SEQUENTIAL));
+        run.start();
+        List<Integer> users = new ArrayList<>();
+        for (InfectionBatch batch = queue.take(); batch != null; batch = queue.take()) {
+            for (int user : batch.getUsers()) {
+                users.add(user);
+            }
+        }
+        run.join();
+        //the site versions are written back to the users once the run is done
+        for (int user : users) {
+            assertEquals("13", testEnv.getAllUsersList().get(user).getSiteVersion());
+        }
+        assertEquals(true, users.size() > 0);
+        assertEquals(users.size(), queue.getNumInfected());
+    }
+
+    /**
+     * Keeps every user delivered, and stops the run after stopAfter batches unless it is negative
+     */
+    private static class RecordingListener implements InfectionListener {
+        private final int stopAfter;
+        private final List<Integer> users = new ArrayList<>();
+        private int numBatches;
+        private int numClasses;
+        private float lastPercentage;
+        private int completedWith = -1;
+        private boolean stopped;
+
+        RecordingListener(int stopAfter) {
+            this.stopAfter = stopAfter;
+        }
+
+        @Override
+        public boolean onBatch(InfectionBatch batch) {
+            assertEquals(true, batch.getPercentageInfected() >= lastPercentage);
+            lastPercentage = batch.getPercentageInfected();
+            for (int user : batch.getUsers()) {
+                users.add(user);
+            }
+            numClasses += batch.getClasses().length;
+            numBatches++;
+            return stopAfter < 0 || numBatches < stopAfter;
+        }
+
+        @Override
+        public void onComplete(int numInfected, boolean stopped) {
+            completedWith = numInfected;
+            this.stopped = stopped;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class InfectionMetricsTest {
+    private String baseSiteVersion = "11";
+
+    @Test
+    public void testRunsAreCounted() throws Exception {
+        TestEnvironment testEnv = new TestEnvironment(baseSiteVersion, false, 1);
+        InfectionMetrics metrics = new InfectionMetrics();
+        testEnv.setMetrics(metrics);
+        List<Class> classes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            List<User> students = new ArrayList<>();
+            for (int j = 0; j < 10; j++) {
+                students.add(new User(j + "," + i + "student", baseSiteVersion));
+            }
+            classes.add(new Class(new User(i + "teacher", baseSiteVersion), students));
+            testEnv.addClass(classes.get(i));
+        }
+        classes.get(1).enrollStudent(classes.get(0).getStudents().get(0));
+
+        testEnv.totalInfection(classes.get(0).getTeacher(), "12", TraversalMode.SEQUENTIAL);
+        testEnv.limitedInfection("13", 0.5f);
+        InfectionMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(2, snapshot.getNumRuns());
+        assertEquals(1, snapshot.getGraphBuildNanos().getCount());
+        assertEquals(2, snapshot.getTraversalNanos().getCount());
+        assertEquals(testEnv.getInfectedUsers().size(), (int) snapshot.getNumUsersInfected());
+        assertEquals(true, snapshot.getNumUsersVisited() >= snapshot.getNumUsersInfected());
+        assertEquals(true, snapshot.getNumEdgesScanned() > 0);
+
+        //later runs don't change a snapshot
+        testEnv.totalInfection("14");
+        assertEquals(2, snapshot.getNumRuns());
+
+        Path file = Files.createTempFile("metrics", ".prom");
+        file.toFile().deleteOnExit();
+        metrics.snapshot().writePrometheus(file);
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(true, lines.contains("infection_runs_total 3"));
+        assertEquals(true, lines.contains("infection_phase_seconds_count{phase=\"traversal\"} 3"));
+    }
+
+    @Test
+    public void testHistogramQuantiles() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500000L, histogram.getSum());
+        //buckets are within 1/8 of the value
+        long median = histogram.getValueAtQuantile(0.5);
+        assertEquals(true, median >= 500000 && median <= 500000 * 9 / 8);
+        long max = histogram.getMax();
+        assertEquals(true, max >= 1000000 && max <= 1000000 * 9 / 8);
+        LatencyHistogram small = new LatencyHistogram();
+        small.record(7);
+        assertEquals(7, small.getMax());
+    }
+}
@@ -0,0 +1,64 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class InfectionStateTest {
+    private String baseSiteVersion = "11";
+    private int numStudents = 200;
+    private Graph graph;
+    private InfectionState state;
+
+    @Before
+    public void setUp() {
+        List<User> students = new ArrayList<>();
+        Map<User, Integer> userIds = new HashMap<>();
+        User teacher = new User("teacher", baseSiteVersion);
+        userIds.put(teacher, 0);
+        for (int i = 0; i < numStudents; i++) {
+            User student = new User(i+"", baseSiteVersion);
+            students.add(student);
+            userIds.put(student, userIds.size());
+        }
+        List<Class> classes = new ArrayList<>();
+        classes.add(new Class(teacher, students));
+        graph = Graph.build(userIds.size(), userIds, classes);
+        state = new InfectionState();
+        state.resize(graph);
+    }
+
+    @Test
+    public void testMarkInfectedCountsOnce() throws Exception {
+        assertEquals(true, state.markInfected(graph, 70));
+        assertEquals(false, state.markInfected(graph, 70));
+        assertEquals(1, state.getNumInfected());
+        assertEquals(1, state.countInfected());
+        assertEquals(1, state.getNumStudentsInfected(0));
+    }
+
+    @Test
+    public void testNextInfectedAcrossWords() throws Exception {
+        state.markInfected(graph, 3);
+        state.markInfected(graph, 64);
+        state.markInfected(graph, 190);
+        assertEquals(3, state.nextInfected(0));
+        assertEquals(64, state.nextInfected(4));
+        assertEquals(190, state.nextInfected(65));
+        assertEquals(graph.getNumUsers(), state.nextInfected(191));
+    }
+
+    @Test
+    public void testCompletelyInfectedNeedsTeacher() throws Exception {
+        for (int u = 1; u < graph.getNumUsers(); u++) {
+            state.markInfected(graph, u);
+        }
+        assertEquals(false, state.isCompletelyInfected(graph, 0));
+        state.markInfected(graph, 0);
+        assertEquals(true, state.isCompletelyInfected(graph, 0));
+    }
+}
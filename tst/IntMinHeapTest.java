@@ -0,0 +1,72 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class IntMinHeapTest {
+
+    @Test
+    public void testPollsInKeyOrder() throws Exception {
+        IntMinHeap heap = new IntMinHeap(10);
+        int[] keys = {50, 20, 70, 20, 10, 90};
+        for (int id = 0; id < keys.length; id++) {
+            heap.add(id, keys[id]);
+        }
+        //adding an id again only lowers its key
+        heap.add(5, 5);
+        heap.add(0, 60);
+        heap.decreaseKey(2, 15);
+        assertEquals(6, heap.size());
+        int[] expected = {5, 4, 2, 1, 3, 0};
+        for (int id : expected) {
+            assertEquals(true, heap.contains(id));
+            assertEquals(id, heap.poll());
+            assertEquals(false, heap.contains(id));
+        }
+        assertEquals(true, heap.isEmpty());
+    }
+
+    @Test
+    public void testRandomOperationsPollInSortedOrder() throws Exception {
+        Random random = new Random(7);
+        for (int trial = 0; trial < 2000; trial++) {
+            int capacity = 1 + random.nextInt(30);
+            IntMinHeap heap = new IntMinHeap(capacity);
+            int[] keys = new int[capacity];
+            List<Integer> inHeap = new ArrayList<>();
+            for (int op = 0; op < 3 * capacity; op++) {
+                int id = random.nextInt(capacity);
+                int key = random.nextInt(50);
+                if (!heap.contains(id)) {
+                    heap.add(id, key);
+                    keys[id] = key;
+                    inHeap.add(id);
+                } else if (random.nextInt(3) > 0) {
+                    heap.decreaseKey(id, key);
+                    keys[id] = Math.min(keys[id], key);
+                } else {
+                    //the reference's smallest key, ties broken by the smaller id
+                    int min = inHeap.get(0);
+                    for (int other : inHeap) {
+                        if (keys[other] < keys[min] || (keys[other] == keys[min] && other < min)) {
+                            min = other;
+                        }
+                    }
+                    assertEquals(min, heap.poll());
+                    inHeap.remove(Integer.valueOf(min));
+                }
+            }
+            int previous = -1;
+            while (!heap.isEmpty()) {
+                int id = heap.poll();
+                assertEquals(true, keys[id] >= previous);
+                previous = keys[id];
+                inHeap.remove(Integer.valueOf(id));
+            }
+            assertEquals(0, inHeap.size());
+        }
+    }
+}
@@ -0,0 +1,31 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class ListPositionsTest {
+
+    @Test
+    public void testSwapRemoveWithDuplicates() throws Exception {
+        List<String> list = new ArrayList<>(Arrays.asList("a", "b", "a", "c"));
+        ListPositions<String> positions = new ListPositions<>(list);
+        list.add("b");
+        positions.elementAdded("b");
+
+        //the latest "a" goes, and the last element takes its place
+        assertEquals(true, positions.swapRemove("a"));
+        assertEquals(Arrays.asList("a", "b", "b", "c"), list);
+        assertEquals(true, positions.swapRemove("b"));
+        assertEquals(Arrays.asList("a", "b", "c"), list);
+        assertEquals(true, positions.swapRemove("a"));
+        assertEquals(Arrays.asList("c", "b"), list);
+        assertEquals(false, positions.contains("a"));
+        assertEquals(false, positions.swapRemove("a"));
+        assertEquals(true, positions.swapRemove("b"));
+        assertEquals(true, positions.swapRemove("c"));
+        assertEquals(0, list.size());
+    }
+}
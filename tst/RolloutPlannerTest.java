@@ -0,0 +1,83 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class RolloutPlannerTest {
+    private String baseSiteVersion = "11";
+    private TestEnvironment testEnv;
+
+    @Before
+    public void setUp() {
+        //200 classes of 20 to 70 students, each sharing a few students with the next class
+        testEnv = new TestEnvironment(baseSiteVersion, false, 5);
+        Random random = new Random(7);
+        List<Class> classes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            List<User> students = new ArrayList<>();
+            int size = 20 + random.nextInt(50);
+            for (int j = 0; j < size; j++) {
+                students.add(new User(j + "," + i + "student", baseSiteVersion));
+            }
+            classes.add(new Class(new User(i + "teacher", baseSiteVersion), students));
+        }
+        for (int i = 0; i + 1 < classes.size(); i++) {
+            if (random.nextInt(3) != 0) {
+                classes.get(i + 1).enrollStudent(classes.get(i).getStudents().get(0));
+            }
+        }
+        for (Class classroom : classes) {
+            testEnv.addClass(classroom);
+        }
+    }
+
+    @Test
+    public void testBestPlanIsAppliedUnchanged() throws Exception {
+        RolloutPlanner planner = new RolloutPlanner(testEnv, 3);
+        List<RolloutCandidate> candidates = RolloutCandidate.sweep(9, 10, new float[]{0.01f, 0.05f},
+                new float[]{0.001f, 0.005f});
+        candidates.add(new RolloutCandidate(1, 0, 0.05f, 0.005f));
+        List<RolloutPlan> plans = planner.evaluate("12", 0.3f, candidates);
+        assertEquals(candidates.size(), plans.size());
+        RolloutPlan best = planner.findBestPlan("12", 0.3f, candidates);
+        planner.shutdown();
+
+        //nothing was infected by planning, and the scratch states didn't leak between candidates
+        assertEquals(0, testEnv.getInfectedUsers().size());
+        for (int i = 0; i < plans.size(); i++) {
+            assertEquals(candidates.get(i), plans.get(i).getCandidate());
+            assertEquals(true, plans.get(i).getPercentageInfected() >= 0.3f);
+            assertEquals(true, best.getScore() <= plans.get(i).getScore());
+        }
+        assertEquals(true, Arrays.equals(plans.get(best.getResult().getRolloutId()).getResult().getInfectedUsers(),
+                best.getResult().getInfectedUsers()));
+        //the last candidate starts from the first class
+        int[] fromFirstClass = plans.get(plans.size() - 1).getResult().getInfectedUsers();
+        assertEquals(testEnv.getGraph().getTeacher(0), fromFirstClass[0]);
+
+        testEnv.applyRollout(best.getResult());
+        assertEquals(best.getResult().getNumInfected(), testEnv.getInfectedUsers().size());
+        assertEquals(best.getPercentageInfected(), testEnv.getTotalPercentageInfected());
+    }
+
+    @Test
+    public void testPlansOnTopOfExistingInfection() throws Exception {
+        testEnv.limitedInfection("12", 0.5f);
+        float infectedBefore = testEnv.getTotalPercentageInfected();
+        RolloutPlanner planner = new RolloutPlanner(testEnv, 2);
+        RolloutPlan best = planner.findBestPlan("12", 0.8f, RolloutCandidate.sweep(3, 4, new float[]{0.05f},
+                new float[]{0.005f}));
+        planner.shutdown();
+
+        //the plan is scored against the infected percentage it leads to, not just the users it adds
+        assertEquals(true, best.getPercentageInfected() >= 0.8f);
+        assertEquals(true, best.getResult().getPercentageInfected() < 0.8f - infectedBefore + 0.05f);
+        testEnv.applyRollout(best.getResult());
+        assertEquals(best.getPercentageInfected(), testEnv.getTotalPercentageInfected());
+    }
+}
@@ -0,0 +1,109 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class RolloutServiceTest {
+    private String baseSiteVersion = "11";
+    private TestEnvironment testEnv;
+
+    @Before
+    public void setUp() {
+        //200 classes of 50 students, each sharing a few students with the next class
+        testEnv = new TestEnvironment(baseSiteVersion, false, 5);
+        Random random = new Random(5);
+        List<Class> classes = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            List<User> students = new ArrayList<>();
+            for (int j = 0; j < 50; j++) {
+                students.add(new User(j + "," + i + "student", baseSiteVersion));
+            }
+            classes.add(new Class(new User(i + "teacher", baseSiteVersion), students));
+        }
+        for (int i = 0; i + 1 < classes.size(); i++) {
+            if (random.nextInt(4) != 0) {
+                classes.get(i + 1).enrollStudent(classes.get(i).getStudents().get(0));
+            }
+        }
+        for (Class classroom : classes) {
+            testEnv.addClass(classroom);
+        }
+    }
+
+    @Test
+    public void testFirstClaimWinsKeepsRolloutsDisjoint() throws Exception {
+        RolloutService service = new RolloutService(testEnv, ConflictPolicy.FIRST_CLAIM_WINS, 4);
+        List<Future<RolloutResult>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(service.submitLimitedInfection("2" + i, 0.2f));
+        }
+        futures.add(service.submitTotalInfection("30"));
+        Set<Integer> seen = new HashSet<>();
+        for (Future<RolloutResult> future : futures) {
+            RolloutResult result = future.get();
+            assertEquals(true, result.getNumInfected() > 0);
+            for (int user : result.getInfectedUsers()) {
+                assertEquals(true, seen.add(user));
+                assertEquals(result.getRolloutId(), service.getOwner(user));
+            }
+            testEnv.applyRollout(result);
+        }
+        service.shutdown();
+
+        assertEquals(seen.size(), testEnv.getInfectedUsers().size());
+        for (Future<RolloutResult> future : futures) {
+            RolloutResult result = future.get();
+            for (int user : result.getInfectedUsers()) {
+                assertEquals(result.getSiteVersion(), testEnv.getAllUsersList().get(user).getSiteVersion());
+            }
+        }
+    }
+
+    @Test
+    public void testIndependentRolloutsDontSeeEachOther() throws Exception {
+        RolloutService service = new RolloutService(testEnv, ConflictPolicy.INDEPENDENT, 2);
+        RolloutResult first = service.submitLimitedInfection("21", 0.5f).get();
+        RolloutResult second = service.submitLimitedInfection("22", 0.5f).get();
+        service.shutdown();
+        //neither run changed the environment, and both could reach half of the users
+        assertEquals(0, testEnv.getInfectedUsers().size());
+        assertEquals(true, first.getPercentageInfected() >= 0.5f);
+        assertEquals(true, second.getPercentageInfected() >= 0.5f);
+        assertEquals(-1, service.getOwner(first.getInfectedUsers()[0]));
+
+        testEnv.applyRollout(first);
+        testEnv.applyRollout(second);
+        for (int user : second.getInfectedUsers()) {
+            assertEquals("22", testEnv.getAllUsersList().get(user).getSiteVersion());
+        }
+    }
+
+    @Test
+    public void testRolloutOnTopOfExistingInfection() throws Exception {
+        testEnv.limitedInfection("21", 0.5f);
+        Set<Integer> infectedBefore = new HashSet<>();
+        for (int u = 0; u < testEnv.getAllUsersList().size(); u++) {
+            if (testEnv.getAllUsersList().get(u).getSiteVersion().equals("21")) {
+                infectedBefore.add(u);
+            }
+        }
+        RolloutService service = new RolloutService(testEnv, ConflictPolicy.INDEPENDENT, 2);
+        RolloutResult result = service.submitLimitedInfection("21", 0.8f).get();
+        service.shutdown();
+
+        //only users that weren't on the site version yet are taken, and only as many as the target still needs
+        for (int user : result.getInfectedUsers()) {
+            assertEquals(false, infectedBefore.contains(user));
+        }
+        assertEquals(true, result.getPercentageInfected() < 0.5f);
+        testEnv.applyRollout(result);
+        assertEquals(true, testEnv.getTotalPercentageInfected() >= 0.8f);
+    }
+}
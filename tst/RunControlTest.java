@@ -0,0 +1,116 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class RunControlTest {
+    private String baseSiteVersion = "11";
+
+    @Test
+    public void testResumedLimitedInfectionMatchesUninterrupted() throws Exception {
+        for (LimitedInfectionMode mode : new LimitedInfectionMode[]{LimitedInfectionMode.CLASS_QUEUE,
+                LimitedInfectionMode.CHEAPEST_FIRST}) {
+            TestEnvironment uninterrupted = createEnvironment();
+            uninterrupted.limitedInfection("12", 0.4f, mode);
+            assertEquals(null, uninterrupted.getCheckpoint());
+
+            TestEnvironment windowed = createEnvironment();
+            //the same control bounds every window, as its steps start over with each run
+            RunControl control = stepLimit(3);
+            windowed.setRunControl(control);
+            windowed.limitedInfection("12", 0.4f, mode);
+            int numWindows = 1;
+            while (windowed.getCheckpoint() != null) {
+                assertEquals(false, windowed.hitTarget(0.4f));
+                assertEquals(3L * numWindows, windowed.getCheckpoint().getNumSteps());
+                windowed.resume(windowed.getCheckpoint());
+                numWindows++;
+            }
+            assertEquals(true, numWindows > 2);
+            assertEquals(infectedIds(uninterrupted), infectedIds(windowed));
+        }
+    }
+
+    @Test
+    public void testCancelledTotalInfectionResumes() throws Exception {
+        TestEnvironment testEnv = createEnvironment();
+        User start = testEnv.getAllUsersList().get(0);
+        RunControl control = new RunControl();
+        control.cancel();
+        testEnv.setRunControl(control);
+        testEnv.totalInfection(start, "12", TraversalMode.SEQUENTIAL);
+        InfectionCheckpoint checkpoint = testEnv.getCheckpoint();
+        assertEquals(InfectionCheckpoint.Kind.TOTAL, checkpoint.getKind());
+        //only the start user was infected before the first step
+        assertEquals(1, testEnv.getInfectedUsers().size());
+        assertEquals(1, checkpoint.getNumInfected());
+        assertEquals(1L << testEnv.getAllUsersList().indexOf(start) % 64,
+                checkpoint.getInfectedBits().get(testEnv.getAllUsersList().indexOf(start) / 64));
+
+        testEnv.setRunControl(null);
+        testEnv.resume(checkpoint);
+        assertEquals(null, testEnv.getCheckpoint());
+        assertEquals(testEnv.getComponentSize(start), testEnv.getInfectedUsers().size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCheckpointInvalidatedByEnrollment() throws Exception {
+        TestEnvironment testEnv = createEnvironment();
+        testEnv.setRunControl(stepLimit(1));
+        testEnv.limitedInfection("12", 0.4f);
+        testEnv.getAllClasses().get(0).enrollStudent(new User("late", baseSiteVersion));
+        testEnv.resume(testEnv.getCheckpoint());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCheckpointInvalidatedByAnotherRun() throws Exception {
+        TestEnvironment testEnv = createEnvironment();
+        testEnv.setRunControl(stepLimit(1));
+        testEnv.limitedInfection("12", 0.4f);
+        InfectionCheckpoint checkpoint = testEnv.getCheckpoint();
+        testEnv.setRunControl(null);
+        testEnv.limitedInfection("13", 0.1f);
+        testEnv.resume(checkpoint);
+    }
+
+    private RunControl stepLimit(long steps) {
+        RunControl control = new RunControl();
+        control.setStepLimit(steps);
+        return control;
+    }
+
+    private TestEnvironment createEnvironment() {
+        TestEnvironment testEnv = new TestEnvironment(baseSiteVersion, false, 6);
+        Random random = new Random(6);
+        List<Class> classes = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            List<User> students = new ArrayList<>();
+            int size = 5 + random.nextInt(30);
+            for (int j = 0; j < size; j++) {
+                students.add(new User(j + "," + i + "student", baseSiteVersion));
+            }
+            classes.add(new Class(new User(i + "teacher", baseSiteVersion), students));
+        }
+        for (int i = 0; i + 1 < classes.size(); i++) {
+            classes.get(i + 1).enrollStudent(classes.get(random.nextInt(i + 1)).getStudents().get(0));
+        }
+        for (Class classroom : classes) {
+            testEnv.addClass(classroom);
+        }
+        return testEnv;
+    }
+
+    private List<Integer> infectedIds(TestEnvironment testEnv) {
+        List<Integer> infected = new ArrayList<>();
+        List<User> allUsers = testEnv.getAllUsersList();
+        for (int i = 0; i < allUsers.size(); i++) {
+            if (allUsers.get(i).getSiteVersion().equals("12")) {
+                infected.add(i);
+            }
+        }
+        return infected;
+    }
+}
@@ -0,0 +1,102 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class ShardedInfectionTest {
+    private String baseSiteVersion = "11";
+
+    /**
+     * @return 300 classes of 10 to 40 students, where every class shares a student with a random earlier class
+     * two times out of three, and some users are already on site version 12
+     */
+    private TestEnvironment createEnvironment() {
+        TestEnvironment testEnv = new TestEnvironment(baseSiteVersion, false, 5);
+        Random random = new Random(11);
+        List<Class> classes = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            List<User> students = new ArrayList<>();
+            int size = 10 + random.nextInt(30);
+            for (int j = 0; j < size; j++) {
+                students.add(new User(j + "," + i + "student", random.nextInt(20) == 0 ? "12" : baseSiteVersion));
+            }
+            Class classroom = new Class(new User(i + "teacher", baseSiteVersion), students);
+            if (i > 0 && random.nextInt(3) != 0) {
+                classroom.enrollStudent(classes.get(random.nextInt(i)).getStudents().get(0));
+            }
+            classes.add(classroom);
+        }
+        for (Class classroom : classes) {
+            testEnv.addClass(classroom);
+        }
+        return testEnv;
+    }
+
+    /**
+     * @return the ids of the infected users, in id order
+     */
+    private int[] infectedIds(TestEnvironment testEnv) {
+        List<Integer> ids = new ArrayList<>();
+        List<User> allUsers = testEnv.getAllUsersList();
+        for (int i = 0; i < allUsers.size(); i++) {
+            if (testEnv.getInfectedUsers().contains(allUsers.get(i))) {
+                ids.add(i);
+            }
+        }
+        int[] result = new int[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+
+    @Test
+    public void testPartitionIsBalanced() throws Exception {
+        Graph graph = createEnvironment().getGraph();
+        GraphPartition partition = GraphPartition.labelPropagation(graph, 4);
+        long totalLoad = 0;
+        for (int s = 0; s < 4; s++) {
+            totalLoad += partition.getShardLoad(s);
+            assertEquals(true, partition.getShardLoad(s) <= Math.ceil(1.1 * graph.getNumEnrollments() / 4));
+        }
+        assertEquals(graph.getNumEnrollments(), totalLoad);
+        assertEquals(true, partition.getNumCrossShardUsers() < graph.getNumUsers() / 10);
+    }
+
+    @Test
+    public void testShardedTotalInfectionMatchesSingleNode() throws Exception {
+        TestEnvironment singleNode = createEnvironment();
+        User startUser = singleNode.getAllUsersList().get(3);
+        singleNode.totalInfection(startUser, "12", TraversalMode.SEQUENTIAL);
+
+        TestEnvironment testEnv = createEnvironment();
+        GraphPartition partition = GraphPartition.labelPropagation(testEnv.getGraph(), 4);
+        ShardedInfection sharded = new ShardedInfection(testEnv, partition);
+        sharded.setBatchSize(8);
+        RolloutResult result = sharded.totalInfection(3, "12");
+        assertEquals(true, result.getNumInfected() > 0);
+        assertEquals(true, sharded.getNumMessages() > 0);
+        sharded.shutdown();
+        testEnv.applyRollout(result);
+        assertEquals(true, Arrays.equals(infectedIds(singleNode), result.getInfectedUsers()));
+        assertEquals(true, Arrays.equals(infectedIds(singleNode), infectedIds(testEnv)));
+    }
+
+    @Test
+    public void testShardedLimitedInfectionMatchesSingleNode() throws Exception {
+        TestEnvironment singleNode = createEnvironment();
+        singleNode.limitedInfection("13", 0.3f, LimitedInfectionMode.WHOLE_COMPONENTS);
+
+        TestEnvironment testEnv = createEnvironment();
+        GraphPartition partition = GraphPartition.labelPropagation(testEnv.getGraph(), 3);
+        ShardedInfection sharded = new ShardedInfection(testEnv, partition);
+        RolloutResult result = sharded.limitedInfection("13", 0.3f);
+        sharded.shutdown();
+        assertEquals(true, result.getNumInfected() > 0);
+        assertEquals(true, Arrays.equals(infectedIds(singleNode), result.getInfectedUsers()));
+    }
+}
@@ -0,0 +1,42 @@
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertEquals;
+
+public class SubsetSumTest {
+
+    @Test
+    public void testExactSum() throws Exception {
+        int[] weights = {5, 3, 3, 3, 8, 1, 12, 3};
+        boolean[] chosen = SubsetSum.select(weights, 20, 0);
+        assertEquals(20, sum(weights, chosen));
+    }
+
+    @Test
+    public void testClosestSumBelowTarget() throws Exception {
+        //nothing sums to 11, and 14 is past the tolerance
+        int[] weights = {7, 7, 3};
+        assertEquals(10, sum(weights, SubsetSum.select(weights, 11, 2)));
+        assertEquals(14, sum(weights, SubsetSum.select(weights, 13, 1)));
+    }
+
+    @Test
+    public void testManyEqualWeights() throws Exception {
+        int[] weights = new int[10000];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = i % 2 == 0 ? 6 : 10;
+        }
+        //only even sums are reachable, and ties go below the target
+        assertEquals(30002, sum(weights, SubsetSum.select(weights, 30003, 1)));
+        assertEquals(30000, sum(weights, SubsetSum.select(weights, 30000, 0)));
+    }
+
+    private int sum(int[] weights, boolean[] chosen) {
+        int sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (chosen[i]) {
+                sum += weights[i];
+            }
+        }
+        return sum;
+    }
+}
@@ -1,11 +1,17 @@
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static junit.framework.TestCase.assertEquals;
 
@@ -44,7 +50,6 @@ public class TestEnvironmentTest {
         otherClassroom.enrollStudent(testClassroom.getStudents().get(1));
 
         testEnv.addClass(otherClassroom);
-        testEnv.setAllConnectedClasses();
         //there should only be 1 connected class total
         assertEquals(1, testClassroom.getConnectedClasses().size());
         assertEquals(1, otherClassroom.getConnectedClasses().size());
@@ -61,7 +66,6 @@ public class TestEnvironmentTest {
         Class otherClassroom = new Class(teacher, students);
 
         testEnv.addClass(otherClassroom);
-        testEnv.setAllConnectedClasses();
         //there should only be 0 connected class total
         assertEquals(0, testClassroom.getConnectedClasses().size());
         assertEquals(0, otherClassroom.getConnectedClasses().size());
@@ -104,9 +108,8 @@ public class TestEnvironmentTest {
         otherClassroom.enrollStudent(testClassroom.getStudents().get(1));
 
         testEnv.addClass(otherClassroom);
-        testEnv.setAllConnectedClasses();
         //
-        Queue toInfectQueue = new LinkedList<>();
+        Queue<Class> toInfectQueue = new LinkedList<>();
         testEnv.infect(testClassroom, "12", toInfectQueue);
 
         assertEquals(true, testClassroom.isCompletelyInfected());
@@ -136,6 +139,504 @@ public class TestEnvironmentTest {
         assertEquals(1.0f, testEnv.getTotalPercentageInfected());
     }
 
+    @Test
+    public void testRandomNotInfectedUserNoneLeft() throws Exception {
+        testEnv.totalInfection("12");
+        //everybody is infected, so there is nobody left to pick and nothing left to infect
+        assertEquals(null, testEnv.getRandomNotInfectedUser());
+        assertEquals(null, testEnv.getRandomClass());
+        testEnv.totalInfection("13");
+        testEnv.limitedInfection("13", 1.5f);
+        assertEquals("12", testClassroom.getTeacher().getSiteVersion());
+    }
+
+    @Test
+    public void testRandomNotInfectedUserNearSaturation() throws Exception {
+        for (int i = 1; i < numStudents; i++) {
+            testEnv.getInfectedUsers().add(testClassroom.getStudents().get(i));
+        }
+        //only the teacher and the first student are left
+        for (int i = 0; i < 100; i++) {
+            User user = testEnv.getRandomNotInfectedUser();
+            assertEquals(true, user == testClassroom.getTeacher() || user == testClassroom.getStudents().get(0));
+        }
+    }
+
+    @Test
+    public void testComponentSizes() throws Exception {
+        //create another classroom with 5 students, not connected to the test classroom
+        List<User> students = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            students.add(new User(i+"test", baseSiteVersion));
+        }
+        User teacher = new User("teacher2", baseSiteVersion);
+        Class otherClassroom = new Class(teacher, students);
+        testEnv.addClass(otherClassroom);
+
+        assertEquals(2, testEnv.getNumComponents());
+        assertEquals(6, testEnv.getComponentSize(teacher));
+        assertEquals(1, (int) testEnv.getComponentSizeHistogram().get(numStudents + 1));
+
+        //enrolling one of the test classroom's students after the class was added joins the two components
+        otherClassroom.enrollStudent(testClassroom.getStudents().get(0));
+        assertEquals(1, testEnv.getNumComponents());
+        assertEquals(numStudents + 7, testEnv.getComponentSize(teacher));
+        assertEquals(testEnv.getComponentId(teacher), testEnv.getComponentId(testClassroom.getTeacher()));
+
+        //and unenrolling them splits them again
+        otherClassroom.unenrollStudent(testClassroom.getStudents().get(0));
+        assertEquals(2, testEnv.getNumComponents());
+        assertEquals(6, testEnv.getComponentSize(teacher));
+    }
+
+    @Test
+    public void testComponentTotalInfect() throws Exception {
+        List<User> students = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            students.add(new User(i+"test", baseSiteVersion));
+        }
+        User teacher = new User("teacher2", baseSiteVersion);
+        Class otherClassroom = new Class(teacher, students);
+        testEnv.addClass(otherClassroom);
+
+        //only the test classroom's component gets infected
+        testEnv.totalInfection(testClassroom.getTeacher(), "12", TraversalMode.COMPONENT);
+        assertEquals(numStudents + 1, testEnv.getInfectedUsers().size());
+        assertEquals(true, testClassroom.isCompletelyInfected());
+        assertEquals(baseSiteVersion, teacher.getSiteVersion());
+    }
+
+    @Test
+    public void testWholeComponentsLimitedInfection() throws Exception {
+        TestEnvironment componentTestEnv = new TestEnvironment(baseSiteVersion, false, 3);
+        List<Class> randomClasses = createRandomClasses(100, new Random(3));
+        //join some classes into bigger components
+        for (int i = 0; i + 1 < randomClasses.size(); i += 3) {
+            randomClasses.get(i + 1).enrollStudent(randomClasses.get(i).getTeacher());
+        }
+        for (Class rc : randomClasses) {
+            componentTestEnv.addClass(rc);
+        }
+        componentTestEnv.limitedInfection("12", 0.25f, LimitedInfectionMode.WHOLE_COMPONENTS);
+
+        int numUsers = componentTestEnv.getAllUsersList().size();
+        assertEquals((int) Math.ceil(0.25 * numUsers), componentTestEnv.getInfectedUsers().size());
+        for (Class c : componentTestEnv.getAllClasses()) {
+            assertEquals(true, c.isCompletelyInfected() || c.getNumStudentsInfected() == 0);
+        }
+    }
+
+    @Test
+    public void testCheapestFirstLimitedInfection() throws Exception {
+        TestEnvironment cheapestTestEnv = new TestEnvironment(baseSiteVersion, false, 4);
+        List<Class> randomClasses = createRandomClasses(200, new Random(4));
+        jumble(randomClasses, new Random(4));
+        for (Class rc : randomClasses) {
+            cheapestTestEnv.addClass(rc);
+        }
+        cheapestTestEnv.limitedInfection("12", 0.25f, LimitedInfectionMode.CHEAPEST_FIRST);
+        //stops as soon as the target is hit, within one class of it
+        assertEquals(true, cheapestTestEnv.hitTarget(0.25f));
+        float maxClassPercentage = 1001f / cheapestTestEnv.getAllUsersList().size();
+        assertEquals(true, cheapestTestEnv.getTotalPercentageInfected() < 0.25f + maxClassPercentage);
+    }
+
+    @Test
+    public void testLimitedInfectionEndsWhenUsersStartOnTarget() throws Exception {
+        //every other student is created on the target version already, and the classes share students
+        for (LimitedInfectionMode mode : new LimitedInfectionMode[] {LimitedInfectionMode.CLASS_QUEUE,
+                LimitedInfectionMode.CHEAPEST_FIRST}) {
+            TestEnvironment onTargetTestEnv = new TestEnvironment(baseSiteVersion, false, 6);
+            List<Class> classes = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                List<User> students = new ArrayList<>();
+                for (int j = 0; j < 30; j++) {
+                    students.add(new User(j + "," + i + "student", j % 2 == 0 ? "12" : baseSiteVersion));
+                }
+                classes.add(new Class(new User(i + "teacher", baseSiteVersion), students));
+            }
+            jumble(classes, new Random(6));
+            for (Class classroom : classes) {
+                onTargetTestEnv.addClass(classroom);
+            }
+            int numOnBase = 0;
+            for (User user : onTargetTestEnv.getAllUsersList()) {
+                numOnBase += user.getSiteVersion().equals(baseSiteVersion) ? 1 : 0;
+            }
+            onTargetTestEnv.limitedInfection("12", 1.0f, mode);
+
+            assertEquals(numOnBase, onTargetTestEnv.getInfectedUsers().size());
+            for (User user : onTargetTestEnv.getAllUsersList()) {
+                assertEquals("12", user.getSiteVersion());
+            }
+        }
+    }
+
+    @Test
+    public void testParallelTotalInfectMatchesSequential() throws Exception {
+        TestEnvironment randomTestEnv = new TestEnvironment(baseSiteVersion, true);
+        List<Class> randomClasses = createRandomClasses(200);
+        jumble(randomClasses);
+        for (Class rc : randomClasses) {
+            randomTestEnv.addClass(rc);
+        }
+        randomTestEnv.setParallelism(4);
+
+        User startUser = randomTestEnv.getRandomNotInfectedUser();
+        randomTestEnv.totalInfection(startUser, "12", TraversalMode.SEQUENTIAL);
+        List<User> sequentialInfected = new ArrayList<>();
+        for (User user : randomTestEnv.getAllUsersList()) {
+            if (user.getSiteVersion().equals("12")) {
+                sequentialInfected.add(user);
+            }
+        }
+        //nobody is on "13" yet, so the parallel search has to reach exactly the same users again
+        randomTestEnv.totalInfection(startUser, "13", TraversalMode.PARALLEL);
+        int parallelInfected = 0;
+        for (User user : randomTestEnv.getAllUsersList()) {
+            if (user.getSiteVersion().equals("13")) {
+                parallelInfected += 1;
+            }
+        }
+        for (User user : sequentialInfected) {
+            assertEquals("13", user.getSiteVersion());
+        }
+        assertEquals(sequentialInfected.size(), parallelInfected);
+    }
+
+    @Test
+    public void testSeededLimitedInfectionIsReproducible() throws Exception {
+        List<Integer> firstRun = seededLimitedInfection(7);
+        List<Integer> secondRun = seededLimitedInfection(7);
+        assertEquals(true, firstRun.size() > 0);
+        assertEquals(firstRun, secondRun);
+    }
+
+    @Test
+    public void testOffHeapLimitedInfectionMatchesHeap() throws Exception {
+        for (LimitedInfectionMode mode : new LimitedInfectionMode[]{LimitedInfectionMode.CLASS_QUEUE,
+                LimitedInfectionMode.WHOLE_COMPONENTS}) {
+            List<Integer> onHeap = seededLimitedInfection(7, StorageMode.HEAP, mode);
+            List<Integer> offHeap = seededLimitedInfection(7, StorageMode.OFF_HEAP, mode);
+            assertEquals(true, offHeap.size() > 0);
+            assertEquals(onHeap, offHeap);
+        }
+    }
+
+    @Test
+    public void testOffHeapRunsLeaveConnectedClassesLazy() throws Exception {
+        TestEnvironment savedTestEnv = new TestEnvironment(baseSiteVersion, true, 8);
+        Random random = new Random(8);
+        List<Class> randomClasses = createRandomClasses(50, random);
+        for (Class rc : randomClasses) {
+            Class anotherClassroom = randomClasses.get(random.nextInt(randomClasses.size()));
+            anotherClassroom.enrollStudent(rc.getStudents().get(0));
+            savedTestEnv.addClass(rc);
+        }
+        Path file = Files.createTempFile("environment", ".snapshot");
+        file.toFile().deleteOnExit();
+        savedTestEnv.saveSnapshot(file);
+
+        TestEnvironment onHeap = TestEnvironment.loadSnapshot(file, true);
+        TestEnvironment offHeap = TestEnvironment.loadSnapshot(file, true);
+        offHeap.setStorageMode(StorageMode.OFF_HEAP);
+        onHeap.setSeed(8);
+        offHeap.setSeed(8);
+        onHeap.limitedInfection("12", 0.3f);
+        offHeap.limitedInfection("12", 0.3f);
+        //the run's counts reach the classes without them working out their connected classes
+        for (Class loadedClass : offHeap.getAllClasses()) {
+            assertEquals(false, loadedClass.hasConnectedClasses());
+        }
+        for (int c = 0; c < randomClasses.size(); c++) {
+            Class heapClass = onHeap.getAllClasses().get(c);
+            Class offHeapClass = offHeap.getAllClasses().get(c);
+            assertEquals(heapClass.getNumStudentsInfected(), offHeapClass.getNumStudentsInfected());
+            assertEquals(heapClass.getNumStudentsAffected(), offHeapClass.getNumStudentsAffected());
+        }
+        //a class that summed up its affected count sums it again after the next run
+        onHeap.limitedInfection("13", 0.6f);
+        offHeap.limitedInfection("13", 0.6f);
+        for (int c = 0; c < randomClasses.size(); c++) {
+            assertEquals(onHeap.getAllClasses().get(c).getNumStudentsAffected(),
+                    offHeap.getAllClasses().get(c).getNumStudentsAffected());
+        }
+    }
+
+    private List<Integer> seededLimitedInfection(long seed) {
+        return seededLimitedInfection(seed, StorageMode.HEAP, LimitedInfectionMode.CLASS_QUEUE);
+    }
+
+    /**
+     * @return the indexes of the users a seeded limited infection infected, in a seeded random environment
+     */
+    private List<Integer> seededLimitedInfection(long seed, StorageMode storageMode, LimitedInfectionMode mode) {
+        TestEnvironment seededTestEnv = new TestEnvironment(baseSiteVersion, true, seed);
+        seededTestEnv.setStorageMode(storageMode);
+        List<Class> randomClasses = createRandomClasses(100, new Random(seed));
+        jumble(randomClasses, new Random(seed));
+        for (Class rc : randomClasses) {
+            seededTestEnv.addClass(rc);
+        }
+        seededTestEnv.limitedInfection("12", 0.25f, mode);
+        List<Integer> infected = new ArrayList<>();
+        List<User> allUsers = seededTestEnv.getAllUsersList();
+        for (int i = 0; i < allUsers.size(); i++) {
+            if (allUsers.get(i).getSiteVersion().equals("12")) {
+                infected.add(i);
+            }
+        }
+        return infected;
+    }
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        TestEnvironment savedTestEnv = new TestEnvironment(baseSiteVersion, true, 3);
+        Random random = new Random(3);
+        List<Class> randomClasses = createRandomClasses(50, random);
+        for (Class rc : randomClasses) {
+            Class anotherClassroom = randomClasses.get(random.nextInt(randomClasses.size()));
+            for (int rs = 0; rs < rc.getStudents().size() / 10; rs++) {
+                anotherClassroom.enrollStudent(rc.getStudents().get(rs));
+            }
+            savedTestEnv.addClass(rc);
+        }
+        savedTestEnv.limitedInfection("12", 0.25f);
+        Path file = Files.createTempFile("environment", ".snapshot");
+        file.toFile().deleteOnExit();
+        savedTestEnv.saveSnapshot(file);
+
+        TestEnvironment loadedTestEnv = TestEnvironment.loadSnapshot(file, true);
+        //loading leaves the connected classes to be worked out when they are first needed
+        for (Class loadedClass : loadedTestEnv.getAllClasses()) {
+            assertEquals(false, loadedClass.hasConnectedClasses());
+        }
+        List<User> savedUsers = savedTestEnv.getAllUsersList();
+        List<User> loadedUsers = loadedTestEnv.getAllUsersList();
+        assertEquals(savedUsers.size(), loadedUsers.size());
+        for (int i = 0; i < savedUsers.size(); i++) {
+            assertEquals(savedUsers.get(i).getName(), loadedUsers.get(i).getName());
+            assertEquals(savedUsers.get(i).getSiteVersion(), loadedUsers.get(i).getSiteVersion());
+        }
+        assertEquals(savedTestEnv.getInfectedUsers().size(), loadedTestEnv.getInfectedUsers().size());
+        assertEquals(savedTestEnv.getNumComponents(), loadedTestEnv.getNumComponents());
+        for (int c = 0; c < randomClasses.size(); c++) {
+            Class savedClass = savedTestEnv.getAllClasses().get(c);
+            Class loadedClass = loadedTestEnv.getAllClasses().get(c);
+            assertEquals(savedClass.getTeacher().getName(), loadedClass.getTeacher().getName());
+            assertEquals(savedClass.getStudents().size(), loadedClass.getStudents().size());
+            assertEquals(savedClass.getNumStudentsInfected(), loadedClass.getNumStudentsInfected());
+            assertEquals(savedClass.getConnectedClasses().size(), loadedClass.getConnectedClasses().size());
+            assertEquals(savedClass.getNumStudentsAffected(), loadedClass.getNumStudentsAffected());
+        }
+        //the loaded counts carry on as if the environment was never saved
+        savedTestEnv.setSeed(3);
+        loadedTestEnv.setSeed(3);
+        savedTestEnv.limitedInfection("13", 0.5f);
+        loadedTestEnv.limitedInfection("13", 0.5f);
+        for (int i = 0; i < savedUsers.size(); i++) {
+            assertEquals(savedUsers.get(i).getSiteVersion(), loadedUsers.get(i).getSiteVersion());
+        }
+    }
+
+    @Test
+    public void testRollbackRestoresVersionsAndCounts() throws Exception {
+        TestEnvironment undoTestEnv = new TestEnvironment(baseSiteVersion, true, 4);
+        undoTestEnv.setUndoHistory(2);
+        for (Class rc : createRandomClasses(50, new Random(4))) {
+            undoTestEnv.addClass(rc);
+        }
+        SiteVersionSnapshot before = undoTestEnv.snapshotSiteVersions();
+        undoTestEnv.limitedInfection("12", 0.2f);
+        int firstRunInfected = undoTestEnv.getInfectedUsers().size();
+        SiteVersionSnapshot afterFirstRun = undoTestEnv.snapshotSiteVersions();
+        undoTestEnv.totalInfection("13");
+        assertEquals(2, undoTestEnv.getNumUndoableRuns());
+        assertEquals(firstRunInfected, before.diff(afterFirstRun).length);
+
+        undoTestEnv.rollback();
+        assertEquals(0, afterFirstRun.diff(undoTestEnv.snapshotSiteVersions()).length);
+        assertEquals(firstRunInfected, undoTestEnv.getInfectedUsers().size());
+        undoTestEnv.rollback();
+        assertEquals(0, before.diff(undoTestEnv.snapshotSiteVersions()).length);
+        assertEquals(0, undoTestEnv.getInfectedUsers().size());
+        for (User user : undoTestEnv.getAllUsersList()) {
+            assertEquals(baseSiteVersion, user.getSiteVersion());
+        }
+        for (Class c : undoTestEnv.getAllClasses()) {
+            assertEquals(0, c.getNumStudentsInfected());
+        }
+        //the per class counts match a state counted from scratch
+        Graph graph = undoTestEnv.getGraph();
+        InfectionState recounted = new InfectionState();
+        recounted.forkFrom(graph, undoTestEnv.getState());
+        for (int c = 0; c < graph.getNumClasses(); c++) {
+            assertEquals(recounted.getNumStudentsAffected(graph, c),
+                    undoTestEnv.getState().getNumStudentsAffected(graph, c));
+            assertEquals(recounted.getNumAvailableMembers(c), undoTestEnv.getState().getNumAvailableMembers(c));
+        }
+    }
+
+    @Test
+    public void testDiffSavedSnapshot() throws Exception {
+        TestEnvironment savedTestEnv = new TestEnvironment(baseSiteVersion, true, 5);
+        for (Class rc : createRandomClasses(20, new Random(5))) {
+            savedTestEnv.addClass(rc);
+        }
+        Path file = Files.createTempFile("environment", ".snapshot");
+        file.toFile().deleteOnExit();
+        savedTestEnv.saveSnapshot(file);
+        savedTestEnv.limitedInfection("12", 0.3f);
+
+        SiteVersionSnapshot saved = SiteVersionSnapshot.read(file);
+        int[] changed = saved.diff(savedTestEnv.snapshotSiteVersions());
+        assertEquals(savedTestEnv.getInfectedUsers().size(), changed.length);
+        for (int user : changed) {
+            assertEquals(baseSiteVersion, saved.getSiteVersion(user));
+            assertEquals("12", savedTestEnv.getAllUsersList().get(user).getSiteVersion());
+        }
+    }
+
+    @Test
+    public void testStreamedEnrollmentsDuringRuns() throws Exception {
+        TestEnvironment streamTestEnv = new TestEnvironment(baseSiteVersion, true, 5);
+        List<Class> randomClasses = createRandomClasses(200, new Random(5));
+        for (Class rc : randomClasses) {
+            streamTestEnv.addClass(rc);
+        }
+        int numEnrollments = streamTestEnv.getGraph().getNumEnrollments();
+        int numUsers = streamTestEnv.getAllUsersList().size();
+        EnrollmentStream stream = streamTestEnv.getEnrollmentStream();
+
+        int numWriters = 4;
+        ExecutorService writers = Executors.newFixedThreadPool(numWriters);
+        List<Future<?>> done = new ArrayList<>();
+        for (int w = 0; w < numWriters; w++) {
+            int writer = w;
+            done.add(writers.submit(() -> {
+                Random random = new Random(writer);
+                for (int i = 0; i < 2000; i++) {
+                    User student = new User(writer + "," + i + "streamed", baseSiteVersion);
+                    stream.enrollStudent(randomClasses.get(random.nextInt(randomClasses.size())), student);
+                    if (i % 100 == 0) {
+                        List<User> students = new ArrayList<>();
+                        for (int j = 0; j < 5; j++) {
+                            students.add(new User(writer + "," + i + "," + j + "streamedClass", baseSiteVersion));
+                        }
+                        stream.addClass(new User(writer + "," + i + "streamedTeacher", baseSiteVersion), students);
+                    }
+                    if (i % 250 == 0) {
+                        stream.enrollTeacher(randomClasses.get(random.nextInt(randomClasses.size())),
+                                new User(writer + "," + i + "streamedNewTeacher", baseSiteVersion));
+                    }
+                }
+            }));
+        }
+        //every run reads a snapshot at least as large as the one before
+        int lastNumEnrollments = numEnrollments;
+        int run = 0;
+        while (!allDone(done)) {
+            streamTestEnv.limitedInfection(Integer.toString(12 + run % 3), 0.1f);
+            int runEnrollments = streamTestEnv.getGraph().getNumEnrollments();
+            assertEquals(true, runEnrollments >= lastNumEnrollments);
+            lastNumEnrollments = runEnrollments;
+            run++;
+        }
+        for (Future<?> writer : done) {
+            writer.get();
+        }
+        writers.shutdown();
+
+        Graph graph = streamTestEnv.getGraph();
+        int numStreamed = numWriters * (2000 + 20 + 8);
+        assertEquals(numStreamed, stream.getNumStreamed());
+        assertEquals(numStreamed, stream.getNumApplied());
+        //a new teacher takes the place of the old one, who keeps their id
+        assertEquals(numEnrollments + numWriters * (2000 + 20 * 6), graph.getNumEnrollments());
+        assertEquals(numUsers + numWriters * (2000 + 20 * 6 + 8), streamTestEnv.getAllUsersList().size());
+        //replaced teachers were unlinked from their classes
+        for (User user : streamTestEnv.getAllUsersList()) {
+            for (Class classroom : user.getTeachingClasses()) {
+                assertEquals(user, classroom.getTeacher());
+            }
+        }
+        assertEquals(200 + numWriters * 20, streamTestEnv.getAllClasses().size());
+    }
+
+    private boolean allDone(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            if (!future.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Test
+    public void testInfectOnArrival() throws Exception {
+        List<User> students = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            students.add(new User(i + "other", baseSiteVersion));
+        }
+        Class otherClassroom = new Class(new User("teacher2", baseSiteVersion), students);
+        testEnv.addClass(otherClassroom);
+        testEnv.setInfectOnArrival(true);
+        testEnv.totalInfection(testClassroom.getTeacher(), "12", TraversalMode.SEQUENTIAL);
+
+        User infectedArrival = new User("infectedArrival", baseSiteVersion);
+        User otherArrival = new User("otherArrival", baseSiteVersion);
+        testEnv.getEnrollmentStream().enrollStudent(testClassroom, infectedArrival);
+        testEnv.getEnrollmentStream().enrollStudent(otherClassroom, otherArrival);
+        testEnv.getGraph();
+        assertEquals("12", infectedArrival.getSiteVersion());
+        assertEquals(true, testEnv.getInfectedUsers().contains(infectedArrival));
+        assertEquals(true, testClassroom.isCompletelyInfected());
+        assertEquals(baseSiteVersion, otherArrival.getSiteVersion());
+        assertEquals(false, testEnv.getInfectedUsers().contains(otherArrival));
+    }
+
+    @Test
+    public void testMembershipChangesKeepCountsInSync() throws Exception {
+        List<User> students = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            students.add(new User(i + "other", baseSiteVersion));
+        }
+        Class otherClassroom = new Class(new User("teacher2", baseSiteVersion), students);
+        testEnv.addClass(otherClassroom);
+        testEnv.totalInfection(testClassroom.getTeacher(), "12", TraversalMode.SEQUENTIAL);
+        int numUsers = testEnv.getAllUsersList().size();
+
+        User infected = testClassroom.getStudents().get(0);
+        otherClassroom.enrollStudent(infected);
+        assertEquals(1, otherClassroom.getNumStudentsInfected());
+        testClassroom.unenrollStudent(infected);
+        assertEquals(numStudents - 1, testClassroom.getNumStudentsInfected());
+        assertEquals(true, testClassroom.isCompletelyInfected());
+
+        //the old teacher keeps their id, and the graph only has the new teacher's edge
+        User oldTeacher = testClassroom.getTeacher();
+        testClassroom.enrollTeacher(otherClassroom.getStudents().get(0));
+        Graph graph = testEnv.getGraph();
+        int oldTeacherId = testEnv.getAllUsersList().indexOf(oldTeacher);
+        assertEquals(numUsers, testEnv.getAllUsersList().size());
+        assertEquals(0, graph.userClassEnd(oldTeacherId) - graph.userClassStart(oldTeacherId));
+        assertEquals(numStudents + 7, graph.getNumEnrollments());
+        assertEquals(numStudents - 1, testClassroom.getNumStudentsInfected());
+        assertEquals(1, otherClassroom.getNumStudentsInfected());
+        assertEquals(2, testEnv.getNumComponents());
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptSnapshotRejected() throws Exception {
+        Path file = Files.createTempFile("environment", ".snapshot");
+        file.toFile().deleteOnExit();
+        testEnv.saveSnapshot(file);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+        TestEnvironment.loadSnapshot(file, true);
+    }
+
     @Test
     public void testLimitedInfection() throws Exception {
         //create special test environment
@@ -175,8 +676,11 @@ public class TestEnvironmentTest {
     }
 
     private List<Class> createRandomClasses(int numTotalClasses) {
+        return createRandomClasses(numTotalClasses, new Random());
+    }
+
+    private List<Class> createRandomClasses(int numTotalClasses, Random random) {
         List<Class> allClasses = new ArrayList<>();
-        Random random = new Random();
         int maxClassSize = 1000;
         for (int i = 0; i < numTotalClasses; i++) {
             int classSize = random.nextInt(maxClassSize);
@@ -195,16 +699,19 @@ public class TestEnvironmentTest {
      * @param classes
      */
     private void jumble(List<Class> classes) {
-        Random random = new Random();
+        jumble(classes, new Random());
+    }
+
+    private void jumble(List<Class> classes, Random random) {
         for (Class classroom : classes) {
             int anotherClassroomIndex = random.nextInt(classes.size());
             Class anotherClassroom = classes.get(anotherClassroomIndex);
-            int numRogueStudents = random.nextInt(classroom.getAllUsers().size());
-            int numRogueTeachers = random.nextInt(classroom.getAllUsers().size()/4+1);
+            int numRogueStudents = random.nextInt(classroom.getAllUsersView().size());
+            int numRogueTeachers = random.nextInt(classroom.getAllUsersView().size()/4+1);
             for (int rs = 0; rs < numRogueStudents; rs++) {
-                anotherClassroom.enrollStudent(classroom.getAllUsers().get(rs));
+                anotherClassroom.enrollStudent(classroom.getAllUsersView().get(rs));
             }
-            anotherClassroom.enrollTeacher(classroom.getAllUsers().get(numRogueTeachers));
+            anotherClassroom.enrollTeacher(classroom.getAllUsersView().get(numRogueTeachers));
         }
     }
 }
\ No newline at end of file